@@ -0,0 +1,112 @@
+package mc21g14.fractal.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small benchmark harness. Runs some warmup iterations so the JIT has compiled everything, then
+ * times each of the measured iterations.
+ *
+ * Not JMH, which the Ant build has no way to fetch. Operations here are whole frames, long enough
+ * that the timer and loop don't skew them, but benchmarks share a JVM rather than forking.
+ * 
+ * @author Matthew Consterdine
+ */
+public abstract class Benchmark {
+	// Results are folded into here so the JIT can't throw away the work being measured
+	public static volatile int sink;
+
+	protected final String name;
+	protected final Map<String, String> params;
+	protected final int threads;
+
+	/**
+	 * Create a new benchmark
+	 * @param name The name reported with the results
+	 */
+	public Benchmark(String name) {
+		this(name, new LinkedHashMap<String, String>());
+	}
+
+	/**
+	 * Create a new benchmark with parameters, so runs can be told apart in the results
+	 * @param name The name reported with the results
+	 * @param params The parameters reported with the results
+	 */
+	public Benchmark(String name, Map<String, String> params) {
+		this(name, params, 1);
+	}
+
+	/**
+	 * Create a new benchmark of code that runs on more than one thread
+	 * @param name The name reported with the results
+	 * @param params The parameters reported with the results
+	 * @param threads The number of threads the code uses, reported with the results
+	 */
+	public Benchmark(String name, Map<String, String> params, int threads) {
+		this.name    = name;
+		this.params  = params;
+		this.threads = threads;
+	}
+
+	public String getName() {return name;}
+
+	/**
+	 * Run the code being measured once
+	 * @return Anything computed, so it isn't optimised away
+	 */
+	public abstract Object run();
+
+	/**
+	 * Warm up then measure the benchmark
+	 * @param warmup Number of untimed iterations
+	 * @param iterations Number of timed iterations
+	 * @return The measurements
+	 */
+	public Result measure(int warmup, int iterations) {
+		for(int i = 0; i < warmup; i++) sink ^= System.identityHashCode(run());
+
+		double[] times = new double[iterations];
+		for(int i = 0; i < iterations; i++) {
+			long time = System.nanoTime();
+			Object result = run();
+			times[i] = (System.nanoTime() - time) / 1_000_000.0;
+			sink ^= System.identityHashCode(result);
+		}
+
+		return new Result(name, params, threads, times);
+	}
+
+	/**
+	 * Timings of a single benchmark, in milliseconds per operation
+	 */
+	public static class Result {
+		public final String   name;
+		public final Map<String, String> params;
+		public final int      threads;
+		public final double[] times;
+		public final double   mean;
+		public final double   error;
+
+		public Result(String name, Map<String, String> params, int threads, double[] times) {
+			this.name    = name;
+			this.params  = params;
+			this.threads = threads;
+			this.times   = times;
+
+			double sum = 0;
+			for(double t : times) sum += t;
+			mean = sum / times.length;
+
+			// Standard error of the mean
+			double variance = 0;
+			for(double t : times) variance += (t - mean) * (t - mean);
+			error = times.length > 1 ? Math.sqrt(variance / (times.length - 1)) / Math.sqrt(times.length) : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-28s %-60s %12.3f +- %8.3f ms/op", name, params.isEmpty() ? "" : params.toString(), mean, error);
+		}
+	}
+}
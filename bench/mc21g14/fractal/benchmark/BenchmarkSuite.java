@@ -0,0 +1,93 @@
+package mc21g14.fractal.benchmark;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import mc21g14.fractal.calculable.CalculatorBenchmarks;
+
+/**
+ * Runs every benchmark and writes the results as JSON, laid out like JMH's JSON output so the
+ * same tools can be used to compare releases.
+ * Run: java mc21g14.fractal.benchmark.BenchmarkSuite [output.json] [filter regex]
+ * 
+ * Warmup and measured iterations can be changed with -Dbench.warmup and -Dbench.iterations
+ * 
+ * @author Matthew Consterdine
+ */
+public class BenchmarkSuite {
+	public static void main(String[] args) throws IOException {
+		String  output     = args.length > 0 ? args[0] : "benchmark.json";
+		Pattern filter     = Pattern.compile(args.length > 1 ? args[1] : ".*");
+		int     warmup     = Integer.getInteger("bench.warmup", 3);
+		int     iterations = Integer.getInteger("bench.iterations", 5);
+
+		// Gather everything we want to run
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(CalculatorBenchmarks.create());
+		benchmarks.addAll(ColoringBenchmarks.create());
+
+		List<Benchmark.Result> results = new ArrayList<Benchmark.Result>();
+		for(Benchmark benchmark : benchmarks) {
+			if(!filter.matcher(benchmark.getName()).find()) continue;
+
+			Benchmark.Result result = benchmark.measure(warmup, iterations);
+			System.out.println(result);
+			results.add(result);
+		}
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+		writeJSON(writer, results, warmup);
+		writer.close();
+
+		System.out.println("Results written to " + output);
+	}
+
+	/**
+	 * Write results as JSON
+	 * @param writer Where to write to
+	 * @param results The results
+	 * @param warmup Number of warmup iterations used
+	 * @throws IOException If writing fails
+	 */
+	public static void writeJSON(Writer writer, List<Benchmark.Result> results, int warmup) throws IOException {
+		writer.write("[\n");
+		for(int r = 0; r < results.size(); r++) {
+			Benchmark.Result result = results.get(r);
+
+			writer.write("\t{\n");
+			writer.write("\t\t\"benchmark\": " + quote(result.name) + ",\n");
+			writer.write("\t\t\"mode\": \"avgt\",\n");
+			writer.write("\t\t\"threads\": " + result.threads + ",\n");
+			writer.write("\t\t\"warmupIterations\": " + warmup + ",\n");
+			writer.write("\t\t\"measurementIterations\": " + result.times.length + ",\n");
+			writer.write("\t\t\"jvm\": " + quote(System.getProperty("java.vm.name") + " " + System.getProperty("java.version")) + ",\n");
+			writer.write("\t\t\"cores\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+
+			writer.write("\t\t\"params\": {");
+			int p = 0;
+			for(Map.Entry<String, String> param : result.params.entrySet()) {
+				writer.write((p++ > 0 ? ", " : "") + quote(param.getKey()) + ": " + quote(param.getValue()));
+			}
+			writer.write("},\n");
+
+			writer.write("\t\t\"primaryMetric\": {\n");
+			writer.write("\t\t\t\"score\": " + result.mean + ",\n");
+			writer.write("\t\t\t\"scoreError\": " + result.error + ",\n");
+			writer.write("\t\t\t\"scoreUnit\": \"ms/op\",\n");
+			writer.write("\t\t\t\"rawData\": [[");
+			for(int t = 0; t < result.times.length; t++) writer.write((t > 0 ? ", " : "") + result.times[t]);
+			writer.write("]]\n");
+			writer.write("\t\t}\n");
+
+			writer.write(r < results.size() - 1 ? "\t},\n" : "\t}\n");
+		}
+		writer.write("]\n");
+	}
+
+	protected static String quote(String string) {
+		return "\"" + string.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
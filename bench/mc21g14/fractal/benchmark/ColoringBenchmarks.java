@@ -0,0 +1,71 @@
+package mc21g14.fractal.benchmark;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mc21g14.fractal.calculable.CalculatorBenchmarks;
+import mc21g14.fractal.colorable.Colorable;
+import mc21g14.fractal.misc.Fractal;
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Benchmarks for everything that happens to fractal data after it has been calculated
+ * 
+ * @author Matthew Consterdine
+ */
+public class ColoringBenchmarks {
+	/**
+	 * Create every coloring and sectionOf benchmark
+	 * @return List of benchmarks
+	 */
+	public static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		for(Map.Entry<String, Dimension> size : Fixtures.sizes().entrySet()) {
+			final Dimension    dimension = size.getValue();
+			final FractalState state     = Fixtures.states().get("home");
+
+			// The data is calculated once, we are only interested in what happens afterwards
+			final double[] data = CalculatorBenchmarks.calculate(state, dimension);
+
+			for(final Colorable coloring : Colorable.getImplementations()) {
+				Map<String, String> params = new LinkedHashMap<String, String>();
+				params.put("fixture",  "home");
+				params.put("size",     size.getKey());
+				params.put("coloring", coloring.toString());
+
+				benchmarks.add(new Benchmark("Colorable.iterationsToRGB", params) {
+					@Override public Object run() {
+						return coloring.iterationsToRGB(data, dimension.width, state.iterations);
+					}
+				});
+
+				// Reuses its array, as a Fractal reuses its image
+				final int[] argb = new int[data.length];
+				benchmarks.add(new Benchmark("Colorable.iterationsToARGB", params) {
+					@Override public Object run() {
+						coloring.iterationsToARGB(data, dimension.width, 0, data.length, state.iterations, false, argb);
+						return argb;
+					}
+				});
+			}
+
+			// The centre quarter, as used when zooming in
+			final Rectangle bounds = new Rectangle(dimension.width / 4, dimension.height / 4, dimension.width / 2, dimension.height / 2);
+
+			Map<String, String> params = new LinkedHashMap<String, String>();
+			params.put("fixture", "home");
+			params.put("size",    size.getKey());
+
+			benchmarks.add(new Benchmark("Fractal.sectionOf", params) {
+				@Override public Object run() {return Fractal.sectionOf(data, dimension.width, bounds);}
+			});
+		}
+
+		return benchmarks;
+	}
+}
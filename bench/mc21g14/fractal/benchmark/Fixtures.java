@@ -0,0 +1,54 @@
+package mc21g14.fractal.benchmark;
+
+import java.awt.Dimension;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mc21g14.fractal.misc.Complex;
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Fixed inputs shared by every benchmark, so results can be compared between releases
+ * 
+ * @author Matthew Consterdine
+ */
+public class Fixtures {
+	/**
+	 * The resolutions every benchmark is run at
+	 * @return Map of names to sizes
+	 */
+	public static Map<String, Dimension> sizes() {
+		Map<String, Dimension> sizes = new LinkedHashMap<String, Dimension>();
+		sizes.put("320x180",  new Dimension(320,  180));
+		sizes.put("640x360",  new Dimension(640,  360));
+		sizes.put("1280x720", new Dimension(1280, 720));
+		return sizes;
+	}
+
+	/**
+	 * The views every benchmark is run on. Always returns new states, so they can be modified.
+	 * @return Map of names to states
+	 */
+	public static Map<String, FractalState> states() {
+		Map<String, FractalState> states = new LinkedHashMap<String, FractalState>();
+
+		// The view you get when the explorer starts
+		states.put("home", new FractalState());
+
+		// Lots of detail, and lots of interior pixels at maximum iterations
+		FractalState seahorse = new FractalState();
+		seahorse.start      = -0.7500;
+		seahorse.end        = -0.7400;
+		seahorse.top        =  0.0950;
+		seahorse.bottom     =  0.1010;
+		seahorse.iterations = 500;
+		states.put("seahorse", seahorse);
+
+		// A connected julia set
+		FractalState julia = new FractalState();
+		julia.seed = new Complex(-0.8, 0.156);
+		states.put("julia", julia);
+
+		return states;
+	}
+}
@@ -0,0 +1,120 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mc21g14.fractal.benchmark.Benchmark;
+import mc21g14.fractal.benchmark.Fixtures;
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Benchmarks for JavaCalculator.calculate. Lives in the calculable package as calculate is
+ * protected.
+ * 
+ * @author Matthew Consterdine
+ */
+public class CalculatorBenchmarks {
+	protected static final JavaCalculator         calculator   = new JavaCalculator();
+	protected static final PerturbationCalculator perturbation = new PerturbationCalculator();
+
+	/**
+	 * Calculate a fractal with the Java backend
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @return The fractal data
+	 */
+	public static double[] calculate(FractalState state, Dimension size) {
+		return calculator.calculate(state, size);
+	}
+
+	/**
+	 * Create every calculator benchmark
+	 * @return List of benchmarks
+	 */
+	public static List<Benchmark> create() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		for(Map.Entry<String, Dimension> size : Fixtures.sizes().entrySet()) {
+			// Every fractal, with and without smoothing, on the default view
+			for(String fractal : calculator.getImplementedFractals()) {
+				for(boolean smooth : new boolean[] {true, false}) {
+					FractalState state = Fixtures.states().get("home");
+					state.fractal = fractal;
+					state.smooth  = smooth;
+					benchmarks.add(create("home", size, state, smooth ? "smooth" : "integer"));
+				}
+			}
+
+			// The other views, which are Mandlebrot
+			for(Map.Entry<String, FractalState> state : Fixtures.states().entrySet()) {
+				if(state.getKey().equals("home")) continue;
+				benchmarks.add(create(state.getKey(), size, state.getValue(), "smooth"));
+			}
+
+			// Subdivision, on every view
+			for(Map.Entry<String, FractalState> state : Fixtures.states().entrySet()) {
+				state.getValue().subdivide = true;
+				benchmarks.add(create(state.getKey(), size, state.getValue(), "subdivide"));
+			}
+
+			// Deep interior, with and without the interior checks
+			for(double periodicity : new double[] {1e-10, -1}) {
+				FractalState state = Fixtures.states().get("seahorse");
+				state.iterations  = 10000;
+				state.periodicity = periodicity;
+				benchmarks.add(create("seahorse", size, state, periodicity < 0 ? "interior unchecked" : "interior checked"));
+			}
+
+			// Perturbation, on the views it supports
+			for(Map.Entry<String, FractalState> state : Fixtures.states().entrySet()) {
+				if(!PerturbationCalculator.supports(state.getValue())) continue;
+				benchmarks.add(createPerturbation(state.getKey(), size, state.getValue()));
+			}
+
+			// Orbit traps
+			for(String traps : new String[] {"Cross", "Dots"}) {
+				FractalState state = Fixtures.states().get("home");
+				state.orbitTraps   = traps;
+				state.regionSplits = "Iterations";
+				benchmarks.add(create("home", size, state, "traps " + traps));
+			}
+
+			// Buddha
+			FractalState state = Fixtures.states().get("home");
+			state.buddha = true;
+			benchmarks.add(create("home", size, state, "buddha"));
+		}
+
+		return benchmarks;
+	}
+
+	protected static Benchmark createPerturbation(String fixture, Map.Entry<String, Dimension> size, final FractalState state) {
+		final Dimension dimension = size.getValue();
+
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("fixture", fixture);
+		params.put("size",    size.getKey());
+
+		// Perturbation starts as many threads as the CPU pool has
+		return new Benchmark("PerturbationCalculator.calculate", params, JavaCalculator.getThreads()) {
+			@Override public Object run() {return perturbation.calculate(state, dimension);}
+		};
+	}
+
+	protected static Benchmark create(String fixture, Map.Entry<String, Dimension> size, final FractalState state, String mode) {
+		final Dimension dimension = size.getValue();
+
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("fixture", fixture);
+		params.put("size",    size.getKey());
+		params.put("fractal", state.fractal);
+		params.put("mode",    mode);
+
+		return new Benchmark("JavaCalculator.calculate", params, JavaCalculator.getThreads()) {
+			@Override public Object run() {return calculate(state, dimension);}
+		};
+	}
+}
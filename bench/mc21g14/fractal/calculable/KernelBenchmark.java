@@ -0,0 +1,91 @@
+package mc21g14.fractal.calculable;
+
+import mc21g14.fractal.benchmark.Benchmark;
+import mc21g14.fractal.misc.Complex;
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Compares the primitive JavaKernel with iterating using Complex, on a single thread. Measured
+ * with the suite's harness rather than JMH, see Benchmark. Both paths get the same warmup, and
+ * they're separate methods, so neither's profile is shared with the other.
+ * Run: java mc21g14.fractal.calculable.KernelBenchmark
+ * 
+ * @author Matthew Consterdine
+ */
+public class KernelBenchmark {
+	protected static final int WIDTH  = 200;
+	protected static final int HEIGHT = 160;
+
+	/**
+	 * Iterate every pixel of the default view using Complex, as JavaRunnable used to
+	 */
+	protected static double[] complexPath(FractalState state) {
+		double   threshold = state.threshold * state.threshold;
+		double[] results   = new double[WIDTH * HEIGHT];
+
+		for(int i = 0; i < results.length; i++) {
+			Complex past = new Complex(state.start + (state.end - state.start) * (i % WIDTH) / WIDTH, state.top - (state.top - state.bottom) * (i / WIDTH) / HEIGHT);
+			Complex base = past;
+			Complex current;
+
+			results[i] = -1;
+			for(int it = 1; it < state.iterations; it++) {
+				switch(state.fractal) {
+					case "Mandlebrot":   current = past.pow(state.order).add(base); break;
+					case "Burning Ship": current = past.abs().pow(state.order).add(base); break;
+					case "Tricorn":      current = new Complex(past.r, past.i * -1).pow(state.order).add(base); break;
+					case "Nova":         current = past.subtract(new Complex(1, 0).multiply(past.pow(state.order).subtract(new Complex(1, 0))).divide(new Complex(state.order, 0).multiply(past.pow(state.order - 1)))).add(base); break;
+					default:             current = past.pow(state.order); break;
+				}
+
+				if(current.modulusSquared() > threshold) {
+					double k = Math.max((threshold - past.modulusSquared()) / Math.abs((past.modulusSquared() - current.modulusSquared())), 0);
+					results[i] = it + k - 1;
+					break;
+				}
+
+				past = current;
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Iterate every pixel of the default view using JavaKernel
+	 */
+	protected static double[] kernelPath(FractalState state) {
+		JavaKernel kernel  = new JavaKernel(state);
+		double[]   results = new double[WIDTH * HEIGHT];
+
+		for(int i = 0; i < results.length; i++) {
+			double r = state.start + (state.end - state.start) * (i % WIDTH) / WIDTH;
+			double c = state.top - (state.top - state.bottom) * (i / WIDTH) / HEIGHT;
+			results[i] = kernel.escape(r, c, r, c);
+		}
+
+		return results;
+	}
+
+	public static void main(String[] args) {
+		for(String fractal : new JavaCalculator().getImplementedFractals()) {
+			for(int order : new int[] {2, 3, 5}) {
+				final FractalState state = new FractalState();
+				state.fractal    = fractal;
+				state.order      = order;
+				state.iterations = 1000;
+
+				Benchmark.Result complex = new Benchmark(fractal + " order " + order + " (Complex)") {
+					@Override public Object run() {return complexPath(state);}
+				}.measure(5, 10);
+				Benchmark.Result kernel = new Benchmark(fractal + " order " + order + " (JavaKernel)") {
+					@Override public Object run() {return kernelPath(state);}
+				}.measure(5, 10);
+
+				System.out.println(complex);
+				System.out.println(kernel);
+				System.out.println(String.format("%-50s %12.2fx", "Speedup", complex.mean / kernel.mean));
+			}
+		}
+	}
+}
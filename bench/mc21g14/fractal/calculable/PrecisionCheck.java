@@ -0,0 +1,90 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.math.BigDecimal;
+import java.util.Map;
+
+import mc21g14.fractal.benchmark.Fixtures;
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Checks that floats give the same images as doubles on views where they are picked, that
+ * double-doubles always do, and how much faster or slower they are. Double-doubles are also
+ * checked past where doubles work, against the perturbation calculator. Exits with 1 if any view
+ * differs by more than the allowed fraction of pixels.
+ * Running: ant benchmark -Dbenchmark=mc21g14.fractal.calculable.PrecisionCheck -Dbenchmark.args=
+ *
+ * @author Matthew Consterdine
+ */
+public class PrecisionCheck {
+	// Pixels near the edge of the set are chaotic, the tiniest rounding difference can change how
+	// many iterations they take. Allow a few of those, Burning Ship has the most.
+	protected static final double allowed = 0.02;
+
+	public static void main(String[] args) {
+		JavaCalculator calculator = new JavaCalculator();
+		Dimension      size       = new Dimension(640, 360);
+		boolean        failed     = false;
+
+		for(Map.Entry<String, FractalState> fixture : Fixtures.states().entrySet()) {
+			for(String fractal : new String[] {"Mandlebrot", "Tricorn", "Burning Ship"}) {
+				FractalState state = fixture.getValue().clone();
+				state.fractal = fractal;
+				state.smooth  = false;
+
+				if(Precision.floatsEnough(state, size))
+					failed |= !compare(fixture.getKey(), calculator, state, size, Precision.FLOAT, calculator, Precision.DOUBLE);
+				failed |= !compare(fixture.getKey(), calculator, state, size, Precision.DOUBLE_DOUBLE, calculator, Precision.DOUBLE);
+			}
+		}
+
+		// Far past where doubles can tell pixels apart
+		FractalState deep = new FractalState();
+		deep.smooth     = false;
+		deep.iterations = 5000;
+		deep.setView(new BigDecimal("-0.743643887037158704752191506114774"), new BigDecimal("0.131825904205311970493132056385139"), 4e-22, 2.25e-22);
+		failed |= !compare("deep", calculator, deep, size, Precision.DOUBLE_DOUBLE, new PerturbationCalculator(), Precision.DOUBLE);
+
+		if(failed) System.exit(1);
+	}
+
+	/**
+	 * Compare a precision against a reference, printing the result
+	 * @return True if they match closely enough
+	 */
+	protected static boolean compare(String name, Calculable calculator, FractalState state, Dimension size, String precision, Calculable reference, String referencePrecision) {
+		FractalState tested = state.clone();
+		tested.precision = precision;
+		FractalState expected = state.clone();
+		expected.precision = referencePrecision;
+
+		double[] a = calculator.calculate(tested, size);
+		double[] b = reference.calculate(expected, size);
+
+		int wrong = 0;
+		for(int i = 0; i < a.length; i++) if(a[i] != b[i]) wrong++;
+
+		boolean ok = wrong <= allowed * a.length;
+		System.out.println(String.format(
+			"%-4s %-9s %-13s %-13s %7d of %d pixels differ, %.2fx the speed of %s",
+			ok ? "ok" : "FAIL", name, state.fractal, precision, wrong, a.length,
+			(double) time(reference, expected, size) / time(calculator, tested, size),
+			reference == calculator ? referencePrecision : reference.getClass().getSimpleName()
+		));
+		return ok;
+	}
+
+	/**
+	 * Time a calculation, taking the fastest of a few runs
+	 * @return Time taken in nanoseconds
+	 */
+	protected static long time(Calculable calculator, FractalState state, Dimension size) {
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 3; i++) {
+			long time = System.nanoTime();
+			calculator.calculate(state, size);
+			best = Math.min(best, System.nanoTime() - time);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,54 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.util.Map;
+
+import mc21g14.fractal.benchmark.Fixtures;
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Checks that the SIMD calculator gives exactly the same images as the CPU, in doubles and in
+ * floats, and how much faster it is. The vector kernels do the same arithmetic in the same order,
+ * so any difference at all is a bug. Exits with 1 if a view differs, or the vector kernel can't be loaded.
+ * Running: ant benchmark -Dvector=true -Dbenchmark=mc21g14.fractal.calculable.SimdCheck -Dbenchmark.args=
+ *
+ * @author Matthew Consterdine
+ */
+public class SimdCheck {
+	public static void main(String[] args) {
+		if(!SimdCalculator.isAvailable()) System.exit(1);
+
+		JavaCalculator java   = new JavaCalculator();
+		SimdCalculator simd   = new SimdCalculator();
+		Dimension      size   = new Dimension(640, 360);
+		boolean        failed = false;
+
+		for(String precision : new String[] {Precision.DOUBLE, Precision.FLOAT})
+		for(Map.Entry<String, FractalState> fixture : Fixtures.states().entrySet()) {
+			for(String fractal : new String[] {"Mandlebrot", "Tricorn", "Burning Ship"}) {
+				for(boolean smooth : new boolean[] {false, true}) {
+					FractalState state = fixture.getValue().clone();
+					state.fractal   = fractal;
+					state.smooth    = smooth;
+					state.precision = precision;
+					state.subdivide = false;
+
+					double[] a = simd.calculate(state, size);
+					double[] b = java.calculate(state, size);
+
+					int wrong = 0;
+					for(int i = 0; i < a.length; i++) if(Double.doubleToLongBits(a[i]) != Double.doubleToLongBits(b[i])) wrong++;
+
+					System.out.println(String.format(
+						"%-4s %-6s %-9s %-13s %-6s %7d of %d pixels differ, %.2fx the speed of the CPU",
+						wrong == 0 ? "ok" : "FAIL", precision, fixture.getKey(), fractal, smooth ? "smooth" : "", wrong, a.length,
+						(double) PrecisionCheck.time(java, state, size) / PrecisionCheck.time(simd, state, size)
+					));
+					failed |= wrong != 0;
+				}
+			}
+		}
+
+		if(failed) System.exit(1);
+	}
+}
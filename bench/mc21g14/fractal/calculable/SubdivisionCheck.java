@@ -0,0 +1,188 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.Map;
+
+import mc21g14.fractal.benchmark.Fixtures;
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Shows how much detail subdivision loses compared to calculating every pixel, and how much
+ * faster it is.
+ *
+ * Subdivision is lossy. The edge of a rectangle is only sampled at pixels, so a filament thinner
+ * than a pixel can cross it between two of them and be filled over. So the difference from brute
+ * force is printed, not checked. What's checked is that it fills only the rectangles it should,
+ * against the same subdivision replayed over the brute force results. Every pixel it calculates
+ * must match, and it must fill exactly the rectangles whose edges match, so any difference from
+ * the replay is a bug.
+ *
+ * The CPU subdivides recursively, so it's checked as a single tile covering the image, whose
+ * rectangles are known. The GPU only checks one level of blocks, see calc.cl, and is checked if
+ * OpenCL is available. Exits with 1 if any view differs from its replay.
+ * Running: ant benchmark -Dbenchmark=mc21g14.fractal.calculable.SubdivisionCheck -Dbenchmark.args=
+ *
+ * @author Matthew Consterdine
+ */
+public class SubdivisionCheck {
+	// The size of the GPU's blocks, BLOCK in calc.cl
+	protected static final int BLOCK = 16;
+
+	public static void main(String[] args) {
+		JavaCalculator   calculator = new JavaCalculator();
+		OpenCLCalculator gpu        = null;
+		Dimension        size       = new Dimension(640, 360);
+		boolean          failed     = false;
+
+		try {
+			gpu = new OpenCLCalculator();
+		} catch (Throwable e) {
+			System.out.println("OpenCL isn't available, only checking the CPU");
+		}
+
+		for(Map.Entry<String, FractalState> fixture : Fixtures.states().entrySet()) {
+			for(String fractal : new String[] {"Mandlebrot", "Tricorn", "Burning Ship"}) {
+				for(boolean smooth : new boolean[] {true, false}) {
+					FractalState state = fixture.getValue().clone();
+					state.fractal = fractal;
+					state.smooth  = smooth;
+
+					// Brute force, then subdivided as one tile so the rectangles are known
+					double[] brute     = calculator.calculate(state, size);
+					long     bruteTime = time(calculator, state, size);
+
+					state.subdivide = true;
+					double[] subdivided = new double[brute.length];
+					new JavaRunnable(state, size, subdivided, false, RenderJob.NONE).calculate(new Rectangle(size));
+					long subdividedTime = time(calculator, state, size);
+
+					double[] expected = brute.clone();
+					replay(state, size, brute, expected, 0, 0, size.width, size.height);
+					failed |= !report("cpu", fixture.getKey(), state, brute, subdivided, expected, bruteTime, subdividedTime);
+
+					if(gpu == null) continue;
+
+					state.subdivide = false;
+					brute     = gpu.calculate(state, size);
+					bruteTime = time(gpu, state, size);
+
+					state.subdivide = true;
+					subdivided     = gpu.calculate(state, size);
+					subdividedTime = time(gpu, state, size);
+
+					expected = brute.clone();
+					replayBlocks(state, size, brute, expected);
+					failed |= !report("gpu", fixture.getKey(), state, brute, subdivided, expected, bruteTime, subdividedTime);
+				}
+			}
+		}
+
+		if(failed) System.exit(1);
+	}
+
+	/**
+	 * Print how a subdivided image compares
+	 * @return True if it's exactly what was expected
+	 */
+	protected static boolean report(String device, String view, FractalState state, double[] brute, double[] subdivided,
+	                                double[] expected, long bruteTime, long subdividedTime) {
+		int wrong = 0, missed = 0;
+		for(int i = 0; i < brute.length; i++) {
+			if(Double.doubleToLongBits(subdivided[i]) != Double.doubleToLongBits(expected[i])) wrong++;
+			if(Double.doubleToLongBits(subdivided[i]) != Double.doubleToLongBits(brute[i]))    missed++;
+		}
+
+		System.out.println(String.format(
+			"%-4s %-3s %-9s %-13s %-8s %5d unlike the replay, %5d of %d unlike brute force, %.2fx faster",
+			wrong == 0 ? "ok" : "FAIL", device, view, state.fractal, state.smooth ? "smooth" : "integer",
+			wrong, missed, brute.length, (double) bruteTime / subdividedTime
+		));
+		return wrong == 0;
+	}
+
+	/**
+	 * Replay JavaRunnable.split over known results, filling the rectangles it would fill
+	 * @param state The fractal state
+	 * @param size The size of the image
+	 * @param brute Every pixel, calculated
+	 * @param into Where to fill
+	 */
+	protected static void replay(FractalState state, Dimension size, double[] brute, double[] into, int x, int y, int width, int height) {
+		if(width <= 2 || height <= 2) return;
+
+		int     stride = size.width;
+		double  value  = brute[y * stride + x];
+		boolean same   = true;
+		for(int i = x; i < x + width; i++) {
+			if(brute[y * stride + i] != value || brute[(y + height - 1) * stride + i] != value) same = false;
+		}
+		for(int j = y + 1; j < y + height - 1; j++) {
+			if(brute[j * stride + x] != value || brute[j * stride + x + width - 1] != value) same = false;
+		}
+
+		if(same && ((value < 0 && !state.inverse) || !aroundOrigin(state, size, x, y, x + width - 1, y + height - 1))) {
+			for(int j = y + 1; j < y + height - 1; j++) {
+				for(int i = x + 1; i < x + width - 1; i++) into[j * stride + i] = value;
+			}
+			return;
+		}
+		if(width <= 6 || height <= 6) return;
+
+		int midX = x + width / 2, midY = y + height / 2;
+		replay(state, size, brute, into, x,    y,    midX - x + 1,     midY - y + 1);
+		replay(state, size, brute, into, midX, y,    x + width - midX, midY - y + 1);
+		replay(state, size, brute, into, x,    midY, midX - x + 1,     y + height - midY);
+		replay(state, size, brute, into, midX, midY, x + width - midX, y + height - midY);
+	}
+
+	/**
+	 * Replay the kernel's blocks over known results, filling the ones it would fill
+	 * @param state The fractal state
+	 * @param size The size of the image
+	 * @param brute Every pixel, calculated
+	 * @param into Where to fill
+	 */
+	protected static void replayBlocks(FractalState state, Dimension size, double[] brute, double[] into) {
+		for(int y0 = 0; y0 < size.height; y0 += BLOCK) for(int x0 = 0; x0 < size.width; x0 += BLOCK) {
+			int x1 = Math.min(x0 + BLOCK, size.width)  - 1;
+			int y1 = Math.min(y0 + BLOCK, size.height) - 1;
+
+			double  value = brute[y0 * size.width + x0];
+			boolean same  = true;
+			for(int i = x0; i <= x1; i++) same &= brute[y0 * size.width + i] == value && brute[y1 * size.width + i] == value;
+			for(int j = y0; j <= y1; j++) same &= brute[j * size.width + x0] == value && brute[j * size.width + x1] == value;
+			if(!same || ((value >= 0 || state.inverse) && aroundOrigin(state, size, x0, y0, x1, y1))) continue;
+
+			for(int j = y0 + 1; j < y1; j++) for(int i = x0 + 1; i < x1; i++) into[j * size.width + i] = value;
+		}
+	}
+
+	/**
+	 * Check if the origin is in a rectangle of pixels, which subdivision only fills if it never escapes
+	 * @return True if it's inside, or on the edge
+	 */
+	protected static boolean aroundOrigin(FractalState state, Dimension size, int x0, int y0, int x1, int y1) {
+		double r0 = state.getCenterR().doubleValue() + state.offsetR(x0, size.width);
+		double r1 = state.getCenterR().doubleValue() + state.offsetR(x1, size.width);
+		double i0 = state.getCenterI().doubleValue() + state.offsetI(y0, size.height);
+		double i1 = state.getCenterI().doubleValue() + state.offsetI(y1, size.height);
+		return r0 * r1 <= 0 && i0 * i1 <= 0;
+	}
+
+	/**
+	 * Time a calculation, taking the fastest of a few runs after one to warm up
+	 * @return Time taken in nanoseconds
+	 */
+	protected static long time(Calculable calculator, FractalState state, Dimension size) {
+		calculator.calculate(state, size);
+
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 5; i++) {
+			long time = System.nanoTime();
+			calculator.calculate(state, size);
+			best = Math.min(best, System.nanoTime() - time);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,147 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * VectorRowKernel in floats, for shallow views where floats can still tell pixels apart. Float
+ * lanes are half the width, so twice as many pixels are calculated at once. The arithmetic is in
+ * the same order as JavaKernel.escapeFloat, so results are identical.
+ *
+ * Needs Java 16 or newer, so it lives in src-vector and is only loaded by SimdCalculator.
+ *
+ * @author Matthew Consterdine
+ */
+class VectorFloatKernel implements RowKernel {
+	protected static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	protected final FractalState state;
+	protected final Dimension    size;
+
+	// Only used for escaped(), so smooth values match the other calculators
+	protected final JavaKernel   kernel;
+
+	protected final int     iterations;
+	protected final float   threshold;
+	protected final boolean absolute;
+	protected final boolean conjugate;
+	protected final boolean julia;
+	protected final boolean interior;
+	protected final float   periodicity;
+
+	// The centre of the view, pixels are an offset from it
+	protected final double  centerR, centerI;
+
+	// The real part of every column, worked out in doubles then rounded, the same as JavaRunnable
+	// does for floats. Padded by a vector so the last one can be loaded whole.
+	protected final float[] columns;
+
+	// The iteration each lane escaped on, and the moduli either side of it
+	protected final float[] result = new float[SPECIES.length()];
+	protected final float[] before = new float[SPECIES.length()];
+	protected final float[] after  = new float[SPECIES.length()];
+
+	public VectorFloatKernel(FractalState state, Dimension size) {
+		this.state       = state;
+		this.size        = size;
+		this.kernel      = new JavaKernel(state);
+		this.iterations  = kernel.iterations;
+		this.threshold   = (float) kernel.threshold;
+		this.absolute    = kernel.fractal == JavaKernel.BURNING_SHIP;
+		this.conjugate   = kernel.fractal == JavaKernel.TRICORN;
+		this.julia       = kernel.julia;
+		this.interior    = kernel.periodicity >= 0;
+		this.periodicity = (float) kernel.periodicity;
+		this.centerR     = state.getCenterR().doubleValue();
+		this.centerI     = state.getCenterI().doubleValue();
+		this.columns     = new float[size.width + SPECIES.length()];
+		for(int x = 0; x < columns.length; x++) columns[x] = (float) (centerR + state.offsetR(x, size.width));
+	}
+
+	@Override
+	public int lanes() {
+		return SPECIES.length();
+	}
+
+	@Override
+	public void escape(double[] results, int offset, int x, int y, int count) {
+		// Every option is a mask or a constant chosen here, see VectorRowKernel
+		final double      pastI  = centerI + state.offsetI(y, size.height);
+		final FloatVector ci     = FloatVector.broadcast(SPECIES, (float) (julia ? state.seed.i : pastI));
+		final FloatVector seedR  = FloatVector.broadcast(SPECIES, julia ? (float) state.seed.r : 0);
+		final FloatVector sign   = FloatVector.broadcast(SPECIES, conjugate ? -1 : 1);
+		final VectorMask<Float> isJulia = SPECIES.maskAll(julia);
+		final VectorMask<Float> isAbs   = SPECIES.maskAll(absolute);
+		final VectorMask<Float> checked = SPECIES.maskAll(interior && !julia);
+
+		for(int i = 0; i < count; i += SPECIES.length()) {
+			VectorMask<Float> inRange = SPECIES.indexInRange(i, count);
+
+			FloatVector zr = FloatVector.fromArray(SPECIES, columns, x + i);
+			FloatVector zi = FloatVector.broadcast(SPECIES, (float) pastI);
+			FloatVector cr = zr.blend(seedR, isJulia);
+
+			// Points in the main cardioid or the period 2 bulb never escape
+			FloatVector a = cr.sub(0.25f);
+			FloatVector q = a.mul(a).add(ci.mul(ci));
+			FloatVector b = cr.add(1);
+			VectorMask<Float> inside = q.mul(q.add(a)).compare(VectorOperators.LE, ci.mul(ci).mul(0.25f))
+				.or(b.mul(b).add(ci.mul(ci)).compare(VectorOperators.LE, 0.0625f)).and(checked);
+
+			FloatVector live    = FloatVector.zero(SPECIES).blend(1f, inRange.andNot(inside));
+			FloatVector escaped = FloatVector.broadcast(SPECIES, -1);
+			FloatVector past    = FloatVector.zero(SPECIES);
+			FloatVector current = FloatVector.zero(SPECIES);
+
+			FloatVector savedR = zr, savedI = zi;
+			int         saved  = 0,  limit  = 2;
+
+			for(int it = 1; it < iterations; it++) {
+				VectorMask<Float> active = live.compare(VectorOperators.NE, 0);
+				if(!active.anyTrue()) break;
+
+				zr = zr.blend(zr.abs(), isAbs);
+				zi = zi.blend(zi.abs(), isAbs).mul(sign);
+
+				FloatVector nr = zr.mul(zr).sub(zi.mul(zi)).add(cr);
+				FloatVector ni = zr.mul(2).mul(zi).add(ci);
+
+				FloatVector       modulus = nr.mul(nr).add(ni.mul(ni));
+				VectorMask<Float> out     = modulus.compare(VectorOperators.GT, threshold).and(active);
+				escaped = escaped.blend((float) it, out);
+				past    = past.blend(zr.mul(zr).add(zi.mul(zi)), out);
+				current = current.blend(modulus, out);
+				live    = live.blend(0f, out);
+
+				zr = nr;
+				zi = ni;
+
+				live = live.blend(0f,
+					zr.sub(savedR).abs().compare(VectorOperators.LE, periodicity).and(
+					zi.sub(savedI).abs().compare(VectorOperators.LE, periodicity))
+				);
+				boolean save = ++saved == limit;
+				savedR = savedR.blend(zr, SPECIES.maskAll(save));
+				savedI = savedI.blend(zi, SPECIES.maskAll(save));
+				if(save) {
+					saved  = 0;
+					limit *= 2;
+				}
+			}
+
+			// Smoothing is in doubles, once a pixel, so it's simpler to leave the lanes
+			escaped.intoArray(result, 0);
+			past.intoArray(before, 0);
+			current.intoArray(after, 0);
+			for(int lane = 0; lane < result.length && i + lane < count; lane++) {
+				results[offset + i + lane] = result[lane] < 0 ? -1 : kernel.escaped((int) result[lane], before[lane], after[lane]);
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Order 2 Mandlebrot, Burning Ship and Tricorn with the Vector API, as many pixels at once as
+ * the CPU has double lanes. Each lane is masked off as its pixel escapes, and a vector stops once
+ * every lane has. The arithmetic is in the same order as JavaKernel, so results are identical.
+ *
+ * Needs Java 16 or newer, so it lives in src-vector and is only loaded by SimdCalculator.
+ *
+ * @author Matthew Consterdine
+ */
+class VectorRowKernel implements RowKernel {
+	protected static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	// 0, 1, 2... added to the x coordinate of the first lane
+	protected static final DoubleVector LANES = iota();
+
+	protected final FractalState state;
+	protected final Dimension    size;
+
+	protected final int     iterations;
+	protected final double  threshold;
+	protected final boolean smooth;
+	protected final boolean absolute;
+	protected final boolean conjugate;
+	protected final boolean julia;
+	protected final boolean interior;
+	protected final double  periodicity;
+
+	// The centre of the view, pixels are an offset from it
+	protected final double  centerR, centerI;
+
+	public VectorRowKernel(FractalState state, Dimension size) {
+		JavaKernel kernel = new JavaKernel(state);
+
+		this.state       = state;
+		this.size        = size;
+		this.iterations  = kernel.iterations;
+		this.threshold   = kernel.threshold;
+		this.smooth      = kernel.smooth;
+		this.absolute    = kernel.fractal == JavaKernel.BURNING_SHIP;
+		this.conjugate   = kernel.fractal == JavaKernel.TRICORN;
+		this.julia       = kernel.julia;
+		this.interior    = kernel.periodicity >= 0;
+		this.periodicity = kernel.periodicity;
+		this.centerR     = state.getCenterR().doubleValue();
+		this.centerI     = state.getCenterI().doubleValue();
+	}
+
+	protected static DoubleVector iota() {
+		double[] lanes = new double[SPECIES.length()];
+		for(int i = 0; i < lanes.length; i++) lanes[i] = i;
+		return DoubleVector.fromArray(SPECIES, lanes, 0);
+	}
+
+	@Override
+	public int lanes() {
+		return SPECIES.length();
+	}
+
+	@Override
+	public void escape(double[] results, int offset, int x, int y, int count) {
+		// C2 boxes any vector assigned under an if, which is slower than not using vectors at all.
+		// So every option is a mask or a constant chosen here, and everything is blended in.
+		final double       pastI     = centerI + state.offsetI(y, size.height);
+		final DoubleVector ci        = DoubleVector.broadcast(SPECIES, julia ? state.seed.i : pastI);
+		final DoubleVector seedR     = DoubleVector.broadcast(SPECIES, julia ? state.seed.r : 0);
+		final DoubleVector sign      = DoubleVector.broadcast(SPECIES, conjugate ? -1 : 1);
+		final VectorMask<Double> isJulia = SPECIES.maskAll(julia);
+		final VectorMask<Double> isAbs   = SPECIES.maskAll(absolute);
+		final VectorMask<Double> checked = SPECIES.maskAll(interior && !julia);
+
+		for(int i = 0; i < count; i += SPECIES.length()) {
+			VectorMask<Double> inRange = SPECIES.indexInRange(i, count);
+
+			// Same as state.offsetR(), width * (x / pixels - 0.5)
+			DoubleVector zr = LANES.add(x + i).div(size.width).sub(0.5).mul(state.getWidth()).add(centerR);
+			DoubleVector zi = DoubleVector.broadcast(SPECIES, pastI);
+			DoubleVector cr = zr.blend(seedR, isJulia);
+
+			// Points in the main cardioid or the period 2 bulb never escape, see JavaKernel.escapeInterior
+			DoubleVector a = cr.sub(0.25);
+			DoubleVector q = a.mul(a).add(ci.mul(ci));
+			DoubleVector b = cr.add(1);
+			VectorMask<Double> inside = q.mul(q.add(a)).compare(VectorOperators.LE, ci.mul(ci).mul(0.25))
+				.or(b.mul(b).add(ci.mul(ci)).compare(VectorOperators.LE, 0.0625)).and(checked);
+
+			// 1 for lanes still being iterated, masks carried between iterations get boxed too
+			DoubleVector live = DoubleVector.zero(SPECIES).blend(1, inRange.andNot(inside));
+
+			// The iteration each lane escaped on, and the moduli either side of it for smoothing
+			DoubleVector result = DoubleVector.broadcast(SPECIES, -1);
+			DoubleVector before = DoubleVector.zero(SPECIES);
+			DoubleVector after  = DoubleVector.zero(SPECIES);
+
+			// Brent's cycle detection, every lane saves a point on the same iterations
+			DoubleVector savedR = zr, savedI = zi;
+			int          saved  = 0,  limit  = 2;
+
+			for(int it = 1; it < iterations; it++) {
+				VectorMask<Double> active = live.compare(VectorOperators.NE, 0);
+				if(!active.anyTrue()) break;
+
+				zr = zr.blend(zr.abs(), isAbs);
+				zi = zi.blend(zi.abs(), isAbs).mul(sign);
+
+				DoubleVector nr = zr.mul(zr).sub(zi.mul(zi)).add(cr);
+				DoubleVector ni = zr.mul(2).mul(zi).add(ci);
+
+				DoubleVector       modulus = nr.mul(nr).add(ni.mul(ni));
+				VectorMask<Double> escaped = modulus.compare(VectorOperators.GT, threshold).and(active);
+				result = result.blend(it, escaped);
+				before = before.blend(zr.mul(zr).add(zi.mul(zi)), escaped);
+				after  = after.blend(modulus, escaped);
+				live   = live.blend(0, escaped);
+
+				zr = nr;
+				zi = ni;
+
+				// Periodicity is negative when there's no interior checking, so no lane is ever caught
+				live = live.blend(0,
+					zr.sub(savedR).abs().compare(VectorOperators.LE, periodicity).and(
+					zi.sub(savedI).abs().compare(VectorOperators.LE, periodicity))
+				);
+				boolean save = ++saved == limit;
+				savedR = savedR.blend(zr, SPECIES.maskAll(save));
+				savedI = savedI.blend(zi, SPECIES.maskAll(save));
+				if(save) {
+					saved  = 0;
+					limit *= 2;
+				}
+			}
+
+			// The same as JavaKernel.escaped
+			VectorMask<Double> escaped = result.compare(VectorOperators.GE, 0);
+			DoubleVector       value   = result;
+			if(smooth) value = value.add(before.neg().add(threshold).div(before.sub(after).abs()).max(0));
+			result.blend(value.sub(1), escaped).intoArray(results, offset + i, inRange);
+		}
+	}
+}
@@ -1,10 +1,20 @@
 #pragma OPENCL EXTENSION cl_khr_fp64 : enable
 
-double __attribute__((overloadable)) abs(double value) {return value >= 0 ? value : 0 - value;}
+/* Size of the blocks used when subdividing. Only one level of blocks is checked, see below */
+#define BLOCK 16
 
-struct complex {double r; double i;};
+/* The number type orbits are calculated with. The program is built a second time with REAL set
+   to float, for shallow views. Arguments and results are always doubles */
+#ifndef REAL
+#define REAL double
+#endif
+typedef REAL real;
 
-struct complex newComplex(double r, double i) {
+real __attribute__((overloadable)) abs(real value) {return value >= 0 ? value : 0 - value;}
+
+struct complex {real r; real i;};
+
+struct complex newComplex(real r, real i) {
 	struct complex c;
 	c.r = r;
 	c.i = i;
@@ -34,33 +44,33 @@ struct complex powComplex(struct complex c, int n) {
 			case 10: return powComplex(powComplex(c, 5), 2);
 			
 			default: {
-				double rn = pown(sqrt(pown(c.r, 2) + pown(c.i, 2)), n);
-				double th = atan(c.i / c.r);
+				real rn = pown(sqrt(pown(c.r, 2) + pown(c.i, 2)), n);
+				real th = atan(c.i / c.r);
 				
 				return newComplex(rn * cos(n * th), rn * sin(n * th));
 			}
 		}
 }
 
-double mod2Complex(struct complex c) {return c.r*c.r + c.i*c.i;}
+real mod2Complex(struct complex c) {return c.r*c.r + c.i*c.i;}
 
 struct complex mulComplex(struct complex a, struct complex b) {return newComplex(a.r*b.r - a.i*b.i, a.r*b.i + a.i*b.r);}
 
 struct complex divComplex(struct complex a, struct complex b) {
-	double inter = b.r*b.r + b.i*b.i;
+	real inter = b.r*b.r + b.i*b.i;
 	return newComplex((a.r*b.r + a.i*b.i)/inter, (a.i*b.r - a.r*b.i)/inter);
 }
 
 struct complex invComplex(struct complex c) {
-	double inter = c.r*c.r + c.i*c.i;
+	real inter = c.r*c.r + c.i*c.i;
 	return newComplex(c.r/inter, (0 - c.i)/inter);
 }
 
 kernel void fractalKernel(
-	global const double *start,
-	global const double *stop,
-	global const double *top,
-	global const double *bottom,
+	global const double *centerr,
+	global const double *centeri,
+	global const double *spanr,
+	global const double *spani,
 
 	global const int    *width,
 	global const int    *height,
@@ -79,6 +89,9 @@ kernel void fractalKernel(
 	global const int    *buddha,
 	global const int    *orbit,
 	global const int    *region,
+	global const double *periodicity,
+	global const int    *subdivide,
+	global const int    *pass,
 
 	global double *results
 ) {
@@ -91,7 +104,38 @@ kernel void fractalKernel(
 
 	/* Check that we should calculate for this pixel */
 	if(y < *height) {
-		struct complex past = newComplex(*start + (*stop - *start) * x / *width, *top + (*bottom - *top) * y / *height);
+		/* Mariani-Silver subdivision, for escape time only. The first pass calculates the edges of
+		   each block, the second fills the blocks whose edges all match and calculates the rest.
+		   Unlike JavaRunnable this isn't recursive, a block that doesn't match is calculated
+		   whole. Each work item is a pixel, so every level would need another launch and another
+		   pass over the edges. One level still skips 196 of the 256 pixels in a matching block,
+		   which is most of the saving where it matters, the inside of the set. Blocks around the
+		   origin are only filled with points that never escape, see JavaRunnable.aroundOrigin */
+		if(*subdivide && !*buddha && !*orbit) {
+			const int x0 = x - x % BLOCK, x1 = min(x0 + BLOCK, *width)  - 1;
+			const int y0 = y - y % BLOCK, y1 = min(y0 + BLOCK, *height) - 1;
+			const int edge = x == x0 || x == x1 || y == y0 || y == y1;
+
+			if(*pass == 0 && !edge) return;
+			if(*pass == 1) {
+				if(edge) return;
+
+				const double value = results[y0 * *width + x0];
+				int same = 1;
+				for(int i = x0; i <= x1 && same; i++) same = results[y0 * *width + i] == value && results[y1 * *width + i] == value;
+				for(int j = y0; j <= y1 && same; j++) same = results[j * *width + x0] == value && results[j * *width + x1] == value;
+
+				const double r0 = *centerr + *spanr * ((double) x0 / *width  - 0.5), r1 = *centerr + *spanr * ((double) x1 / *width  - 0.5);
+				const double i0 = *centeri + *spani * ((double) y0 / *height - 0.5), i1 = *centeri + *spani * ((double) y1 / *height - 0.5);
+				if(same && ((value < 0 && !*inverse) || !(r0 * r1 <= 0 && i0 * i1 <= 0))) {
+					results[id] = value;
+					return;
+				}
+			}
+		}
+
+		/* Pixels are an offset from the centre, like JavaRunnable.point */
+		struct complex past = newComplex(*centerr + *spanr * ((double) x / *width - 0.5), *centeri + *spani * ((double) y / *height - 0.5));
 
 		/* Using DBL_MAX to indicate that there is no seed */
 		struct complex base = *seedr == DBL_MAX ? past : newComplex(*seedr, *seedi);
@@ -100,56 +144,24 @@ kernel void fractalKernel(
 
 		results[id] = 0;
 
-		if(*buddha) {
-			switch(*selected) {
-				default:
-				case 0: /* Mandlebrot */
-					for(int i = 1; i < *iterations; i++) {
-						past = addComplex(powComplex(past, *order), base);
-
-						int j = (int) ((*width  * (past.r - *start)) / (*stop   - *start));
-						int k = (int) ((*height * (past.i - *top))   / (*bottom - *top));
-						if(k * *width + j >= 0 && k * *width + j < *width * *height) results[k * *width + j] = results[k * *width + j] + 1;
-					}
-					break;
-				case 1: /* Burning Ship */
-					for(int i = 1; i < *iterations; i++) {
-						past = addComplex(powComplex(absComplex(past), *order), base);
-
-						int j = (int) ((*width  * (past.r - *start)) / (*stop   - *start));
-						int k = (int) ((*height * (past.i - *top))   / (*bottom - *top));
-						if(k * *width + j >= 0 && k * *width + j < *width * *height) results[k * *width + j] = results[k * *width + j] + 1;
-					}
-					break;
-				case 2: /* Tricorn */
-					for(int i = 1; i < *iterations; i++) {
-						past = addComplex(powComplex(newComplex(past.r, 0 - past.i), *order), base);
+		/* Interior checks for order 2 Mandlebrot and Julia sets, see JavaKernel.escapeInterior */
+		const int interior = !*buddha && !*orbit && *selected == 0 && *order == 2 && *periodicity >= 0;
 
-						int j = (int) ((*width  * (past.r - *start)) / (*stop   - *start));
-						int k = (int) ((*height * (past.i - *top))   / (*bottom - *top));
-						if(k * *width + j >= 0 && k * *width + j < *width * *height) results[k * *width + j] = results[k * *width + j] + 1;
-					}
-					break;
-				case 3: /* Nova */
-					for(int i = 1; i < *iterations; i++) {
-						past = addComplex(divComplex(mulComplex(newComplex(1, 0), subComplex(powComplex(past, *order), newComplex(1, 0))), mulComplex(newComplex(*order, 0), powComplex(past, *order - 1))), base);
+		/* Points in the main cardioid or the period 2 bulb never escape */
+		if(interior && *seedr == DBL_MAX) {
+			real a = base.r - 0.25;
+			real q = a*a + base.i*base.i;
+			if(q * (q + a) <= 0.25 * base.i*base.i || (base.r + 1)*(base.r + 1) + base.i*base.i <= 0.0625) {
+				results[id] = -1;
+				return;
+			}
+		}
 
-						int j = (int) ((*width  * (past.r - *start)) / (*stop   - *start));
-						int k = (int) ((*height * (past.i - *top))   / (*bottom - *top));
-						if(k * *width + j >= 0 && k * *width + j < *width * *height) results[k * *width + j] = results[k * *width + j] + 1;
-					}
-					break;
-				case 4: /* Circle */
-					for(int i = 1; i < *iterations; i++) {
-						past = powComplex(past, *order);
+		/* For Brent's cycle detection */
+		struct complex saved = past;
+		int count = 0, limit = 2;
 
-						int j = (int) ((*width  * (past.r - *start)) / (*stop   - *start));
-						int k = (int) ((*height * (past.i - *top))   / (*bottom - *top));
-						if(k * *width + j >= 0 && k * *width + j < *width * *height) results[k * *width + j] = results[k * *width + j] + 1;
-					}
-					break;
-			}
-		} else if(*orbit) {
+		if(*orbit) {
 			/* For orbit traps */
 			int    distancelength = *region == 1 ? 5 : (*region == 2 ? 4 : 1);
 			double distance[5];
@@ -222,7 +234,7 @@ kernel void fractalKernel(
 			int pointer = *region == 1 ? (past.i > 0 ? 1 : 0) + (past.r > 0 ? 2 : 0) : (*iterations - 1) % distancelength;
 			if(distance[pointer] < 1) results[id] = sqrt(distance[pointer]) * *iterations;
 		} else if(*smooth) {
-			const double t = *threshold * *threshold;
+			const real t = *threshold * *threshold;
 			results[id] = -1;
 
 			switch(*selected) {
@@ -231,28 +243,34 @@ kernel void fractalKernel(
 					for(int i = 1; i < *iterations; i++) {
 						struct complex current = addComplex(powComplex(past, *order), base);
 
-						double modulusPast = mod2Complex(past);
-						double modulusCurrent = mod2Complex(current);
+						real modulusPast = mod2Complex(past);
+						real modulusCurrent = mod2Complex(current);
 
 						if(modulusCurrent > t) {
-							double k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
+							real k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
 							if(k < 0) k = 0.0;
 							results[id] = i + k - 1;
 							break;
 						}
 
 						past = current;
+
+						/* Periodic, so it never escapes */
+						if(interior) {
+							if(abs(past.r - saved.r) <= *periodicity && abs(past.i - saved.i) <= *periodicity) break;
+							if(++count == limit) {saved = past; count = 0; limit *= 2;}
+						}
 					}
 					break;
 				case 1: /* Burning Ship */
 					for(int i = 1; i < *iterations; i++) {
 						struct complex current = addComplex(powComplex(absComplex(past), *order), base);
 
-						double modulusPast = mod2Complex(past);
-						double modulusCurrent = mod2Complex(current);
+						real modulusPast = mod2Complex(past);
+						real modulusCurrent = mod2Complex(current);
 
 						if(modulusCurrent > t) {
-							double k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
+							real k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
 							if(k < 0) k = 0.0;
 							results[id] = i + k - 1;
 							break;
@@ -265,11 +283,11 @@ kernel void fractalKernel(
 					for(int i = 1; i < *iterations; i++) {
 						struct complex current = addComplex(powComplex(newComplex(past.r, 0 - past.i), *order), base);
 
-						double modulusPast = mod2Complex(past);
-						double modulusCurrent = mod2Complex(current);
+						real modulusPast = mod2Complex(past);
+						real modulusCurrent = mod2Complex(current);
 
 						if(modulusCurrent > t) {
-							double k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
+							real k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
 							if(k < 0) k = 0.0;
 							results[id] = i + k - 1;
 							break;
@@ -282,11 +300,11 @@ kernel void fractalKernel(
 					for(int i = 1; i < *iterations; i++) {
 						struct complex current = addComplex(divComplex(mulComplex(newComplex(1, 0), subComplex(powComplex(past, *order), newComplex(1, 0))), mulComplex(newComplex(*order, 0), powComplex(past, *order - 1))), base);
 
-						double modulusPast = mod2Complex(past);
-						double modulusCurrent = mod2Complex(current);
+						real modulusPast = mod2Complex(past);
+						real modulusCurrent = mod2Complex(current);
 
 						if(modulusCurrent > t) {
-							double k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
+							real k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
 							if(k < 0) k = 0.0;
 							results[id] = i + k - 1;
 							break;
@@ -299,11 +317,11 @@ kernel void fractalKernel(
 					for(int i = 1; i < *iterations; i++) {
 						struct complex current = powComplex(past, *order);
 
-						double modulusPast = mod2Complex(past);
-						double modulusCurrent = mod2Complex(current);
+						real modulusPast = mod2Complex(past);
+						real modulusCurrent = mod2Complex(current);
 
 						if(modulusCurrent > t) {
-							double k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
+							real k = (t - modulusPast) / abs(modulusPast - modulusCurrent);
 							if(k < 0) k = 0.0;
 							results[id] = i + k - 1;
 							break;
@@ -314,7 +332,7 @@ kernel void fractalKernel(
 					break;
 			}
 		} else {
-			const double t = *threshold * *threshold;
+			const real t = *threshold * *threshold;
 			results[id] = -1;
 
 			switch(*selected) {
@@ -327,6 +345,12 @@ kernel void fractalKernel(
 							results[id] = i - 1;
 							break;
 						}
+
+						/* Periodic, so it never escapes */
+						if(interior) {
+							if(abs(past.r - saved.r) <= *periodicity && abs(past.i - saved.i) <= *periodicity) break;
+							if(++count == limit) {saved = past; count = 0; limit *= 2;}
+						}
 					}
 					break;
 				case 1: /* Burning Ship */
@@ -373,3 +397,103 @@ kernel void fractalKernel(
 		}
 	}
 };
+
+/* Double-double numbers, a double and the part of the number it is missing. About 106 bits,
+   for views too deep for doubles. See DoubleDoubleKernel.java */
+struct dd {double hi; double lo;};
+
+struct dd newDD(double hi, double lo) {
+	struct dd d;
+	d.hi = hi;
+	d.lo = lo;
+	return d;
+}
+
+struct dd addDD(struct dd a, struct dd b) {
+	double s = a.hi + b.hi;
+	double v = s - a.hi;
+	double e = (a.hi - (s - v)) + (b.hi - v) + a.lo + b.lo;
+	double h = s + e;
+	return newDD(h, e - (h - s));
+}
+
+struct dd mulDD(struct dd a, struct dd b) {
+	/* fma is exact, so it gives the rounding error of the product */
+	double p = a.hi * b.hi;
+	double e = fma(a.hi, b.hi, -p) + (a.hi * b.lo + a.lo * b.hi);
+	double h = p + e;
+	return newDD(h, e - (h - p));
+}
+
+kernel void deepKernel(
+	global const double *centerr,
+	global const double *centerrlo,
+	global const double *centeri,
+	global const double *centerilo,
+	global const double *spanr,
+	global const double *spani,
+
+	global const int    *width,
+	global const int    *height,
+	global const int    *iterations,
+
+	global const double *threshold,
+
+	global const int    *smooth,
+
+	global const double *seedr,
+	global const double *seedi,
+
+	global const int    *selected,
+
+	global double *results
+) {
+	/* Only order 2 Mandlebrot, Burning Ship and Tricorn, without traps, buddha or inverse */
+	const int id = get_global_id(0);
+	const int x = id % *width;
+	const int y = id / *width;
+
+	if(y < *height) {
+		struct dd zr = addDD(newDD(*centerr, *centerrlo), newDD(*spanr * ((double) x / *width  - 0.5), 0));
+		struct dd zi = addDD(newDD(*centeri, *centerilo), newDD(*spani * ((double) y / *height - 0.5), 0));
+
+		/* Using DBL_MAX to indicate that there is no seed */
+		struct dd cr = *seedr == DBL_MAX ? zr : newDD(*seedr, 0);
+		struct dd ci = *seedr == DBL_MAX ? zi : newDD(*seedi, 0);
+
+		const double t = *threshold * *threshold;
+		results[id] = -1;
+
+		for(int i = 1; i < *iterations; i++) {
+			if(*selected == 1) { /* Burning Ship */
+				if(zr.hi < 0) zr = newDD(0 - zr.hi, 0 - zr.lo);
+				if(zi.hi < 0) zi = newDD(0 - zi.hi, 0 - zi.lo);
+			}
+			if(*selected == 2) zi = newDD(0 - zi.hi, 0 - zi.lo); /* Tricorn */
+
+			struct dd rr = mulDD(zr, zr);
+			struct dd ii = mulDD(zi, zi);
+			struct dd ri = mulDD(zr, zi);
+
+			struct dd nr = addDD(addDD(rr, newDD(0 - ii.hi, 0 - ii.lo)), cr);
+			struct dd ni = addDD(newDD(2 * ri.hi, 2 * ri.lo), ci);
+
+			double modulusPast    = zr.hi*zr.hi + zi.hi*zi.hi;
+			double modulusCurrent = nr.hi*nr.hi + ni.hi*ni.hi;
+
+			if(modulusCurrent > t) {
+				if(*smooth) {
+					double k = (t - modulusPast) / fabs(modulusPast - modulusCurrent);
+					if(k < 0) k = 0.0;
+					results[id] = i + k - 1;
+				} else {
+					results[id] = i - 1;
+				}
+				break;
+			}
+
+			zr = nr;
+			zi = ni;
+		}
+	}
+};
@@ -0,0 +1,506 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Buddhabrot and Anti-Buddhabrot. Rather than each pixel following its own orbit, the orbits of
+ * random points are traced and each pixel counts the orbits passing through it: the Buddhabrot
+ * traces points that escape, the Anti-Buddhabrot points that don't. Every thread traces into its
+ * own counts, which are added up after each round, so threads never wait on each other.
+ *
+ * Zoomed out, points are picked uniformly. Zoomed in, almost no orbits pass through the view, so
+ * points are picked with Metropolis-Hastings instead: points near one whose orbit passes through
+ * the view are tried, and kept in proportion to how much of their orbit does. Each orbit is then
+ * counted once per step divided by that, which gives the same image uniform points would have.
+ *
+ * A Nebulabrot has a channel for each of red, green and blue, each with its own iteration limit.
+ * Every orbit is traced once, up to the highest limit, and counted in each channel it escapes
+ * within. The result then has a plane per channel, one after the other.
+ *
+ * Results are densities, scaled so the brightest pixels are about the number of iterations, so
+ * colorings look the same however many orbits were traced or however far in the view is.
+ *
+ * @author Matthew Consterdine
+ */
+class BuddhaEngine {
+	// Orbits per pixel, when the state doesn't say
+	protected static final int DEFAULT_SAMPLES = 20;
+
+	// Points are picked from a square this far either side of 0, every orbit that stays bounded
+	// starts in it
+	protected static final double RADIUS = 2;
+
+	// Orbits only escape for certain once they're at least this far away, squared
+	protected static final double ESCAPED = 4;
+
+	// Below this fraction of the square, the view is zoomed in enough to need Metropolis-Hastings
+	protected static final double ZOOMED = 1.0 / 16;
+
+	// Chance of Metropolis-Hastings trying a new uniform point, rather than one nearby
+	protected static final double JUMP = 0.2;
+
+	// Rounds double in size until they'd take longer than this many seconds, so the image is
+	// shown quickly at first and then every so often however long the whole thing takes
+	protected static final double PREVIEW = 2;
+
+	// The first round is this fraction of the total, as a power of 2, but no more than FIRST orbits
+	// as nothing is known about how quick they are yet
+	protected static final int  ROUNDS = 7;
+	protected static final long FIRST  = 1 << 20;
+
+	protected final FractalState state;
+	protected final Dimension    size;
+	protected final int          pixels;
+	protected final long         total;
+	protected final boolean      metropolis;
+
+	// The iteration limit of each channel, and the highest of them
+	protected final int[] limits;
+	protected final int   iterations;
+
+	// Counts of every round so far, added up from every worker, a plane per channel
+	protected final double[] counts;
+	protected long           traced = 0;
+
+	// Created on the first round, so they carry on from a checkpoint rather than repeating it
+	protected final List<Worker> workers = new ArrayList<Worker>();
+
+	// Where the counts are saved, and how many seconds apart
+	protected File checkpoint;
+	protected long interval;
+
+	/**
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 */
+	public BuddhaEngine(FractalState state, Dimension size) {
+		if(state.fractal == null) state.fractal = "Mandlebrot";
+
+		this.limits = state.nebula != null ? state.nebula.clone() : new int[] {state.iterations};
+
+		// Every channel's counts are in one array, which has to be indexed by an int
+		long cells = (long) limits.length * size.width * size.height;
+		if(cells > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException(size.width + "x" + size.height + " is too large to trace with " + limits.length + " channels");
+		}
+
+		this.state      = state;
+		this.size       = size;
+		this.pixels     = size.width * size.height;
+		this.total      = (long) samplesOf(state) * pixels;
+		this.metropolis = Math.abs(state.getWidth() * state.getHeight()) < ZOOMED * 4 * RADIUS * RADIUS;
+
+		int highest = 1;
+		for(int limit : limits) highest = Math.max(highest, limit);
+		this.iterations = highest;
+		this.counts     = new double[limits.length * pixels];
+	}
+
+	/**
+	 * @return The number of orbits per pixel a state asks for
+	 */
+	protected static int samplesOf(FractalState state) {
+		return state.samples > 0 ? state.samples : DEFAULT_SAMPLES;
+	}
+
+	/**
+	 * Save the counts every so often, so a long render can carry on after a restart. If the
+	 * checkpoint exists it's loaded, and only the orbits it's missing are traced.
+	 * @param file Where to save the counts
+	 * @param seconds Time between saves
+	 * @return This engine
+	 * @throws IOException If the checkpoint can't be read, or is for a different fractal
+	 */
+	public BuddhaEngine checkpoint(File file, long seconds) throws IOException {
+		this.checkpoint = file;
+		this.interval   = seconds;
+		if(!file.exists()) return this;
+
+		try(ObjectInputStream stream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if(!new ResultCache.Key(state, size).equals(stream.readObject()))
+				throw new IOException(file + " is a checkpoint of a different fractal");
+
+			long     saved = stream.readLong();
+			double[] data  = (double[]) stream.readObject();
+			if(data.length != counts.length) throw new IOException(file + " is the wrong size");
+
+			System.arraycopy(data, 0, counts, 0, counts.length);
+			traced = saved;
+		} catch(ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Error loading " + file + ": " + e.getMessage(), e);
+		}
+		return this;
+	}
+
+	/**
+	 * Save the counts to the checkpoint. They are written next to it first and then moved over
+	 * it, so a crash while saving never loses the last one. If saving fails the render carries
+	 * on, hours of tracing shouldn't be lost because a disk filled up.
+	 */
+	protected void save() {
+		File temporary = new File(checkpoint.getPath() + ".tmp");
+		try {
+			try(ObjectOutputStream stream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+				stream.writeObject(new ResultCache.Key(state, size));
+				stream.writeLong(traced);
+				stream.writeObject(counts);
+			}
+			Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("Saved " + traced + " of " + total + " orbits to " + checkpoint);
+		} catch (IOException e) {
+			System.err.println("Error saving " + checkpoint + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Trace every orbit, in rounds that double in size until they take a few seconds each
+	 * @param job The job, which stops the tracing once it's cancelled
+	 * @param call Given the image after every round, or null
+	 * @return The image, or whatever was traced before the job was cancelled
+	 */
+	public double[] render(RenderJob job, Callback call) {
+		long   saved = System.nanoTime();
+		double rate  = 0;
+
+		// Rounds start small even when carrying on from a checkpoint, so a resumed render is shown
+		// and saved as often as a new one
+		long round = Math.max(1, Math.min(total >> (ROUNDS - 1), FIRST));
+		while(traced < total && !job.isCancelled()) {
+			long orbits = round;
+			if(rate > 0) orbits = Math.min(orbits, (long) (rate * (checkpoint != null ? Math.min(PREVIEW, interval) : PREVIEW)));
+			orbits = Math.max(1, Math.min(orbits, total - traced));
+
+			long time = System.nanoTime();
+			orbits = trace(orbits, job);
+			rate   = orbits / (Math.max(1, System.nanoTime() - time) / 1e9);
+			round  = orbits * 2;
+
+			if(job.isCancelled()) break;
+			if(checkpoint != null && traced < total && System.nanoTime() - saved > interval * 1_000_000_000L) {
+				save();
+				saved = System.nanoTime();
+			}
+			if(call != null && traced < total && !job.deliver(call, image(), size)) break;
+		}
+
+		// Saved even if it was already done, so the next run is just as quick
+		if(checkpoint != null && !job.isCancelled()) save();
+
+		double[] image = image();
+		if(call != null && !job.isCancelled()) job.deliver(call, image, size);
+		return image;
+	}
+
+	/**
+	 * Trace more orbits, split evenly between the workers, and add them to the counts
+	 * @param orbits Number of orbits
+	 * @param job The job
+	 * @return Number of orbits traced, at least one per worker
+	 */
+	protected long trace(long orbits, final RenderJob job) {
+		// Each worker has its own random numbers, so the image only depends on the thread count
+		if(workers.isEmpty()) {
+			int threads = JavaCalculator.getThreads();
+			for(int i = 0; i < threads; i++) workers.add(new Worker(i));
+		}
+
+		final long each = Math.max(1, orbits / workers.size());
+		List<Callable<float[]>> tasks = new ArrayList<Callable<float[]>>();
+		for(final Worker worker : workers) {
+			tasks.add(new Callable<float[]>() {
+				@Override public float[] call() {
+					return worker.trace(each, job);
+				}
+			});
+		}
+
+		ForkJoinPool pool = JavaCalculator.pool;
+		try {
+			for(Future<float[]> future : pool.invokeAll(tasks)) {
+				float[] worker = future.get();
+				for(int i = 0; i < counts.length; i++) counts[i] += worker[i];
+				Arrays.fill(worker, 0);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw (Error) e.getCause();
+		}
+
+		traced += each * workers.size();
+		return each * workers.size();
+	}
+
+	/**
+	 * Scale the counts of each channel so its brightest pixels are about the number of
+	 * iterations. The very brightest are ignored, as a few pixels on the real axis are far
+	 * brighter than the rest.
+	 * @return The image
+	 */
+	public double[] image() {
+		double[] image = new double[counts.length];
+		for(int from = 0; from < counts.length; from += pixels) {
+			double bright = brightest(from, from + pixels);
+			if(bright == 0) continue;
+
+			double scale = state.iterations / bright;
+			for(int i = from; i < from + pixels; i++) image[i] = counts[i] * scale;
+		}
+		return image;
+	}
+
+	/**
+	 * Roughly the 99.9th percentile of part of the counts, from an even spread of at most 64K
+	 * lit pixels
+	 * @param from The first count
+	 * @param to The count after the last
+	 * @return The count, 0 if none are lit
+	 */
+	protected double brightest(int from, int to) {
+		int lit = 0;
+		for(int i = from; i < to; i++) if(counts[i] > 0) lit++;
+		if(lit == 0) return 0;
+
+		int      step    = Math.max(1, lit / (1 << 16));
+		double[] sampled = new double[(lit + step - 1) / step];
+		int      n = 0, seen = 0;
+		for(int i = from; i < to; i++) if(counts[i] > 0 && seen++ % step == 0) sampled[n++] = counts[i];
+		Arrays.sort(sampled, 0, n);
+		return sampled[Math.min(n - 1, (int) (n * 0.999))];
+	}
+
+	/**
+	 * The pixels an orbit passed through
+	 */
+	protected class Orbit {
+		protected final int[] pixels = new int[iterations];
+		protected int         length;
+
+		// The iteration it escaped on, or the highest limit if it didn't
+		protected int escape;
+
+		// How many of the pixels came before each channel's limit
+		protected final int[] ends = new int[limits.length];
+
+		/**
+		 * @param channel The channel
+		 * @return Number of pixels the channel counts
+		 */
+		protected int counted(int channel) {
+			if(state.antiBuddha) return escape >= limits[channel] ? ends[channel] : 0;
+			return escape < limits[channel] ? length : 0;
+		}
+
+		/**
+		 * @return Number of pixels every channel counts, added up
+		 */
+		protected int contribution() {
+			int total = 0;
+			for(int c = 0; c < limits.length; c++) total += counted(c);
+			return total;
+		}
+	}
+
+	/**
+	 * Traces orbits into its own counts. Keeps its random numbers and Metropolis-Hastings chain
+	 * between rounds, so later rounds carry on from where the last stopped.
+	 */
+	protected class Worker {
+		protected final JavaKernel kernel = new JavaKernel(state);
+		protected final float[]    counts = new float[limits.length * pixels];
+
+		// The current orbit of the chain, and the one being tried
+		protected Orbit orbit = new Orbit(), trial = new Orbit();
+		protected int   contribution = 0;
+
+		protected final double  centerR = state.getCenterR().doubleValue(), centerI = state.getCenterI().doubleValue();
+		protected final double  scaleR  = size.width / state.getWidth(),    scaleI  = size.height / state.getHeight();
+		protected final double  escaped = Math.max(kernel.threshold, ESCAPED);
+		protected final boolean anti    = state.antiBuddha;
+
+		// The current point of the chain
+		protected double pointR, pointI;
+
+		// xorshift64*, quicker than Random and never shared
+		protected long random;
+
+		public Worker(int index) {
+			// Mixed with the orbits already traced, so carrying on from a checkpoint picks new points
+			this.random = 0x9E3779B97F4A7C15L * (index + 1) ^ 0xD1B54A32D192ED03L * traced;
+			if(random == 0) random = 1;
+		}
+
+		/**
+		 * Trace orbits
+		 * @param orbits Number of orbits, or Metropolis-Hastings steps
+		 * @param job Checked every so often, to stop once it's cancelled
+		 * @return The counts, which the caller clears once it's added them up
+		 */
+		public float[] trace(long orbits, RenderJob job) {
+			if(!metropolis) {
+				for(long s = 0; s < orbits; s++) {
+					if((s & 0xFF) == 0 && job.isCancelled()) break;
+					if(trace(uniform(), uniform(), orbit) > 0) count(orbit, 1);
+				}
+				return counts;
+			}
+
+			// Find somewhere to start the chain, an orbit that passes through the view
+			for(int tries = 0; contribution == 0 && tries < (1 << 20); tries++) {
+				if((tries & 0xFF) == 0 && job.isCancelled()) return counts;
+				pointR = uniform();
+				pointI = uniform();
+				contribution = trace(pointR, pointI, orbit);
+			}
+			if(contribution == 0) return counts;
+
+			double width = Math.abs(state.getWidth());
+			for(long s = 0; s < orbits; s++) {
+				if((s & 0xFF) == 0 && job.isCancelled()) break;
+
+				// Either a new point anywhere, or one nearby, from a pixel to the whole view away
+				double r, i;
+				if(next() < JUMP) {
+					r = uniform();
+					i = uniform();
+				} else {
+					double distance = width * Math.pow(10, -3 * next()), angle = 2 * Math.PI * next();
+					r = pointR + distance * Math.cos(angle);
+					i = pointI + distance * Math.sin(angle);
+				}
+
+				// Both are symmetric, so the chance of moving is just the ratio of contributions
+				if(Math.abs(r) <= RADIUS && Math.abs(i) <= RADIUS) {
+					int n = trace(r, i, trial);
+					if(n > 0 && (n >= contribution || next() * contribution < n)) {
+						Orbit swap = orbit; orbit = trial; trial = swap;
+						contribution = n;
+						pointR = r;
+						pointI = i;
+					}
+				}
+
+				// Orbits that pass through more of the view are picked more often, count them less
+				count(orbit, 1f / contribution);
+			}
+			return counts;
+		}
+
+		/**
+		 * Add an orbit to the counts of every channel that counts it
+		 * @param orbit The orbit
+		 * @param weight How much each pixel is counted
+		 */
+		protected void count(Orbit orbit, float weight) {
+			for(int c = 0; c < limits.length; c++) {
+				int plane = c * pixels;
+				for(int k = 0, n = orbit.counted(c); k < n; k++) counts[plane + orbit.pixels[k]] += weight;
+			}
+		}
+
+		/**
+		 * Trace a single orbit
+		 * @param r The real part of the point
+		 * @param i The imaginary part of the point
+		 * @param orbit Where to store the pixels it passed through
+		 * @return Number of pixels every channel counts, added up, 0 if it isn't counted at all
+		 */
+		protected int trace(double r, double i, Orbit orbit) {
+			int[] pixels = orbit.pixels;
+			int[] ends   = orbit.ends;
+			orbit.length = 0;
+			orbit.escape = iterations;
+
+			// The same as JavaRunnable.point, the point is the base unless there's a seed
+			double baseR = state.seed != null ? state.seed.r : r;
+			double baseI = state.seed != null ? state.seed.i : i;
+			if(state.inverse) {
+				double inter = 1 / (baseR*baseR + baseI*baseI);
+				baseR = baseR * inter; baseI = -baseI * inter;
+				inter = 1 / (r*r + i*i);
+				r = r * inter; i = -i * inter;
+			}
+
+			// Points in the main cardioid or the period 2 bulb never escape
+			boolean checked = kernel.periodicity >= 0;
+			if(checked && !anti && !kernel.julia) {
+				double x = baseR - 0.25;
+				double q = x*x + baseI*baseI;
+				if(q * (q + x) <= 0.25 * baseI*baseI)           return 0;
+				if((baseR + 1)*(baseR + 1) + baseI*baseI <= 0.0625) return 0;
+			}
+
+			// Brent's cycle detection, see JavaKernel.escapeInterior
+			double savedR = r, savedI = i;
+			int    saved  = 0, limit  = 2;
+
+			// Only the Anti-Buddhabrot needs to know where each channel stopped
+			Arrays.fill(ends, -1);
+			boolean split = anti && limits.length > 1;
+
+			kernel.r = r;
+			kernel.i = i;
+			int n = 0;
+			for(int it = 1; it < iterations; it++) {
+				if(split) for(int c = 0; c < limits.length; c++) if(limits[c] == it) ends[c] = n;
+
+				kernel.step(baseR, baseI);
+				double zr = kernel.r, zi = kernel.i;
+				if(zr*zr + zi*zi > escaped) {
+					orbit.length = n;
+					orbit.escape = it;
+					return orbit.contribution();
+				}
+
+				// NaN fails both comparisons, so diverged orbits are never counted
+				double x = (zr - centerR) * scaleR + size.width  / 2.0;
+				double y = (zi - centerI) * scaleI + size.height / 2.0;
+				if(x >= 0 && x < size.width && y >= 0 && y < size.height) pixels[n++] = (int) y * size.width + (int) x;
+
+				if(checked && !anti) {
+					if(Math.abs(zr - savedR) <= kernel.periodicity && Math.abs(zi - savedI) <= kernel.periodicity) return 0;
+					if(++saved == limit) {
+						savedR = zr;
+						savedI = zi;
+						saved  = 0;
+						limit *= 2;
+					}
+				}
+			}
+
+			orbit.length = n;
+			for(int c = 0; c < limits.length; c++) if(ends[c] < 0) ends[c] = n;
+			return anti ? orbit.contribution() : 0;
+		}
+
+		/**
+		 * @return A random number from 0 up to 1
+		 */
+		protected double next() {
+			random ^= random >>> 12;
+			random ^= random <<  25;
+			random ^= random >>> 27;
+			return ((random * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+		}
+
+		/**
+		 * @return A random coordinate in the square points are picked from
+		 */
+		protected double uniform() {
+			return RADIUS * (2 * next() - 1);
+		}
+	}
+}
@@ -1,6 +1,12 @@
 package mc21g14.fractal.calculable;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
 
 import mc21g14.fractal.misc.FractalState;
 
@@ -13,32 +19,291 @@ import javax.swing.*;
  */
 public abstract class Calculable {
 	protected static Calculable instance;
-	protected static boolean	running = false;
+	
+	// Each progressive pass is twice the resolution of the last, finishing at full resolution
+	protected static final int[] passes = {8, 4, 2, 1};
+	
+	// Jobs waiting for a thread, past this the oldest is cancelled to make room
+	protected static final int QUEUE = 8;
+	
+	// Renders run on a couple of threads, calculators use every core themselves. The queue holds
+	// at most one job per owner, as starting a job cancels and removes the last one, and is
+	// bounded in case there are ever more owners than it should hold.
+	protected static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+		2, 2, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE), new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Calculable");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new RejectedExecutionHandler() {
+			@Override public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+				if(executor.isShutdown()) return;
+				
+				// The oldest waiting job is the one least likely to still be wanted
+				Runnable oldest = executor.getQueue().poll();
+				if(oldest instanceof RenderJob) {
+					RenderJob job = (RenderJob) oldest;
+					job.cancel();
+					finish(job.getOwner(), job);
+				}
+				executor.execute(r);
+			}
+		}
+	);
+	
+	// The latest unfinished job of each owner
+	protected static final Map<Object, RenderJob> jobs = new HashMap<Object, RenderJob>();
+	
+	// Fractals that take longer than this to calculate are kept in the tile store, anything
+	// quicker is about as quick to calculate again as to read
+	protected static final long slowNanos = 1_000_000_000L;
 	
 	/**
 	 * Calculate the fractal asynchronously for a given state and size
 	 * @param state The fractal state we want to render
 	 * @param size The size of the fractal we want to render
 	 * @param call The function called when the fractal has been calculated
+	 * @return The job, which can be cancelled
+	 */
+	public static RenderJob calcAsync(final FractalState state, final Dimension size, final Callback call) {
+		return calcAsync(call, state, size, call);
+	}
+	
+	/**
+	 * Calculate the fractal asynchronously for a given state and size, cancelling anything the
+	 * owner is still rendering
+	 * @param owner Whatever the fractal is for, only its latest job is kept
+	 * @param state The fractal state we want to render, which mustn't change until it's done
+	 * @param size The size of the fractal we want to render
+	 * @param call The function called when the fractal has been calculated
+	 * @return The job, which can be cancelled
+	 */
+	public static RenderJob calcAsync(final Object owner, final FractalState state, final Dimension size, final Callback call) {
+		final RenderJob[] job = new RenderJob[1];
+		job[0] = new RenderJob(owner, new Runnable() {
+			@Override public void run() {
+				long time = System.nanoTime();
+				try {
+					ResultCache.Key key    = new ResultCache.Key(state, size);
+					TileStore.Key   stored = storeKey(state, size);
+					double[]        data   = ResultCache.get(key);
+					if(data == null && (data = load(stored)) != null) ResultCache.put(key, data);
+					if(data == null) {
+						data = getInstance().calculate(state, size, job[0]);
+						if(!job[0].isCancelled()) {
+							ResultCache.put(key, data);
+							store(stored, state, size, data, System.nanoTime() - time);
+						}
+					}
+					job[0].deliver(call, data, size);
+				} catch (Exception e) {
+					JOptionPane.showMessageDialog(null, e.getMessage() + ":\n" + e.getStackTrace().toString(), "Error Calculating! Try Switching Renderer.", JOptionPane.ERROR_MESSAGE);
+				}
+				System.out.println("Took " + (System.nanoTime() - time) / 1_000_000_000.0 + " using " + getPrecision(state, size) + (job[0].isCancelled() ? " (cancelled)" : "") + ", cache hits " + ResultCache.getHits() + " misses " + ResultCache.getMisses());
+				finish(owner, job[0]);
+			}
+		});
+		return submit(owner, job[0]);
+	}
+	
+	/**
+	 * Calculate the fractal asynchronously, starting with a fast low resolution pass and doubling
+	 * the resolution each pass until it reaches the full size. The callback is called after every
+	 * pass, so something can be shown almost immediately. Anything the owner is still rendering
+	 * is cancelled.
+	 * @param owner Whatever the fractal is for, only its latest job is kept
+	 * @param state The fractal state we want to render, which mustn't change until it's done
+	 * @param size The size of the fractal we want to render
+	 * @param call The function called each time a pass has been calculated
+	 * @return The job, which can be cancelled
+	 */
+	public static RenderJob calcProgressive(final Object owner, final FractalState state, final Dimension size, final Callback call) {
+		final RenderJob[] job = new RenderJob[1];
+		job[0] = new RenderJob(owner, new Runnable() {
+			@Override public void run() {
+				long time = System.nanoTime();
+				try {
+					ResultCache.Key key      = new ResultCache.Key(state, size);
+					TileStore.Key   stored   = storeKey(state, size);
+					double[]        data     = ResultCache.get(key);
+					Dimension       dataSize = null;
+					
+					// Seen before, maybe in an earlier session, no need for any passes
+					if(data == null && (data = load(stored)) != null) ResultCache.put(key, data);
+					
+					if(data != null) job[0].deliver(call, data, size);
+					else if(state.buddha) {
+						// Buddha accumulates orbits, so it's shown as more are traced rather than in passes
+						data = new BuddhaEngine(state, size).render(job[0], call);
+						if(!job[0].isCancelled()) {
+							ResultCache.put(key, data);
+							store(stored, state, size, data, System.nanoTime() - time);
+						}
+					} else for(int factor : passes) {
+						Dimension    passSize  = new Dimension((size.width + factor - 1) / factor, (size.height + factor - 1) / factor);
+						FractalState passState = passOf(state, size, factor, passSize);
+						
+						data = data == null
+							? getInstance().calculate(passState, passSize, job[0])
+							: getInstance().refine(passState, passSize, data, dataSize, job[0]);
+						dataSize = passSize;
+						
+						// Someone wants something else now
+						if(!job[0].deliver(call, data, passSize)) break;
+						if(factor == 1) {
+							ResultCache.put(key, data);
+							store(stored, state, size, data, System.nanoTime() - time);
+						}
+					}
+				} catch (Exception e) {
+					JOptionPane.showMessageDialog(null, e.getMessage() + ":\n" + e.getStackTrace().toString(), "Error Calculating! Try Switching Renderer.", JOptionPane.ERROR_MESSAGE);
+				}
+				System.out.println("Took " + (System.nanoTime() - time) / 1_000_000_000.0 + " using " + getPrecision(state, size) + (job[0].isCancelled() ? " (cancelled)" : "") + ", cache hits " + ResultCache.getHits() + " misses " + ResultCache.getMisses());
+				finish(owner, job[0]);
+			}
+		});
+		return submit(owner, job[0]);
+	}
+	
+	/**
+	 * Calculate a fractal that has been panned by whole pixels, shifting the last data along and
+	 * only calculating the rows and columns that have come into view. Anything the owner is
+	 * still rendering is cancelled.
+	 * @param owner Whatever the fractal is for, only its latest job is kept
+	 * @param state The panned state, which mustn't change until it's done
+	 * @param size The size of the fractal, the same before and after the pan
+	 * @param last The full resolution data from before the pan, which isn't changed
+	 * @param dx Pixels the view moved right, pixel x now shows what pixel x + dx did
+	 * @param dy Pixels the view moved down
+	 * @param call The function called when the fractal has been calculated
+	 * @return The job, which can be cancelled
 	 */
-	public static void calcAsync(final FractalState state, final Dimension size, final Callback call) {
-		if(!running) {
-			running = true;
-			final long time = System.nanoTime();
-			new Thread() {
-				public void run() {
-					try {
-						call.callback(getInstance().calculate(state, size), size);
-					} catch (Exception e) {
-						JOptionPane.showMessageDialog(null, e.getMessage() + ":\n" + e.getStackTrace().toString(), "Error Calculating! Try Switching Renderer.", JOptionPane.ERROR_MESSAGE);
+	public static RenderJob calcShifted(final Object owner, final FractalState state, final Dimension size, final double[] last,
+		final int dx, final int dy, final Callback call)
+	{
+		final RenderJob[] job = new RenderJob[1];
+		job[0] = new RenderJob(owner, new Runnable() {
+			@Override public void run() {
+				long time = System.nanoTime();
+				try {
+					int      width = size.width, height = size.height;
+					double[] data  = new double[width * height];
+					
+					// Shift whatever is still in view
+					int from = Math.max(0, -dx), to = Math.min(width, width - dx);
+					for(int y = Math.max(0, -dy); y < Math.min(height, height - dy); y++) {
+						if(from < to) System.arraycopy(last, from + dx + (y + dy) * width, data, from + y * width, to - from);
 					}
-					System.out.println("Took " + (System.nanoTime() - time) / 1_000_000_000.0);
-				};
-			}.start();
-			running = false;
+					
+					// The columns that came into view, then the rest of the rows that did. Every
+					// strip keeps the precision of the whole view, so there are no seams.
+					Rectangle columns = new Rectangle(dx > 0 ? Math.max(0, to) : 0, 0, Math.min(width, Math.abs(dx)), height);
+					Rectangle rows    = new Rectangle(from, dy > 0 ? Math.max(0, height - dy) : 0, to - from, Math.min(height, Math.abs(dy)));
+					String    precision = Precision.choose(state, size);
+					for(Rectangle strip : new Rectangle[] {columns, rows}) {
+						if(strip.isEmpty()) continue;
+						
+						FractalState stripState = state.region(size, strip.x, strip.y, strip.x + strip.width, strip.y + strip.height);
+						stripState.precision = precision;
+						double[] stripData = getInstance().calculate(stripState, strip.getSize(), job[0]);
+						if(job[0].isCancelled()) break;
+						
+						for(int y = 0; y < strip.height; y++) {
+							System.arraycopy(stripData, y * strip.width, data, strip.x + (strip.y + y) * width, strip.width);
+						}
+					}
+					
+					job[0].deliver(call, data, size);
+				} catch (Exception e) {
+					JOptionPane.showMessageDialog(null, e.getMessage() + ":\n" + e.getStackTrace().toString(), "Error Calculating! Try Switching Renderer.", JOptionPane.ERROR_MESSAGE);
+				}
+				System.out.println("Took " + (System.nanoTime() - time) / 1_000_000_000.0 + " shifting " + dx + ", " + dy + (job[0].isCancelled() ? " (cancelled)" : ""));
+				finish(owner, job[0]);
+			}
+		});
+		return submit(owner, job[0]);
+	}
+	
+	/**
+	 * Start a job, cancelling the last job of the same owner
+	 * @param owner The owner of the job
+	 * @param job The job
+	 * @return The job
+	 */
+	protected static RenderJob submit(Object owner, RenderJob job) {
+		RenderJob last;
+		synchronized(jobs) {
+			last = jobs.put(owner, job);
+		}
+		
+		if(last != null) {
+			last.cancel();
+			// If it hasn't started yet, it never will
+			executor.remove(last);
+		}
+		
+		executor.execute(job);
+		return job;
+	}
+	
+	/**
+	 * Cancel whatever the owner is rendering
+	 * @param owner The owner
+	 */
+	public static void cancel(Object owner) {
+		RenderJob last;
+		synchronized(jobs) {
+			last = jobs.remove(owner);
+		}
+		
+		if(last != null) {
+			last.cancel();
+			executor.remove(last);
+		}
+	}
+	
+	/**
+	 * Forget a finished job, unless the owner has started another since
+	 * @param owner The owner of the job
+	 * @param job The job
+	 */
+	protected static void finish(Object owner, RenderJob job) {
+		synchronized(jobs) {
+			if(jobs.get(owner) == job) jobs.remove(owner);
 		}
 	}
 	
+	/**
+	 * Check if a newer job has been started for the same owner
+	 * @param job The job
+	 * @return True if the job's results are stale
+	 */
+	protected static boolean isSuperseded(RenderJob job) {
+		synchronized(jobs) {
+			RenderJob latest = jobs.get(job.getOwner());
+			return latest != null && latest.getGeneration() > job.getGeneration();
+		}
+	}
+	
+	/**
+	 * Get the state of a lower resolution pass. Pixel (x, y) of the pass is pixel
+	 * (x * factor, y * factor) of the full resolution fractal.
+	 * @param state The full resolution state
+	 * @param size The full resolution size
+	 * @param factor How many times smaller the pass is
+	 * @param passSize The size of the pass, rounded up
+	 * @return The state of the pass
+	 */
+	protected static FractalState passOf(FractalState state, Dimension size, int factor, Dimension passSize) {
+		if(factor == 1) return state;
+		
+		// Keep the precision of the full resolution, so every pass is calculated the same way
+		FractalState pass = state.region(size, 0, 0, factor * passSize.width, factor * passSize.height);
+		pass.precision = Precision.choose(state, size);
+		return pass;
+	}
+	
 	/**
 	 * Calculate the fractal on the same thread for a given state and size
 	 * @param state The fractal state we want to render
@@ -46,24 +311,157 @@ public abstract class Calculable {
 	 * @param call The function called when the fractal has been calculated
 	 */
 	public static void calcBlocking(final FractalState state, final Dimension size, final Callback call) {
-		if(!running) {
-			running = true;
-			final long time = System.nanoTime();
-			try {
-				call.callback(getInstance().calculate(state, size), size);
-			} catch (Exception e) {
-				JOptionPane.showMessageDialog(null, e.getMessage() + ":\n" + e.getStackTrace().toString(), "Error Calculating! Try Switching Renderer.", JOptionPane.ERROR_MESSAGE);
-			}
-			System.out.println((System.nanoTime() - time) / 1_000_000_000.0);
-			running = false;
+		final long time = System.nanoTime();
+		try {
+			call.callback(getInstance().calculate(state, size), size);
+		} catch (Exception e) {
+			JOptionPane.showMessageDialog(null, e.getMessage() + ":\n" + e.getStackTrace().toString(), "Error Calculating! Try Switching Renderer.", JOptionPane.ERROR_MESSAGE);
 		}
+		System.out.println((System.nanoTime() - time) / 1_000_000_000.0);
 	}
 	
+	/**
+	 * Calculate the fractal on the same thread for a given state and size, returning the data.
+	 * Errors are thrown rather than shown in a dialog, so this is safe to use without a display.
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @return A double array containing the fractal data
+	 */
+	public static double[] calcSync(final FractalState state, final Dimension size) {
+		TileStore.Key stored = storeKey(state, size);
+		double[]      data   = load(stored);
+		if(data != null) return data;
+
+		long time = System.nanoTime();
+		data = getInstance().calculate(state, size);
+		store(stored, state, size, data, System.nanoTime() - time);
+		return data;
+	}
+
+	/**
+	 * Get the key of a fractal in the tile store, before it's calculated as calculators fill in
+	 * anything missing from the state
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @return The key, or null if the store isn't open
+	 */
+	protected static TileStore.Key storeKey(FractalState state, Dimension size) {
+		return TileStore.isOpen() ? TileStore.frameKey(state, size) : null;
+	}
+
+	/**
+	 * Read a fractal from the tile store
+	 * @param key The key, or null
+	 * @return The fractal data, or null if it isn't stored
+	 */
+	protected static double[] load(TileStore.Key key) {
+		TileStore.Tile tile = key == null ? null : TileStore.get(key);
+		return tile == null ? null : tile.toArray();
+	}
+
+	/**
+	 * Keep a fractal in the tile store, if it was slow enough to be worth it
+	 * @param key The key, or null
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @param data The fractal data
+	 * @param nanos How long it took to calculate
+	 */
+	protected static void store(TileStore.Key key, FractalState state, Dimension size, double[] data, long nanos) {
+		if(key != null && nanos >= slowNanos) TileStore.put(key, data, size.width, size.height, state.iterations);
+	}
+
+	/**
+	 * Calculate the fractal on the same thread at twice the resolution of some existing data,
+	 * reusing its pixels where the calculator can. See refine.
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @param coarse The existing data, pixel (x, y) of which is pixel (2x, 2y) of the result
+	 * @param coarseSize The size of the existing data
+	 * @return A double array containing the fractal data
+	 */
+	public static double[] calcSync(FractalState state, Dimension size, double[] coarse, Dimension coarseSize) {
+		return getInstance().refine(state, size, coarse, coarseSize, RenderJob.NONE);
+	}
+
+	/**
+	 * Calculate the fractal on the same thread for a given state and size, for renders long enough
+	 * to be worth carrying on after a restart. Buddha saves the orbits it has traced to a
+	 * checkpoint every so often, and carries on from the checkpoint if it exists. Anything else
+	 * is calculated as usual.
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @param checkpoint Where to save the orbits
+	 * @param interval Seconds between saves
+	 * @return A double array containing the fractal data
+	 * @throws IOException If the checkpoint can't be read, or is for a different fractal
+	 */
+	public static double[] calcSync(FractalState state, Dimension size, File checkpoint, long interval) throws IOException {
+		if(!state.buddha) return calcSync(state, size);
+		return new BuddhaEngine(state, size).checkpoint(checkpoint, interval).render(RenderJob.NONE, null);
+	}
+
 	/**
 	 * Abstract method that calculates the fractal asynchronously for a given state and size
 	 * @return A double array containing the fractal data
 	 */
 	protected abstract double[] calculate(final FractalState state, final Dimension size);
+	
+	/**
+	 * Calculate the fractal, giving up early if the job is cancelled. By default the job is only
+	 * checked once the calculation is done.
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @param job The job the calculation is for
+	 * @return A double array containing the fractal data, incomplete if the job was cancelled
+	 */
+	protected double[] calculate(FractalState state, Dimension size, RenderJob job) {
+		return calculate(state, size);
+	}
+
+	/**
+	 * Calculate the fractal at twice the resolution of some existing data. Pixel (x, y) of the
+	 * existing data is pixel (2x, 2y) of the result, so implementations can avoid calculating a
+	 * quarter of the pixels again. By default everything is calculated.
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @param coarse The existing data
+	 * @param coarseSize The size of the existing data
+	 * @param job The job the calculation is for
+	 * @return A double array containing the fractal data, incomplete if the job was cancelled
+	 */
+	protected double[] refine(FractalState state, Dimension size, double[] coarse, Dimension coarseSize, RenderJob job) {
+		return calculate(state, size, job);
+	}
+
+	/**
+	 * Get the number type a fractal is calculated with, for the render stats
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @return The name of the precision
+	 */
+	protected String precisionOf(FractalState state, Dimension size) {
+		return Precision.DOUBLE;
+	}
+
+	/**
+	 * @return True if floats are enough quicker than doubles to be picked by Auto. They only change
+	 * a few pixels, but that's not worth it for the small speed up of scalar Java, or of SIMD
+	 * where twice the lanes are offset by more of them idling.
+	 */
+	protected boolean fastFloats() {
+		return false;
+	}
+
+	/**
+	 * Get the number type the current calculator uses for a fractal
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @return The name of the precision
+	 */
+	public static String getPrecision(FractalState state, Dimension size) {
+		return getInstance().precisionOf(state, size);
+	}
 
 	/**
 	 * Abstract method that gets an array of implemented fractals from an implementation. This may
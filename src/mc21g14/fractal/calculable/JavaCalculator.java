@@ -1,40 +1,251 @@
 package mc21g14.fractal.calculable;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import mc21g14.fractal.misc.FractalState;
 
 /**
- * Java calculation backend.
+ * Java calculation backend. The image is split into tiles on a fork/join pool, and tiles that
+ * took a long time in the last frame of the same owner are split finer, so idle threads always
+ * have something to steal right up to the end of the frame.
  * 
  * @author Matthew Consterdine
  */
 public class JavaCalculator extends Calculable {
+	// The smallest tile, small enough that the slow tiles are spread evenly between threads
+	protected static volatile int tileSize = 32;
+	
+	// Tiles are split until each is expected to take at most this fraction of a thread's share
+	protected static final int splits = 16;
+	
+	protected static volatile ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	
+	// How long each part of the last frame took, for each owner. Owners are usually a Fractal
+	protected static final Map<Object, TileCosts> costs = new WeakHashMap<Object, TileCosts>();
+	
 	@Override
 	public String[] getImplementedFractals() {
 		return new String[] {"Mandlebrot", "Burning Ship", "Tricorn", "Nova", "Circle"};
 	}
 	
+	@Override
+	protected String precisionOf(FractalState state, Dimension size) {
+		return Precision.of(state, size);
+	}
+	
 	protected double[] calculate(final FractalState state, final Dimension size) {
+		return calculate(state, size, RenderJob.NONE);
+	}
+	
+	@Override
+	protected double[] calculate(FractalState state, Dimension size, RenderJob job) {
+		// Buddha traces random orbits rather than calculating pixels
+		if(state.buddha) return new BuddhaEngine(state, size).render(job, null);
+		
+		return calculate(state, size, new double[size.width * size.height], false, job);
+	}
+	
+	@Override
+	protected double[] refine(FractalState state, Dimension size, double[] coarse, Dimension coarseSize, RenderJob job) {
+		// Buddha accumulates, so every pixel has to be calculated again
+		if(state.buddha) return calculate(state, size, job);
+		
+		// Pixels with even coordinates have already been calculated, copy them over
+		double[] results = new double[size.width * size.height];
+		for(int y = 0; y < size.height; y += 2) {
+			for(int x = 0; x < size.width; x += 2) {
+				results[y * size.width + x] = coarse[(y / 2) * coarseSize.width + x / 2];
+			}
+		}
+		
+		return calculate(state, size, results, true, job);
+	}
+	
+	/**
+	 * Calculate the fractal into an array
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @param results Where to store the results
+	 * @param refining True if pixels with even coordinates are already in results
+	 * @param job The job, threads stop taking tiles once it's cancelled
+	 * @return The results
+	 */
+	protected double[] calculate(final FractalState state, final Dimension size, final double[] results, final boolean refining, final RenderJob job) {
 		if(state.fractal == null) state.fractal = getImplementedFractals()[0];
 		
+		invoke(new Runnables(state, size, results, refining, job));
+		return results;
+	}
+	
+	/**
+	 * Calculate every tile of a frame on the pool. Other calculators pass their own runnables,
+	 * so they're split by the costs of the last frame the same way.
+	 * @param runnables Creates the runnable of each thread
+	 */
+	protected static void invoke(Runnables runnables) {
+		Dimension size = runnables.size;
+		RenderJob job  = runnables.job;
+		
+		TileCosts last;
+		synchronized(costs) {
+			last = costs.get(job.getOwner());
+		}
+		if(last == null) last = new TileCosts();
+		TileCosts next = new TileCosts();
+		
 		// We are storing the results as number of iterations taken. Negative means never reached
-		double[] results = new double[size.width * size.height];
+		ForkJoinPool pool  = JavaCalculator.pool;
+		Rectangle    image = new Rectangle(size);
+		double       most  = last.estimate(image, size) / (pool.getParallelism() * splits);
+		pool.invoke(new TileTask(image, size, most, last, next, runnables, job));
 		
-		// Create threads
-		Thread[] threads = new Thread[Runtime.getRuntime().availableProcessors()];
-		for(int i = 0; i < threads.length; i++) {
-			threads[i] = new Thread(new JavaRunnable(state, size, results, threads.length, i));
-			threads[i].start();
+		// A cancelled frame is missing tiles, so it would make a bad guess for the next one
+		if(!job.isCancelled()) {
+			synchronized(costs) {
+				costs.put(job.getOwner(), next.finish());
+			}
 		}
-
-		// Join as we need to wait for them all to complete before we show the image
-		try {
-			for(int i = 0; i < threads.length; i++) threads[i].join();
-		} catch (InterruptedException e) {
-			System.err.println("Interrupted: " + e.getMessage());
+	}
+	
+	/**
+	 * The runnable of each thread working on a frame. Each thread needs its own, as the kernel
+	 * keeps the orbit in its fields. They're only kept as long as the frame, unlike a ThreadLocal
+	 * which would leave them, and the results they point to, in the pool's threads. Calculators
+	 * with their own kernels override create.
+	 */
+	protected static class Runnables {
+		protected final Map<Thread, TileRunnable> runnables = new ConcurrentHashMap<Thread, TileRunnable>();
+		
+		protected final FractalState state;
+		protected final Dimension    size;
+		protected final double[]     results;
+		protected final boolean      refining;
+		protected final RenderJob    job;
+		
+		public Runnables(FractalState state, Dimension size, double[] results, boolean refining, RenderJob job) {
+			this.state    = state;
+			this.size     = size;
+			this.results  = results;
+			this.refining = refining;
+			this.job      = job;
 		}
 		
-		return results;
+		/**
+		 * @return The runnable of the current thread, created the first time it asks
+		 */
+		public TileRunnable get() {
+			// Only this thread adds its own, so there's no race
+			TileRunnable runnable = runnables.get(Thread.currentThread());
+			if(runnable == null) runnables.put(Thread.currentThread(), runnable = create());
+			return runnable;
+		}
+		
+		/**
+		 * @return A new runnable for the current thread
+		 */
+		protected TileRunnable create() {
+			return new JavaRunnable(state, size, results, refining, job);
+		}
+	}
+	
+	/**
+	 * A tile of the image. If the last frame says it's expensive it's split in half and both run
+	 * as separate tasks, otherwise it's calculated and how long it took is recorded.
+	 */
+	protected static class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		protected final Rectangle tile;
+		protected final Dimension size;
+		protected final double    most;
+		protected final TileCosts last, next;
+		protected final Runnables runnables;
+		protected final RenderJob job;
+		
+		public TileTask(Rectangle tile, Dimension size, double most, TileCosts last, TileCosts next, Runnables runnables, RenderJob job) {
+			this.tile      = tile;
+			this.size      = size;
+			this.most      = most;
+			this.last      = last;
+			this.next      = next;
+			this.runnables = runnables;
+			this.job       = job;
+		}
+		
+		@Override
+		protected void compute() {
+			if(job.isCancelled()) return;
+			
+			// Split the longest side, unless that would go below the smallest tile
+			if(last.estimate(tile, size) > most && Math.max(tile.width, tile.height) > tileSize) {
+				Rectangle a = new Rectangle(tile), b = new Rectangle(tile);
+				if(tile.width >= tile.height) {
+					a.width  = tile.width / 2;
+					b.x     += a.width;
+					b.width -= a.width;
+				} else {
+					a.height  = tile.height / 2;
+					b.y      += a.height;
+					b.height -= a.height;
+				}
+				invokeAll(copy(a), copy(b));
+				return;
+			}
+			
+			long time = System.nanoTime();
+			runnables.get().calculate(tile);
+			next.record(tile, size, System.nanoTime() - time);
+		}
+		
+		/**
+		 * @return A task for part of this tile
+		 */
+		protected TileTask copy(Rectangle tile) {
+			return new TileTask(tile, size, most, last, next, runnables, job);
+		}
+	}
+	
+	/**
+	 * @return Number of threads calculating at once
+	 */
+	public static int getThreads() {
+		return pool.getParallelism();
+	}
+	
+	/**
+	 * Set the number of threads calculating at once. Anything already calculating finishes on
+	 * the old threads.
+	 * @param threads Number of threads, at least one
+	 */
+	public static synchronized void setThreads(int threads) {
+		if(threads < 1) throw new IllegalArgumentException("Need at least one thread");
+		if(threads == pool.getParallelism()) return;
+		
+		ForkJoinPool old = pool;
+		pool = new ForkJoinPool(threads);
+		old.shutdown();
+	}
+	
+	/**
+	 * @return Width and height of the smallest tile, in pixels
+	 */
+	public static int getTileSize() {
+		return tileSize;
+	}
+	
+	/**
+	 * Set the size of the smallest tile. Smaller spreads slow regions more evenly, but each tile
+	 * has a little overhead.
+	 * @param size Width and height in pixels, at least one
+	 */
+	public static void setTileSize(int size) {
+		if(size < 1) throw new IllegalArgumentException("Tiles need at least one pixel");
+		tileSize = size;
 	}
 }
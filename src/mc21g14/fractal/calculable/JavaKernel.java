@@ -0,0 +1,358 @@
+package mc21g14.fractal.calculable;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Allocation free iteration kernels for the Java backend. The orbit is kept in primitive doubles,
+ * as every Complex operation creates a new object and a large render would create billions.
+ *
+ * @author Matthew Consterdine
+ */
+class JavaKernel {
+	// Fractals, in the same order as JavaCalculator.getImplementedFractals()
+	protected static final int MANDLEBROT   = 0;
+	protected static final int BURNING_SHIP = 1;
+	protected static final int TRICORN      = 2;
+	protected static final int NOVA         = 3;
+	protected static final int CIRCLE       = 4;
+
+	protected final int     fractal;
+	protected final int     order;
+	protected final int     iterations;
+	protected final double  threshold;
+	protected final boolean smooth;
+	protected final boolean julia;
+	
+	// How close an orbit has to come to an earlier point to count as periodic, negative for never
+	protected final double  periodicity;
+
+	// The current point of the orbit, used by step()
+	public double r;
+	public double i;
+
+	// Result of the last call to pow()
+	protected double pr;
+	protected double pi;
+
+	/**
+	 * Create a kernel for a given state
+	 * @param state The fractal state we want to render
+	 */
+	public JavaKernel(FractalState state) {
+		this.fractal    = indexOf(state.fractal);
+		this.order      = state.order;
+		this.iterations = state.iterations;
+		this.threshold  = state.threshold * state.threshold;
+		this.smooth     = state.smooth;
+		this.julia      = state.seed != null;
+		
+		// Interior checks are only worked out for order 2 Mandlebrot and Julia sets
+		this.periodicity = fractal == MANDLEBROT && order == 2 ? state.periodicity : -1;
+	}
+
+	/**
+	 * Get the kernel index of a fractal
+	 * @param fractal The name of the fractal
+	 * @return The index
+	 */
+	public static int indexOf(String fractal) {
+		switch(fractal) {
+			case "Mandlebrot":   return MANDLEBROT;
+			case "Burning Ship": return BURNING_SHIP;
+			case "Tricorn":      return TRICORN;
+			case "Nova":         return NOVA;
+			case "Circle":       return CIRCLE;
+			default:
+				throw new UnsupportedOperationException(fractal + " isn't implemented");
+		}
+	}
+
+	/**
+	 * Iterate a point until it escapes
+	 * @param zr Real part of the starting point
+	 * @param zi Imaginary part of the starting point
+	 * @param cr Real part of the base
+	 * @param ci Imaginary part of the base
+	 * @return Iterations taken, fractional if smoothing. -1 if the point never escaped
+	 */
+	public double escape(double zr, double zi, double cr, double ci) {
+		switch(fractal) {
+			case MANDLEBROT:
+			case BURNING_SHIP:
+			case TRICORN:
+				// The most common orders get their own loop, avoiding the switch in pow()
+				if(order == 2) return escape2(zr, zi, cr, ci);
+				if(order == 3) return escape3(zr, zi, cr, ci);
+				return escapeN(zr, zi, cr, ci);
+			case NOVA:
+				return escapeNova(zr, zi, cr, ci);
+			default:
+				return escapeCircle(zr, zi);
+		}
+	}
+
+	protected double escape2(double zr, double zi, double cr, double ci) {
+		if(periodicity >= 0) return escapeInterior(zr, zi, cr, ci);
+		
+		final boolean absolute  = fractal == BURNING_SHIP;
+		final boolean conjugate = fractal == TRICORN;
+
+		for(int it = 1; it < iterations; it++) {
+			if(absolute)  {zr = Math.abs(zr); zi = Math.abs(zi);}
+			if(conjugate) zi = -zi;
+
+			double nr = zr*zr - zi*zi + cr;
+			double ni = 2*zr*zi + ci;
+
+			double modulus = nr*nr + ni*ni;
+			if(modulus > threshold) return escaped(it, zr*zr + zi*zi, modulus);
+
+			zr = nr;
+			zi = ni;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Order 2 Mandlebrot, skipping points known to be inside the set. Interior points are the
+	 * slowest to calculate, as they use every iteration.
+	 */
+	protected double escapeInterior(double zr, double zi, double cr, double ci) {
+		// Points in the main cardioid or the period 2 bulb never escape
+		if(!julia) {
+			double x = cr - 0.25;
+			double q = x*x + ci*ci;
+			if(q * (q + x) <= 0.25 * ci*ci)           return -1;
+			if((cr + 1)*(cr + 1) + ci*ci <= 0.0625) return -1;
+		}
+		
+		// Brent's cycle detection, we save a point and compare the orbit against it, saving a
+		// new point after twice as many iterations each time. Finds cycles of any period.
+		double savedR = zr, savedI = zi;
+		int    saved  = 0,  limit  = 2;
+		
+		for(int it = 1; it < iterations; it++) {
+			double nr = zr*zr - zi*zi + cr;
+			double ni = 2*zr*zi + ci;
+
+			double modulus = nr*nr + ni*ni;
+			if(modulus > threshold) return escaped(it, zr*zr + zi*zi, modulus);
+
+			zr = nr;
+			zi = ni;
+			
+			if(Math.abs(zr - savedR) <= periodicity && Math.abs(zi - savedI) <= periodicity) return -1;
+			if(++saved == limit) {
+				savedR = zr; savedI = zi;
+				saved  = 0;  limit *= 2;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Order 2 escape time in floats, for shallow views where floats can still tell pixels apart.
+	 * Mandlebrot, Burning Ship and Tricorn only.
+	 * @param zr Real part of the starting point
+	 * @param zi Imaginary part of the starting point
+	 * @param cr Real part of the base
+	 * @param ci Imaginary part of the base
+	 * @return Iterations taken, fractional if smoothing. -1 if the point never escaped
+	 */
+	public double escapeFloat(float zr, float zi, float cr, float ci) {
+		final boolean absolute  = fractal == BURNING_SHIP;
+		final boolean conjugate = fractal == TRICORN;
+		final boolean interior  = periodicity >= 0;
+		final float   tolerance = (float) periodicity;
+		final float   limit     = (float) threshold;
+
+		// Same interior checks as escapeInterior()
+		if(interior && !julia) {
+			float x = cr - 0.25f;
+			float q = x*x + ci*ci;
+			if(q * (q + x) <= 0.25f * ci*ci)           return -1;
+			if((cr + 1)*(cr + 1) + ci*ci <= 0.0625f) return -1;
+		}
+
+		float savedR = zr, savedI = zi;
+		int   saved  = 0,  next   = 2;
+
+		for(int it = 1; it < iterations; it++) {
+			if(absolute)  {zr = Math.abs(zr); zi = Math.abs(zi);}
+			if(conjugate) zi = -zi;
+
+			float nr = zr*zr - zi*zi + cr;
+			float ni = 2*zr*zi + ci;
+
+			float modulus = nr*nr + ni*ni;
+			if(modulus > limit) return escaped(it, zr*zr + zi*zi, modulus);
+
+			zr = nr;
+			zi = ni;
+
+			if(interior) {
+				if(Math.abs(zr - savedR) <= tolerance && Math.abs(zi - savedI) <= tolerance) return -1;
+				if(++saved == next) {
+					savedR = zr; savedI = zi;
+					saved  = 0;  next  *= 2;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	protected double escape3(double zr, double zi, double cr, double ci) {
+		final boolean absolute  = fractal == BURNING_SHIP;
+		final boolean conjugate = fractal == TRICORN;
+
+		for(int it = 1; it < iterations; it++) {
+			if(absolute)  {zr = Math.abs(zr); zi = Math.abs(zi);}
+			if(conjugate) zi = -zi;
+
+			double nr = zr*zr*zr - 3*zi*zi*zr + cr;
+			double ni = 3*zi*zr*zr - zi*zi*zi + ci;
+
+			double modulus = nr*nr + ni*ni;
+			if(modulus > threshold) return escaped(it, zr*zr + zi*zi, modulus);
+
+			zr = nr;
+			zi = ni;
+		}
+
+		return -1;
+	}
+
+	protected double escapeN(double zr, double zi, double cr, double ci) {
+		final boolean absolute  = fractal == BURNING_SHIP;
+		final boolean conjugate = fractal == TRICORN;
+
+		for(int it = 1; it < iterations; it++) {
+			if(absolute)  {zr = Math.abs(zr); zi = Math.abs(zi);}
+			if(conjugate) zi = -zi;
+
+			pow(zr, zi, order);
+			double nr = pr + cr;
+			double ni = pi + ci;
+
+			double modulus = nr*nr + ni*ni;
+			if(modulus > threshold) return escaped(it, zr*zr + zi*zi, modulus);
+
+			zr = nr;
+			zi = ni;
+		}
+
+		return -1;
+	}
+
+	protected double escapeNova(double zr, double zi, double cr, double ci) {
+		for(int it = 1; it < iterations; it++) {
+			nova(zr, zi, cr, ci);
+
+			double modulus = pr*pr + pi*pi;
+			if(modulus > threshold) return escaped(it, zr*zr + zi*zi, modulus);
+
+			zr = pr;
+			zi = pi;
+		}
+
+		return -1;
+	}
+
+	protected double escapeCircle(double zr, double zi) {
+		for(int it = 1; it < iterations; it++) {
+			pow(zr, zi, order);
+
+			double modulus = pr*pr + pi*pi;
+			if(modulus > threshold) return escaped(it, zr*zr + zi*zi, modulus);
+
+			zr = pr;
+			zi = pi;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Work out the value of a pixel that has escaped
+	 * @param it The iteration it escaped on
+	 * @param past Modulus squared of the last point inside the threshold
+	 * @param current Modulus squared of the first point outside the threshold
+	 * @return Iterations taken, fractional if smoothing
+	 */
+	protected double escaped(int it, double past, double current) {
+		// We pretend the difference between two iterations is linear to get a smooth value
+		if(smooth) return it + Math.max((threshold - past) / Math.abs(past - current), 0) - 1;
+		return it - 1;
+	}
+
+	/**
+	 * Perform a single iteration on the orbit stored in r and i. Slower than escape(), but lets
+	 * the caller see every point, which orbit traps and buddha need.
+	 * @param cr Real part of the base
+	 * @param ci Imaginary part of the base
+	 */
+	public void step(double cr, double ci) {
+		switch(fractal) {
+			case MANDLEBROT:   pow(r, i, order);                     r = pr + cr; i = pi + ci; break;
+			case BURNING_SHIP: pow(Math.abs(r), Math.abs(i), order); r = pr + cr; i = pi + ci; break;
+			case TRICORN:      pow(r, -i, order);                    r = pr + cr; i = pi + ci; break;
+			case NOVA:         nova(r, i, cr, ci);                   r = pr;      i = pi;      break;
+			default:           pow(r, i, order);                     r = pr;      i = pi;      break;
+		}
+	}
+
+	/**
+	 * A single step of Newton's method plus the base, stored in pr and pi
+	 */
+	protected void nova(double zr, double zi, double cr, double ci) {
+		// Denominator, order * z^(order - 1)
+		pow(zr, zi, order - 1);
+		double dr = order * pr;
+		double di = order * pi;
+
+		// Numerator, z^order - 1
+		pow(zr, zi, order);
+		double nr = pr - 1;
+		double ni = pi;
+
+		double inter = 1 / (dr*dr + di*di);
+		pr = zr - (nr*dr + ni*di) * inter + cr;
+		pi = zi - (dr*ni - nr*di) * inter + ci;
+	}
+
+	/**
+	 * Puts a number to the power provided, storing the result in pr and pi. Mirrors Complex.pow
+	 * @param r The real part
+	 * @param i The imaginary part
+	 * @param n The power
+	 */
+	protected void pow(double r, double i, int n) {
+		switch (n) {
+			case 0:  pr = 1; pi = 0; return;
+
+			case 1:  pr = r; pi = i; return;
+			case 2:  pr = r*r - i*i;                                        pi = 2*r*i;                                        return;
+			case 3:  pr = r*r*r - 3*i*i*r;                                  pi = 3*i*r*r - i*i*i;                              return;
+			case 5:  pr = r*r*r*r*r - 10*i*i*r*r*r + 5*i*i*i*i*r;           pi = 5*i*r*r*r*r - 10*i*i*i*r*r + i*i*i*i*i;       return;
+			case 7:  pr = r*r*r*r*r*r*r - 21*i*i*r*r*r*r*r + 35*i*i*i*i*r*r*r - 7*i*i*i*i*i*i*r;
+			         pi = 7*i*r*r*r*r*r*r - 35*i*i*i*r*r*r*r + 21*i*i*i*i*i*r*r - i*i*i*i*i*i*i; return;
+
+			case 4:  pow(r, i, 2); pow(pr, pi, 2); return;
+			case 6:  pow(r, i, 2); pow(pr, pi, 3); return;
+			case 8:  pow(r, i, 2); pow(pr, pi, 4); return;
+			case 9:  pow(r, i, 3); pow(pr, pi, 3); return;
+			case 10: pow(r, i, 2); pow(pr, pi, 5); return;
+
+			default:
+				// Polar form and DeMoivre's Theorem, for negative and large powers
+				double rn = Math.pow(Math.sqrt(Math.pow(r, 2) + Math.pow(i, 2)), n);
+				double th = Math.atan2(i, r);
+
+				pr = rn * Math.cos(n * th);
+				pi = rn * Math.sin(n * th);
+		}
+	}
+}
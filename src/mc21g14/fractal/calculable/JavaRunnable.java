@@ -1,367 +1,254 @@
 package mc21g14.fractal.calculable;
 
 import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.util.Arrays;
 
-import mc21g14.fractal.misc.Complex;
 import mc21g14.fractal.misc.FractalState;
 
-class JavaRunnable implements Runnable {
+class JavaRunnable implements TileRunnable {
 	protected FractalState state;
 	protected Dimension size;
-	
+
 	protected double[] results;
+
+	// If true, pixels with even coordinates are already known from a lower resolution pass
+	protected boolean refining;
+
+	// Checked every pixel, so a cancelled job stops almost immediately
+	protected RenderJob job;
 	
-	// SO we know where we are and what to do
-	protected int total;
-	protected int id;
-	
-	public JavaRunnable(FractalState state, Dimension size, double[] results, int total, int id) {
-		this.state   = state;
-		this.size    = size;
-		this.results = results;
-		this.total   = total;
-		this.id      = id;
+	// Each thread has its own kernel, as the kernel keeps the orbit in its fields
+	protected JavaKernel kernel;
+
+	// The base and past values of the current pixel, set by point()
+	protected double baseR, baseI;
+	protected double pastR, pastI;
+
+	// The centre of the view, pixels are an offset from it
+	protected double centerR, centerI;
+
+	// Set if the pixels are calculated as floats, or in double-double by the deep kernel
+	protected boolean            floats;
+	protected DoubleDoubleKernel deep;
+
+	// The centre of the view as double-doubles, high part then low part
+	protected double[] deepR, deepI;
+
+	public JavaRunnable(FractalState state, Dimension size, double[] results, boolean refining, RenderJob job) {
+		this.state    = state;
+		this.size     = size;
+		this.results  = results;
+		this.refining = refining;
+		this.job      = job;
+		this.kernel   = new JavaKernel(state);
+		this.centerR  = state.getCenterR().doubleValue();
+		this.centerI  = state.getCenterI().doubleValue();
+
+		String precision = Precision.of(state, size);
+		if(precision.equals(Precision.FLOAT)) {
+			this.floats = true;
+		} else if(precision.equals(Precision.DOUBLE_DOUBLE)) {
+			this.deep   = new DoubleDoubleKernel(state);
+			this.deepR  = DoubleDoubleKernel.split(state.getCenterR());
+			this.deepI  = DoubleDoubleKernel.split(state.getCenterI());
+		}
 	}
 
 	@Override
-	public void run() {
-		if(state.buddha) runBuddha();
-		else if(!state.orbitTraps.equals("None")) runTraps();
-		else if(state.smooth) runSmooth();
-		else runInteger();
+	public void calculate(Rectangle tile) {
+		if(!state.orbitTraps.equals("None")) runTraps(tile);
+		else runEscape(tile);
 	}
 
-	public void runBuddha() {
-		for(int i = 0; i < size.width * size.height; i++) {
-			int x = i % size.width;
-			int y = i / size.width;
-
-			// We need a base complex and a past complex for each iteration
-			Complex past = new Complex(state.start + (state.end - state.start) * x / size.width, state.top - (state.top - state.bottom) * y / size.height);
-			Complex base = state.seed != null ? state.seed : past;
-
-			// Inverse the base value, for pretty images
-			if(state.inverse) {base = base.inverse(); past = past.inverse();}
-
-			switch(state.fractal) {
-				case "Mandlebrot": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.pow(state.order).add(base);
-
-						int j = (int) ((size.width  * (past.r - state.start)) / (state.end    - state.start));
-						int k = (int) ((size.height * (past.i - state.top))   / (state.bottom - state.top));
-						if(k * size.width + j >= 0 && k * size.width + j < size.width * size.height) results[i]++;
-					}
-				} break;
-				case "Burning Ship": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.abs().pow(state.order).add(base);
-
-						int j = (int) ((size.width  * (past.r - state.start)) / (state.end    - state.start));
-						int k = (int) ((size.height * (past.i - state.top))   / (state.bottom - state.top));
-						if(k * size.width + j >= 0 && k * size.width + j < size.width * size.height) results[i]++;
-					}
-				} break;
-				case "Tricorn": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = new Complex(past.r, past.i * -1).pow(state.order).add(base);
-
-						int j = (int) ((size.width  * (past.r - state.start)) / (state.end    - state.start));
-						int k = (int) ((size.height * (past.i - state.top))   / (state.bottom - state.top));
-						if(k * size.width + j >= 0 && k * size.width + j < size.width * size.height) results[i]++;
-					}
-				} break;
-				case "Nova": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.subtract(new Complex(1, 0).multiply(past.pow(state.order).subtract(new Complex(1, 0))).divide(new Complex(state.order, 0).multiply(past.pow(state.order - 1)))).add(base);
-
-						int j = (int) ((size.width  * (past.r - state.start)) / (state.end    - state.start));
-						int k = (int) ((size.height * (past.i - state.top))   / (state.bottom - state.top));
-						if(k * size.width + j >= 0 && k * size.width + j < size.width * size.height) results[i]++;
-					}
-				} break;
-				case "Circle": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.pow(state.order);
-
-						int j = (int) ((size.width  * (past.r - state.start)) / (state.end    - state.start));
-						int k = (int) ((size.height * (past.i - state.top))   / (state.bottom - state.top));
-						if(k * size.width + j >= 0 && k * size.width + j < size.width * size.height) results[i]++;
-					}
-				} break;
-				default:
-					throw new UnsupportedOperationException(state.fractal + " isn't implemented");
-			}
+	/**
+	 * Find the base and past values of a pixel
+	 * @param x The x coordinate of the pixel
+	 * @param y The y coordinate of the pixel
+	 */
+	protected void point(int x, int y) {
+		// We need a base complex and a past complex for each iteration
+		pastR = centerR + state.offsetR(x, size.width);
+		pastI = centerI + state.offsetI(y, size.height);
+		baseR = state.seed != null ? state.seed.r : pastR;
+		baseI = state.seed != null ? state.seed.i : pastI;
+
+		// Inverse the base value, for pretty images
+		if(state.inverse) {
+			double inter = 1 / (baseR*baseR + baseI*baseI);
+			baseR = baseR * inter; baseI = (0 - baseI) * inter;
+			inter = 1 / (pastR*pastR + pastI*pastI);
+			pastR = pastR * inter; pastI = (0 - pastI) * inter;
 		}
 	}
 
-	public void runTraps() {
-		for(int i = 0; i < size.width * size.height; i++) {
-			int x = i % size.width;
-			int y = i / size.width;
-
-			// We need a base complex and a past complex for each iteration
-			Complex past = new Complex(state.start + (state.end - state.start) * x / size.width, state.top - (state.top - state.bottom) * y / size.height);
-			Complex base = state.seed != null ? state.seed : past;
+	public void runTraps(Rectangle tile) {
+		// Saves comparing strings every iteration
+		boolean cross      = state.orbitTraps.equals("Cross");
+		boolean iterations = state.regionSplits.equals("Iterations");
 
-			// Inverse the base value, for pretty images
-			if(state.inverse) {base = base.inverse(); past = past.inverse();}
-
-			// For orbit traps
-			double distance[] = new double[state.regionSplits.equals("Iterations") ? 5 : (state.regionSplits.equals("Axis") ? 4 : 1)];
-			Arrays.fill(distance, Double.MAX_VALUE);
+		// For orbit traps
+		double distance[] = new double[iterations ? 5 : (state.regionSplits.equals("Axis") ? 4 : 1)];
 
-			switch(state.fractal) {
-				case "Mandlebrot": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.pow(state.order).add(base);
+		for(int y = tile.y; y < tile.y + tile.height; y++) for(int x = tile.x; x < tile.x + tile.width; x++) {
+			int i = y * size.width + x;
+			if(job.isCancelled()) return;
+			if(refining && (x & 1) == 0 && (y & 1) == 0) continue;
 
-						// Trap our orbits
-						if(state.orbitTraps.equals("Cross")) {
-							if(past.r*past.r < distance[it % distance.length]) distance[it % distance.length] = past.r*past.r;
-							if(past.i*past.i < distance[it % distance.length]) distance[it % distance.length] = past.i*past.i;
-						} else {
-							if(past.modulusSquared() < distance[it % distance.length]) distance[it % distance.length] = past.modulusSquared();
-						}
-					}
+			point(x, y);
 
-					int pointer = state.regionSplits.equals("Iterations") ? (past.i > 0 ? 1 : 0) + (past.r > 0 ? 2 : 0) : (state.iterations - 1) % distance.length;
-					if(distance[pointer] < 1) results[i] = Math.sqrt(distance[pointer]) * state.iterations;
-				} break;
-				case "Burning Ship": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.abs().pow(state.order).add(base);
-
-						// Trap our orbits
-						if(state.orbitTraps.equals("Cross")) {
-							if(past.r*past.r < distance[it % distance.length]) distance[it % distance.length] = past.r*past.r;
-							if(past.i*past.i < distance[it % distance.length]) distance[it % distance.length] = past.i*past.i;
-						} else {
-							if(past.modulusSquared() < distance[it % distance.length]) distance[it % distance.length] = past.modulusSquared();
-						}
-					}
-
-					int pointer = state.regionSplits.equals("Iterations") ? (past.i > 0 ? 1 : 0) + (past.r > 0 ? 2 : 0) : (state.iterations - 1) % distance.length;
-					if(distance[pointer] < 1) results[i] = Math.sqrt(distance[pointer]) * state.iterations;
-				} break;
-				case "Tricorn": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = new Complex(past.r, past.i * -1).pow(state.order).add(base);
-
-						// Trap our orbits
-						if(state.orbitTraps.equals("Cross")) {
-							if(past.r*past.r < distance[it % distance.length]) distance[it % distance.length] = past.r*past.r;
-							if(past.i*past.i < distance[it % distance.length]) distance[it % distance.length] = past.i*past.i;
-						} else {
-							if(past.modulusSquared() < distance[it % distance.length]) distance[it % distance.length] = past.modulusSquared();
-						}
-					}
-
-					int pointer = state.regionSplits.equals("Iterations") ? (past.i > 0 ? 1 : 0) + (past.r > 0 ? 2 : 0) : (state.iterations - 1) % distance.length;
-					if(distance[pointer] < 1) results[i] = Math.sqrt(distance[pointer]) * state.iterations;
-				} break;
-				case "Nova": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.subtract(new Complex(1, 0).multiply(past.pow(state.order).subtract(new Complex(1, 0))).divide(new Complex(state.order, 0).multiply(past.pow(state.order - 1)))).add(base);
-
-						// Trap our orbits
-						if(state.orbitTraps.equals("Cross")) {
-							if(past.r*past.r < distance[it % distance.length]) distance[it % distance.length] = past.r*past.r;
-							if(past.i*past.i < distance[it % distance.length]) distance[it % distance.length] = past.i*past.i;
-						} else {
-							if(past.modulusSquared() < distance[it % distance.length]) distance[it % distance.length] = past.modulusSquared();
-						}
-					}
-
-					int pointer = state.regionSplits.equals("Iterations") ? (past.i > 0 ? 1 : 0) + (past.r > 0 ? 2 : 0) : (state.iterations - 1) % distance.length;
-					if(distance[pointer] < 1) results[i] = Math.sqrt(distance[pointer]) * state.iterations;
-				} break;
-				case "Circle": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.pow(state.order);
-
-						// Trap our orbits
-						if(state.orbitTraps.equals("Cross")) {
-							if(past.r*past.r < distance[it % distance.length]) distance[it % distance.length] = past.r*past.r;
-							if(past.i*past.i < distance[it % distance.length]) distance[it % distance.length] = past.i*past.i;
-						} else {
-							if(past.modulusSquared() < distance[it % distance.length]) distance[it % distance.length] = past.modulusSquared();
-						}
-					}
+			Arrays.fill(distance, Double.MAX_VALUE);
 
-					int pointer = state.regionSplits.equals("Iterations") ? (past.i > 0 ? 1 : 0) + (past.r > 0 ? 2 : 0) : (state.iterations - 1) % distance.length;
-					if(distance[pointer] < 1) results[i] = Math.sqrt(distance[pointer]) * state.iterations;
-				} break;
-				default:
-					throw new UnsupportedOperationException(state.fractal + " isn't implemented");
+			kernel.r = pastR;
+			kernel.i = pastI;
+			for(int it = 1; it < state.iterations; it++) {
+				kernel.step(baseR, baseI);
+
+				// Trap our orbits
+				int d = it % distance.length;
+				if(cross) {
+					if(kernel.r*kernel.r < distance[d]) distance[d] = kernel.r*kernel.r;
+					if(kernel.i*kernel.i < distance[d]) distance[d] = kernel.i*kernel.i;
+				} else {
+					double modulus = kernel.r*kernel.r + kernel.i*kernel.i;
+					if(modulus < distance[d]) distance[d] = modulus;
+				}
 			}
+
+			int pointer = iterations ? (kernel.i > 0 ? 1 : 0) + (kernel.r > 0 ? 2 : 0) : (state.iterations - 1) % distance.length;
+			if(distance[pointer] < 1) results[i] = Math.sqrt(distance[pointer]) * state.iterations;
 		}
 	}
 
-	public void runSmooth() {
-		// Save a little time later
-		double threshold = state.threshold * state.threshold;
-
-		for(int i = 0; i < size.width * size.height; i++) {
-			int x = i % size.width;
-			int y = i / size.width;
-
-			// We need a base complex and a past complex for each iteration
-			Complex past = new Complex(state.start + (state.end - state.start) * x / size.width, state.top - (state.top - state.bottom) * y / size.height);
-			Complex base = state.seed != null ? state.seed : past;
-
-			// Inverse the base value, for pretty images
-			if(state.inverse) {base = base.inverse(); past = past.inverse();}
-
-			// For smoothness
-			Complex current;
-
-			results[i] = -1;
-
-			switch(state.fractal) {
-				case "Mandlebrot": {
-					for(int it = 1; it < state.iterations; it++) {
-						current = past.pow(state.order).add(base);
-
-						if(current.modulusSquared() > threshold) {
-							double k = Math.max((threshold - past.modulusSquared()) / Math.abs((past.modulusSquared() - current.modulusSquared())), 0);
-							results[i] = it + k - 1;
-							break;
-						}
-
-						past = current;
-					}
-				} break;
-				case "Burning Ship": {
-					for(int it = 1; it < state.iterations; it++) {
-						current = new Complex(Math.abs(past.r), Math.abs(past.i)).pow(state.order).add(base);
-
-						if(current.modulusSquared() > threshold) {
-							double k = Math.max((threshold - past.modulusSquared()) / Math.abs((past.modulusSquared() - current.modulusSquared())), 0);
-							results[i] = it + k - 1;
-							break;
-						}
-
-						past = current;
-					}
-				} break;
-				case "Tricorn": {
-					for(int it = 1; it < state.iterations; it++) {
-						current = new Complex(past.r, past.i * -1).pow(state.order).add(base);
-
-						if(current.modulusSquared() > threshold) {
-							double k = Math.max((threshold - past.modulusSquared()) / Math.abs((past.modulusSquared() - current.modulusSquared())), 0);
-							results[i] = it + k - 1;
-							break;
-						}
-
-						past = current;
-					}
-				} break;
-				case "Nova": {
-					for(int it = 1; it < state.iterations; it++) {
-						current = past.subtract(new Complex(1, 0).multiply(past.pow(state.order).subtract(new Complex(1, 0))).divide(new Complex(state.order, 0).multiply(past.pow(state.order - 1)))).add(base);
-
-						if(current.modulusSquared() > threshold) {
-							double k = Math.max((threshold - past.modulusSquared()) / Math.abs((past.modulusSquared() - current.modulusSquared())), 0);
-							results[i] = it + k - 1;
-							break;
-						}
-
-						past = current;
-					}
-				} break;
-				case "Circle": {
-					for(int it = 1; it < state.iterations; it++) {
-						current = past.pow(state.order);
-
-						if(current.modulusSquared() > threshold) {
-							double k = Math.max((threshold - past.modulusSquared()) / Math.abs((past.modulusSquared() - current.modulusSquared())), 0);
-							results[i] = it + k - 1;
-							break;
-						}
-
-						past = current;
-					}
-				} break;
-				default:
-					throw new UnsupportedOperationException(state.fractal + " isn't implemented");
-			}
+	public void runEscape(Rectangle tile) {
+		if(state.subdivide) {
+			subdivide(tile.x, tile.y, tile.width, tile.height);
+			return;
+		}
+		
+		for(int y = tile.y; y < tile.y + tile.height; y++) for(int x = tile.x; x < tile.x + tile.width; x++) {
+			if(job.isCancelled()) return;
+			escape(x, y);
 		}
 	}
-
-	public void runInteger() {
-		// Save a little time later
-		double threshold = state.threshold * state.threshold;
-
-		for(int i = 0; i < size.width * size.height; i++) {
-			int x = i % size.width;
-			int y = i / size.width;
-
-			// We need a base complex and a past complex for each iteration
-			Complex past = new Complex(state.start + (state.end - state.start) * x / size.width, state.top - (state.top - state.bottom) * y / size.height);
-			Complex base = state.seed != null ? state.seed : past;
-
-			// Inverse the base value, for pretty images
-			if(state.inverse) {base = base.inverse(); past = past.inverse();}
-
-			results[i] = -1;
-
-			switch(state.fractal) {
-				case "Mandlebrot": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.pow(state.order).add(base);
-
-						if(past.modulusSquared() > threshold) {
-							results[i] = it - 1;
-							break;
-						}
-					}
-				} break;
-				case "Burning Ship": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.abs().pow(state.order).add(base);
-
-						if(past.modulusSquared() > threshold) {
-							results[i] = it - 1;
-							break;
-						}
-					}
-				} break;
-				case "Tricorn": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = new Complex(past.r, past.i * -1).pow(state.order).add(base);
-
-						if(past.modulusSquared() > threshold) {
-							results[i] = it - 1;
-							break;
-						}
-					}
-				} break;
-				case "Nova": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.subtract(new Complex(1, 0).multiply(past.pow(state.order).subtract(new Complex(1, 0))).divide(new Complex(state.order, 0).multiply(past.pow(state.order - 1)))).add(base);
-
-						if(past.modulusSquared() > threshold) {
-							results[i] = it - 1;
-							break;
-						}
-					}
-				} break;
-				case "Circle": {
-					for(int it = 1; it < state.iterations; it++) {
-						past = past.pow(state.order);
-
-						if(past.modulusSquared() > threshold) {
-							results[i] = it - 1;
-							break;
-						}
-					}
-				} break;
-				default:
-					throw new UnsupportedOperationException(state.fractal + " isn't implemented");
+	
+	/**
+	 * Mariani-Silver subdivision. The edge of the tile is calculated, then split.
+	 * @param x The left of the tile
+	 * @param y The top of the tile
+	 * @param width The width of the tile
+	 * @param height The height of the tile
+	 */
+	protected void subdivide(int x, int y, int width, int height) {
+		for(int i = x; i < x + width; i++) {
+			escape(i, y);
+			escape(i, y + height - 1);
+		}
+		for(int j = y + 1; j < y + height - 1; j++) {
+			escape(x, j);
+			escape(x + width - 1, j);
+		}
+		split(x, y, width, height);
+	}
+	
+	/**
+	 * If every pixel on the edge of a rectangle has the same result, the inside is filled with it
+	 * without being calculated. Otherwise a cross through the middle is calculated, and the four
+	 * rectangles it makes, which share their edges with it and this one, are checked the same way.
+	 * Rectangles around the origin are only filled with points that never escape, see
+	 * aroundOrigin. It's lossy, a filament thinner than a pixel can pass between two pixels of an
+	 * edge and be filled over.
+	 * @param x The left of the rectangle, whose edge is already calculated
+	 * @param y The top of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 */
+	protected void split(int x, int y, int width, int height) {
+		if(job.isCancelled() || width <= 2 || height <= 2) return;
+		
+		double  value = results[y * size.width + x];
+		boolean same  = true;
+		for(int i = x; i < x + width && same; i++) {
+			same = results[y * size.width + i] == value && results[(y + height - 1) * size.width + i] == value;
+		}
+		for(int j = y + 1; j < y + height - 1 && same; j++) {
+			same = results[j * size.width + x] == value && results[j * size.width + x + width - 1] == value;
+		}
+		
+		if(same && ((value < 0 && !state.inverse) || !aroundOrigin(x, y, width, height))) {
+			for(int j = y + 1; j < y + height - 1; j++) {
+				Arrays.fill(results, j * size.width + x + 1, j * size.width + x + width - 1, value);
 			}
+			return;
+		}
+		
+		// Not worth splitting tiny rectangles, the cross would be most of the pixels
+		if(width <= 6 || height <= 6) {
+			for(int j = y + 1; j < y + height - 1; j++) for(int i = x + 1; i < x + width - 1; i++) escape(i, j);
+			return;
 		}
+		
+		int midX = x + width / 2, midY = y + height / 2;
+		for(int j = y + 1; j < y + height - 1; j++) escape(midX, j);
+		for(int i = x + 1; i < x + width - 1; i++) if(i != midX) escape(i, midY);
+		
+		split(x,    y,    midX - x + 1,         midY - y + 1);
+		split(midX, y,    x + width - midX,     midY - y + 1);
+		split(x,    midY, midX - x + 1,         y + height - midY);
+		split(midX, midY, x + width - midX,     y + height - midY);
+	}
+	
+	/**
+	 * Check if a rectangle has the origin inside it. Bands of equal iterations are nested around
+	 * the set, so an edge that's all in one band can still go round every band inside it. It
+	 * can only do that if it goes round the whole set, and so round the origin, which is in it.
+	 * The set itself has no holes, so an edge that never escapes is safe to fill anywhere, unless
+	 * the view is inverted, which turns the set inside out.
+	 * @param x The left of the rectangle
+	 * @param y The top of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @return True if the origin is inside, or on the edge
+	 */
+	protected boolean aroundOrigin(int x, int y, int width, int height) {
+		double r0 = centerR + state.offsetR(x, size.width),  r1 = centerR + state.offsetR(x + width  - 1, size.width);
+		double i0 = centerI + state.offsetI(y, size.height), i1 = centerI + state.offsetI(y + height - 1, size.height);
+		return r0 * r1 <= 0 && i0 * i1 <= 0;
+	}
+	
+	/**
+	 * Calculate the escape time of a pixel, unless it's already known from a coarser pass
+	 * @param x The x coordinate of the pixel
+	 * @param y The y coordinate of the pixel
+	 * @return The result of the pixel
+	 */
+	protected double escape(int x, int y) {
+		int i = y * size.width + x;
+		if(refining && (x & 1) == 0 && (y & 1) == 0) return results[i];
+		
+		if(deep != null) return results[i] = escapeDeep(x, y);
+		
+		point(x, y);
+		
+		// Smooth and integer results are both handled by the kernel
+		if(floats) return results[i] = kernel.escapeFloat((float) pastR, (float) pastI, (float) baseR, (float) baseI);
+		return results[i] = kernel.escape(pastR, pastI, baseR, baseI);
+	}
+	
+	/**
+	 * Calculate the escape time of a pixel in double-double
+	 * @param x The x coordinate of the pixel
+	 * @param y The y coordinate of the pixel
+	 * @return The result of the pixel
+	 */
+	protected double escapeDeep(int x, int y) {
+		// The offset is tiny compared to the centre, so as a double it's plenty precise
+		deep.add(deepR[0], deepR[1], state.offsetR(x, size.width), 0);
+		double rh = deep.hi, rl = deep.lo;
+		deep.add(deepI[0], deepI[1], state.offsetI(y, size.height), 0);
+		double ih = deep.hi, il = deep.lo;
+		
+		if(state.seed != null) return deep.escape(rh, rl, ih, il, state.seed.r, 0, state.seed.i, 0);
+		return deep.escape(rh, rl, ih, il, rh, rl, ih, il);
 	}
 }
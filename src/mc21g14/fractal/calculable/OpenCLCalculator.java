@@ -22,6 +22,11 @@ public class OpenCLCalculator extends Calculable {
 	protected cl_program	   program;
 	protected cl_kernel		kernel;
 	
+	// The same program built with floats for shallow views, and the double-double kernel
+	protected cl_program       floatProgram;
+	protected cl_kernel        floatKernel;
+	protected cl_kernel        deepKernel;
+	
 	public OpenCLCalculator() throws IOException {
 		// Enable exceptions and subsequently omit error checks in this sample
 		CL.setExceptionsEnabled(true);
@@ -65,10 +70,26 @@ public class OpenCLCalculator extends Calculable {
 			lines = (String[]) Files.readAllLines(Paths.get("calc.cl"), Charset.defaultCharset()).toArray();
 		}
 
-		// Create the kernel
-		program = clCreateProgramWithSource(context, 1, lines, null, null);
+		// Create the kernels
+		program      = clCreateProgramWithSource(context, 1, lines, null, null);
 		clBuildProgram(program, 0, null, null, null, null);
-		kernel  = clCreateKernel(program, "fractalKernel", null);
+		kernel       = clCreateKernel(program, "fractalKernel", null);
+		deepKernel   = clCreateKernel(program, "deepKernel", null);
+		
+		floatProgram = clCreateProgramWithSource(context, 1, lines, null, null);
+		clBuildProgram(floatProgram, 0, null, "-D REAL=float", null, null);
+		floatKernel  = clCreateKernel(floatProgram, "fractalKernel", null);
+	}
+	
+	@Override
+	protected String precisionOf(FractalState state, Dimension size) {
+		return Precision.of(state, size);
+	}
+	
+	@Override
+	protected boolean fastFloats() {
+		// Most GPUs are many times quicker at floats than doubles
+		return floatKernel != null;
 	}
 	
 	@Override
@@ -77,9 +98,13 @@ public class OpenCLCalculator extends Calculable {
 	}
 	
 	@Override
-	protected double[] calculate(FractalState state, Dimension size) {
+	protected synchronized double[] calculate(FractalState state, Dimension size) {
+		// Synchronized, as every call shares the same kernel and its arguments
 		if(state.fractal == null) state.fractal = getImplementedFractals()[0];
 		
+		// Orbits land on any pixel, which can't be added to safely from the GPU
+		if(state.buddha) return new BuddhaEngine(state, size).render(RenderJob.NONE, null);
+		
 		double[] results = new double[size.width * size.height];
 		
 		// Get various indexes, we can't pass strings to openCL. It only understands char[]
@@ -109,12 +134,19 @@ public class OpenCLCalculator extends Calculable {
 			}
 		}
 		
+		String precision = Precision.of(state, size);
+		if(precision.equals(Precision.DOUBLE_DOUBLE)) return calculateDeep(state, size, fractalIndex);
+		cl_kernel kernel = precision.equals(Precision.FLOAT) ? floatKernel : this.kernel;
+		
+		// Subdivision needs two passes, the edges of each block then everything else
+		boolean subdivide = state.subdivide && !state.buddha && orbitIndex == 0;
+		
 		// Allocate the memory objects for the input- and output data
 		cl_mem mem[] = new cl_mem[] {
-			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.start}), null),
-			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.end}), null),
-			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.top}), null),
-			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.bottom}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.getCenterR().doubleValue()}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.getCenterI().doubleValue()}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.getWidth()}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.getHeight()}), null),
 			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{size.width}), null),
 			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{size.height}), null),
 			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{state.iterations}), null),
@@ -128,15 +160,29 @@ public class OpenCLCalculator extends Calculable {
 			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{state.buddha ? 1 : 0}), null),
 			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{orbitIndex}), null),
 			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{regionIndex}), null),
-			clCreateBuffer(context, CL_MEM_WRITE_ONLY, Sizeof.cl_double * size.width * size.height, null, null)
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.periodicity}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{subdivide ? 1 : 0}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{0}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{1}), null),
+			// Read and write, as the second pass reads the edges written by the first
+			clCreateBuffer(context, CL_MEM_READ_WRITE, Sizeof.cl_double * size.width * size.height, null, null)
 		};
 		
-		// Set the arguments for the kernel
-		for(int i = 0; i < mem.length; i++) clSetKernelArg(kernel, i, Sizeof.cl_mem, Pointer.to(mem[i]));
+		// Set the arguments for the kernel, the buffer for the second pass is skipped
+		int pass = mem.length - 3;
+		for(int i = 0, arg = 0; i < mem.length; i++) {
+			if(i != pass + 1) clSetKernelArg(kernel, arg++, Sizeof.cl_mem, Pointer.to(mem[i]));
+		}
 		
 		// Execute the kernel
 		clEnqueueNDRangeKernel(queue, kernel, 1, null, new long[] {size.width * size.height}, null, 0, null, null);
 		
+		// The queue is in order, so the second pass sees everything the first wrote
+		if(subdivide) {
+			clSetKernelArg(kernel, pass, Sizeof.cl_mem, Pointer.to(mem[pass + 1]));
+			clEnqueueNDRangeKernel(queue, kernel, 1, null, new long[] {size.width * size.height}, null, 0, null, null);
+		}
+		
 		// Read the output data
 		clEnqueueReadBuffer(queue, mem[mem.length - 1], CL_TRUE, 0, Sizeof.cl_double * size.width * size.height, Pointer.to(results), 0, null, null);
 		
@@ -146,11 +192,54 @@ public class OpenCLCalculator extends Calculable {
 		return results;
 	}
 	
+	/**
+	 * Calculate the fractal with the double-double kernel
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @param fractalIndex The index of the fractal
+	 * @return The results
+	 */
+	protected double[] calculateDeep(FractalState state, Dimension size, int fractalIndex) {
+		double[] results = new double[size.width * size.height];
+		double[] centerR = DoubleDoubleKernel.split(state.getCenterR());
+		double[] centerI = DoubleDoubleKernel.split(state.getCenterI());
+		
+		cl_mem mem[] = new cl_mem[] {
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{centerR[0]}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{centerR[1]}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{centerI[0]}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{centerI[1]}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.getWidth()}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.getHeight()}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{size.width}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{size.height}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{state.iterations}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.threshold}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{state.smooth ? 1 : 0}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.seed != null ? state.seed.r : Double.MAX_VALUE}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_double, Pointer.to(new double[]{state.seed != null ? state.seed.i : Double.MAX_VALUE}), null),
+			clCreateBuffer(context, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, Sizeof.cl_int,	Pointer.to(new int[]{fractalIndex}), null),
+			clCreateBuffer(context, CL_MEM_WRITE_ONLY, Sizeof.cl_double * size.width * size.height, null, null)
+		};
+		
+		for(int i = 0; i < mem.length; i++) clSetKernelArg(deepKernel, i, Sizeof.cl_mem, Pointer.to(mem[i]));
+		
+		clEnqueueNDRangeKernel(queue, deepKernel, 1, null, new long[] {size.width * size.height}, null, 0, null, null);
+		clEnqueueReadBuffer(queue, mem[mem.length - 1], CL_TRUE, 0, Sizeof.cl_double * size.width * size.height, Pointer.to(results), 0, null, null);
+		
+		for(cl_mem m : mem) clReleaseMemObject(m);
+		
+		return results;
+	}
+	
 	protected void finalize() throws Throwable {
 		// OpenCL requires a cleanup after it runs
 		clReleaseCommandQueue(queue);
 		clReleaseContext(context);
 		clReleaseKernel(kernel);
+		clReleaseKernel(floatKernel);
+		clReleaseKernel(deepKernel);
 		clReleaseProgram(program);
+		clReleaseProgram(floatProgram);
 	}
 }
@@ -0,0 +1,67 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Deep zoom calculation backend. A single reference orbit is calculated in high precision, and
+ * every pixel is calculated in doubles as a small difference from it. Only order 2 Mandlebrot
+ * without a seed or inverse can be perturbed, anything else is handed to JavaCalculator.
+ *
+ * @author Matthew Consterdine
+ */
+public class PerturbationCalculator extends Calculable {
+	protected final JavaCalculator fallback = new JavaCalculator();
+
+	@Override
+	public String[] getImplementedFractals() {
+		return fallback.getImplementedFractals();
+	}
+
+	/**
+	 * Check if a state can be perturbed
+	 * @param state The fractal state
+	 * @return True if it can be
+	 */
+	public static boolean supports(FractalState state) {
+		return "Mandlebrot".equals(state.fractal) && state.order == 2 && state.seed == null &&
+			!state.inverse && !state.buddha && state.orbitTraps.equals("None");
+	}
+
+	@Override
+	protected String precisionOf(FractalState state, Dimension size) {
+		return supports(state) ? "Perturbation" : fallback.precisionOf(state, size);
+	}
+
+	@Override
+	protected double[] calculate(FractalState state, Dimension size) {
+		return calculate(state, size, RenderJob.NONE);
+	}
+
+	@Override
+	protected double[] calculate(FractalState state, Dimension size, RenderJob job) {
+		if(state.fractal == null) state.fractal = getImplementedFractals()[0];
+		if(!supports(state)) return fallback.calculate(state, size, job);
+
+		double[] results = new double[size.width * size.height];
+
+		// The reference point is the centre, we need a few more digits than the pixels are apart
+		double spacing   = Math.abs(state.getWidth()) / size.width;
+		int    precision = Math.max(30, 20 + (int) Math.ceil(-Math.log10(spacing)));
+		double threshold = state.threshold * state.threshold;
+
+		final ReferenceOrbit orbit = new ReferenceOrbit(state.getCenterR(), state.getCenterI(), state.iterations, threshold, precision);
+		orbit.approximate(Math.hypot(state.getWidth(), state.getHeight()) / 2, threshold);
+
+		// Tiled on JavaCalculator's pool, so slow tiles are split the same way
+		JavaCalculator.invoke(new JavaCalculator.Runnables(state, size, results, false, job) {
+			@Override
+			protected TileRunnable create() {
+				return new PerturbationRunnable(state, size, results, job, orbit);
+			}
+		});
+
+		return results;
+	}
+}
@@ -0,0 +1,114 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+
+import mc21g14.fractal.misc.FractalState;
+
+class PerturbationRunnable implements TileRunnable {
+	protected FractalState state;
+	protected Dimension size;
+
+	protected double[] results;
+
+	// Checked every pixel, so a cancelled job stops almost immediately
+	protected RenderJob job;
+
+	protected ReferenceOrbit orbit;
+
+	// Only used for escaped(), so smooth values match the other calculators
+	protected JavaKernel kernel;
+
+	// Distance between pixels, and from the reference point to pixel (0, 0)
+	protected double stepR, stepI;
+	protected double offsetR, offsetI;
+
+	public PerturbationRunnable(FractalState state, Dimension size, double[] results, RenderJob job, ReferenceOrbit orbit) {
+		this.state   = state;
+		this.size    = size;
+		this.results = results;
+		this.job     = job;
+		this.orbit   = orbit;
+		this.kernel  = new JavaKernel(state);
+
+		// The reference is the centre of the view
+		this.stepR   = state.getWidth()  / size.width;
+		this.stepI   = state.getHeight() / size.height;
+		this.offsetR = state.offsetR(0, size.width);
+		this.offsetI = state.offsetI(0, size.height);
+	}
+
+	@Override
+	public void calculate(Rectangle tile) {
+		for(int y = tile.y; y < tile.y + tile.height; y++) for(int x = tile.x; x < tile.x + tile.width; x++) {
+			if(job.isCancelled()) return;
+			results[y * size.width + x] = escape(offsetR + stepR * x, offsetI + stepI * y);
+		}
+	}
+
+	/**
+	 * Iterate a pixel as a difference from the reference orbit. If x is the reference and x + e
+	 * the pixel, then e' = 2xe + e^2 + d, where d is the distance between their starting points.
+	 * @param dr Real part of the distance from the reference point
+	 * @param di Imaginary part of the distance from the reference point
+	 * @return Iterations taken, fractional if smoothing. -1 if the point never escaped
+	 */
+	public double escape(double dr, double di) {
+		final double[] orbitR = orbit.r, orbitI = orbit.i;
+		final double   threshold = kernel.threshold;
+
+		// Skip the first iterations with the series approximation
+		double d2r = dr*dr - di*di,   d2i = 2*dr*di;
+		double d3r = d2r*dr - d2i*di, d3i = d2r*di + d2i*dr;
+		double er  = orbit.ar*dr - orbit.ai*di + orbit.br*d2r - orbit.bi*d2i + orbit.cr*d3r - orbit.ci*d3i;
+		double ei  = orbit.ar*di + orbit.ai*dr + orbit.br*d2i + orbit.bi*d2r + orbit.cr*d3i + orbit.ci*d3r;
+
+		int    m    = orbit.skip;
+		double zr   = orbitR[m] + er, zi = orbitI[m] + ei;
+		double past = zr*zr + zi*zi;
+
+		// Pixels far from the reference can escape during the skipped iterations, start them again
+		if(past > threshold) {
+			m    = 1;
+			er   = dr;                 ei = di;
+			zr   = orbitR[1] + dr;     zi = orbitI[1] + di;
+			past = zr*zr + zi*zi;
+		}
+
+		for(int it = m; it < state.iterations; it++) {
+			// At the end of the reference there's nothing to step along, rebase first. A reference
+			// that escaped straight away ends before the skipped iterations do.
+			if(m >= orbit.length - 1) {
+				er = zr;
+				ei = zi;
+				m  = 0;
+			}
+
+			double xr = orbitR[m], xi = orbitI[m];
+
+			double nr = 2 * (xr*er - xi*ei) + er*er - ei*ei + dr;
+			double ni = 2 * (xr*ei + xi*er) + 2*er*ei       + di;
+			er = nr;
+			ei = ni;
+			m++;
+
+			zr = orbitR[m] + er;
+			zi = orbitI[m] + ei;
+
+			double modulus = zr*zr + zi*zi;
+			if(modulus > threshold) return kernel.escaped(it, past, modulus);
+			past = modulus;
+
+			// Glitches happen when the pixel gets closer to zero than to the reference, as the
+			// difference then loses precision. Rebasing restarts the reference from zero with the
+			// whole pixel as the difference, which also lets us carry on past the reference's end.
+			if(modulus < er*er + ei*ei) {
+				er = zr;
+				ei = zi;
+				m  = 0;
+			}
+		}
+
+		return -1;
+	}
+}
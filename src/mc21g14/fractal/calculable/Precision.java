@@ -0,0 +1,89 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * The number types a fractal can be calculated with. Floats are the fastest but can only tell
+ * pixels apart on shallow views, double-doubles are two doubles added together, which is slower
+ * but goes far deeper than doubles. Only order 2 escape time fractals have the float and
+ * double-double paths, everything else is always calculated with doubles.
+ *
+ * @author Matthew Consterdine
+ */
+public class Precision {
+	public static final String AUTO          = "Auto";
+	public static final String FLOAT         = "Float";
+	public static final String DOUBLE        = "Double";
+	public static final String DOUBLE_DOUBLE = "Double-Double";
+
+	// Pixel spacings, relative to the size of the coordinates, below which a type is too coarse.
+	// Floats have 24 bits and doubles 53, this leaves room for rounding errors to build up over
+	// the iterations, which floats are far worse at.
+	protected static final double floatSpacing  = 1e-3;
+	protected static final double doubleSpacing = 1e-13;
+
+	/**
+	 * @return Every precision that can be picked
+	 */
+	public static String[] getOptions() {
+		return new String[] {AUTO, FLOAT, DOUBLE, DOUBLE_DOUBLE};
+	}
+
+	/**
+	 * Pick the precision of a state, working it out from the pixel spacing if it's automatic.
+	 * Floats are only picked automatically by calculators where they're much quicker.
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @return Float, Double or Double-Double
+	 */
+	public static String choose(FractalState state, Dimension size) {
+		if(!AUTO.equals(state.precision) && state.precision != null) return state.precision;
+
+		if(spacing(state, size) > floatSpacing && Calculable.getInstance().fastFloats()) return FLOAT;
+		if(spacing(state, size) > doubleSpacing) return DOUBLE;
+		return DOUBLE_DOUBLE;
+	}
+
+	/**
+	 * Check if floats can tell the pixels of a state apart, whether or not they'd be picked
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @return True if they can
+	 */
+	public static boolean floatsEnough(FractalState state, Dimension size) {
+		return spacing(state, size) > floatSpacing;
+	}
+
+	/**
+	 * @return The pixel spacing, relative to the size of the coordinates
+	 */
+	protected static double spacing(FractalState state, Dimension size) {
+		double spacing = Math.min(Math.abs(state.getWidth()) / size.width, Math.abs(state.getHeight()) / size.height);
+		double scale   = Math.max(1, Math.max(Math.abs(state.getCenterR().doubleValue()), Math.abs(state.getCenterI().doubleValue())));
+		return spacing / scale;
+	}
+
+	/**
+	 * Check if a state has float and double-double paths, escape time order 2 Mandlebrot,
+	 * Burning Ship and Tricorn without inverse
+	 * @param state The fractal state
+	 * @return True if it does
+	 */
+	public static boolean supports(FractalState state) {
+		return state.order == 2 && !state.inverse && !state.buddha && "None".equals(state.orbitTraps) && (
+			"Mandlebrot".equals(state.fractal) || "Burning Ship".equals(state.fractal) || "Tricorn".equals(state.fractal)
+		);
+	}
+
+	/**
+	 * Get the precision a state will actually be calculated with
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @return Float, Double or Double-Double
+	 */
+	public static String of(FractalState state, Dimension size) {
+		return supports(state) ? choose(state, size) : DOUBLE;
+	}
+}
@@ -0,0 +1,101 @@
+package mc21g14.fractal.calculable;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * A single high precision orbit of order 2 Mandlebrot, which every pixel of a deep zoom is
+ * calculated relative to. The orbit is worked out with BigDecimal, then stored as doubles, as
+ * only the difference between a pixel and the reference needs the full precision.
+ *
+ * The orbit starts at zero, so x(0) = 0, x(1) = c, x(n + 1) = x(n)^2 + c.
+ *
+ * @author Matthew Consterdine
+ */
+class ReferenceOrbit {
+	// The relative size of the cubic term at which the series approximation is no longer trusted
+	protected static final double seriesTolerance = 1e-9;
+
+	// The orbit, index n is x(n). Ends after the first point outside the threshold
+	protected final double[] r;
+	protected final double[] i;
+	protected final int      length;
+
+	// Series approximation, x(skip) of a pixel c + d is x(skip) + a*d + b*d^2 + c*d^3
+	protected int    skip = 1;
+	protected double ar = 1, ai = 0;
+	protected double br = 0, bi = 0;
+	protected double cr = 0, ci = 0;
+
+	/**
+	 * Calculate a reference orbit
+	 * @param centerR Real part of the reference point
+	 * @param centerI Imaginary part of the reference point
+	 * @param iterations The maximum number of iterations
+	 * @param threshold The square of the escape threshold
+	 * @param precision Number of significant digits to use
+	 */
+	public ReferenceOrbit(BigDecimal centerR, BigDecimal centerI, int iterations, double threshold, int precision) {
+		MathContext context = new MathContext(precision);
+		BigDecimal  two     = BigDecimal.valueOf(2);
+
+		r = new double[iterations + 1];
+		i = new double[iterations + 1];
+
+		BigDecimal zr = BigDecimal.ZERO;
+		BigDecimal zi = BigDecimal.ZERO;
+
+		int n = 0;
+		while(true) {
+			r[n] = zr.doubleValue();
+			i[n] = zi.doubleValue();
+			if(n == iterations || r[n]*r[n] + i[n]*i[n] > threshold) break;
+
+			BigDecimal nr = zr.multiply(zr, context).subtract(zi.multiply(zi, context), context).add(centerR, context);
+			BigDecimal ni = two.multiply(zr, context).multiply(zi, context).add(centerI, context);
+			zr = nr;
+			zi = ni;
+			n++;
+		}
+
+		length = n + 1;
+	}
+
+	/**
+	 * Work out how many iterations can be skipped by every pixel, using the series approximation.
+	 * The coefficients follow the same recurrence as the orbit:
+	 * a' = 2xa + 1, b' = 2xb + a^2, c' = 2xc + 2ab
+	 * @param radius The largest distance between a pixel and the reference point
+	 * @param threshold The square of the escape threshold
+	 */
+	public void approximate(double radius, double threshold) {
+		double ar = 0, ai = 0, br = 0, bi = 0, cr = 0, ci = 0;
+
+		for(int n = 0; n < length - 1; n++) {
+			double xr = r[n], xi = i[n];
+
+			double nar = 2 * (xr*ar - xi*ai) + 1;
+			double nai = 2 * (xr*ai + xi*ar);
+			double nbr = 2 * (xr*br - xi*bi) + ar*ar - ai*ai;
+			double nbi = 2 * (xr*bi + xi*br) + 2*ar*ai;
+			double ncr = 2 * (xr*cr - xi*ci) + 2 * (ar*br - ai*bi);
+			double nci = 2 * (xr*ci + xi*cr) + 2 * (ar*bi + ai*br);
+
+			// Stop once the cubic term matters compared to the linear one, or the orbit is escaping
+			double linear = Math.hypot(nar, nai) * radius;
+			double cubic  = Math.hypot(ncr, nci) * radius * radius * radius;
+			if(!(cubic <= seriesTolerance * linear) || r[n + 1]*r[n + 1] + i[n + 1]*i[n + 1] > threshold / 4) break;
+
+			ar = nar; ai = nai;
+			br = nbr; bi = nbi;
+			cr = ncr; ci = nci;
+
+			if(n + 1 > 1) {
+				skip    = n + 1;
+				this.ar = ar; this.ai = ai;
+				this.br = br; this.bi = bi;
+				this.cr = cr; this.ci = ci;
+			}
+		}
+	}
+}
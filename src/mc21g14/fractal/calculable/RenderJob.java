@@ -0,0 +1,118 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A render submitted to Calculable. Jobs are cancelled cooperatively, calculators check
+ * isCancelled() as they go and give up early, and a cancelled job never starts its callback.
+ * Results of the same owner are delivered in order of generation, so an older job's result is
+ * dropped once a newer job of the owner has been submitted or delivered.
+ *
+ * @author Matthew Consterdine
+ */
+public class RenderJob implements Runnable {
+	protected static final AtomicLong generations = new AtomicLong();
+
+	// The latest generation delivered to each owner, also locked while delivering to it
+	protected static final Map<Object, Delivered> delivered = new WeakHashMap<Object, Delivered>();
+
+	// A job that is never cancelled, for calculations nobody can replace
+	public static final RenderJob NONE = new RenderJob(null);
+
+	protected final long     generation = generations.incrementAndGet();
+	protected final Object   owner;
+	protected final Runnable task;
+
+	protected volatile boolean cancelled = false;
+
+	/**
+	 * Create a new job
+	 * @param task What the job does when it is run
+	 */
+	public RenderJob(Runnable task) {
+		this(null, task);
+	}
+
+	/**
+	 * Create a new job for an owner
+	 * @param owner Whatever the job is for, or null
+	 * @param task What the job does when it is run
+	 */
+	public RenderJob(Object owner, Runnable task) {
+		this.owner = owner;
+		this.task  = task;
+	}
+
+	@Override
+	public void run() {
+		if(!cancelled) task.run();
+	}
+
+	/**
+	 * What has been delivered to an owner
+	 */
+	protected static class Delivered {
+		protected long generation = 0;
+	}
+
+	/**
+	 * Cancel the job. Once this returns, the job won't start its callback again, though one
+	 * already running is left to finish rather than waited for.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return True if the job has been cancelled, so there is no point continuing
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Call a callback, unless the job has been cancelled
+	 * @param call The callback
+	 * @param data The fractal data
+	 * @param size The size of the data
+	 * @return True if the callback was called
+	 */
+	public boolean deliver(Callback call, double[] data, Dimension size) {
+		Delivered last;
+		synchronized(delivered) {
+			last = delivered.get(owner != null ? owner : this);
+			if(last == null) delivered.put(owner != null ? owner : this, last = new Delivered());
+		}
+
+		// Deliveries to the same owner take turns, so a stale result can't land after a newer
+		// one. Cancelling doesn't wait for them, only other deliveries to the owner do.
+		synchronized(last) {
+			if(cancelled || last.generation > generation || Calculable.isSuperseded(this)) return false;
+			last.generation = generation;
+			call.callback(data, size);
+			return true;
+		}
+	}
+
+	/**
+	 * @return The generation of this job, later jobs have larger generations
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return Whatever the job is for, null if nobody said
+	 */
+	public Object getOwner() {
+		return owner;
+	}
+
+	@Override
+	public String toString() {
+		return "RenderJob " + generation + (cancelled ? " (cancelled)" : "");
+	}
+}
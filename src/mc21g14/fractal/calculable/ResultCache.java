@@ -0,0 +1,238 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Recently calculated fractals, so going back to a state, such as toggling a setting twice or
+ * returning home, is instant. Only what's needed to calculate a fractal is used to find it, so
+ * changing the coloring or inverting the image still hits. The least recently used results are
+ * dropped once they take more memory than the budget.
+ *
+ * @author Matthew Consterdine
+ */
+public class ResultCache {
+	protected static final LinkedHashMap<Key, double[]> results = new LinkedHashMap<Key, double[]>(16, 0.75f, true);
+
+	// Memory used and allowed, in bytes
+	protected static long used   = 0;
+	protected static long budget = 128L << 20;
+
+	protected static long hits   = 0;
+	protected static long misses = 0;
+
+	/**
+	 * Find a fractal calculated earlier
+	 * @param key The key of the fractal, taken before it's calculated as calculators fill in
+	 * anything missing from the state
+	 * @return The fractal data, which mustn't be changed, or null if it isn't cached
+	 */
+	protected static synchronized double[] get(Key key) {
+		double[] data = results.get(key);
+		if(data == null) misses++;
+		else hits++;
+		return data;
+	}
+
+	/**
+	 * Find a fractal calculated earlier without counting a hit or miss, for looking around
+	 * rather than about to calculate it
+	 * @param key The key of the fractal
+	 * @return The fractal data, which mustn't be changed, or null if it isn't cached
+	 */
+	protected static synchronized double[] peek(Key key) {
+		return results.get(key);
+	}
+
+	/**
+	 * Remember a fractal, dropping the least recently used ones if it doesn't fit
+	 * @param key The key of the fractal
+	 * @param data The fractal data, which mustn't be changed afterwards
+	 */
+	protected static synchronized void put(Key key, double[] data) {
+		// Bigger than the whole cache, keeping it would only throw everything else out
+		if(bytes(data) > budget) return;
+
+		double[] last = results.put(key, data);
+		if(last != null) used -= bytes(last);
+		used += bytes(data);
+		trim();
+	}
+
+	/**
+	 * Forget everything
+	 */
+	public static synchronized void clear() {
+		results.clear();
+		used = 0;
+	}
+
+	/**
+	 * @return Memory the cache may use, in megabytes
+	 */
+	public static synchronized int getBudget() {
+		return (int) (budget >> 20);
+	}
+
+	/**
+	 * Set the memory the cache may use. 0 turns it off.
+	 * @param megabytes Memory in megabytes
+	 */
+	public static synchronized void setBudget(int megabytes) {
+		if(megabytes < 0) throw new IllegalArgumentException("Cache budget can't be negative");
+		budget = (long) megabytes << 20;
+		trim();
+	}
+
+	/**
+	 * @return Number of lookups that found a fractal
+	 */
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of lookups that didn't
+	 */
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Memory used by cached fractals, in bytes
+	 */
+	public static synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * Drop the least recently used fractals until everything fits in the budget
+	 */
+	protected static void trim() {
+		Iterator<double[]> iterator = results.values().iterator();
+		while(used > budget && iterator.hasNext()) {
+			used -= bytes(iterator.next());
+			iterator.remove();
+		}
+	}
+
+	protected static long bytes(double[] data) {
+		return 8L * data.length;
+	}
+
+	/**
+	 * Everything that changes the result of a calculation: the state except its coloring and
+	 * invert, the size, and the calculator, as they don't all give exactly the same results
+	 */
+	protected static final class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+
+		protected final BigDecimal centerR, centerI;
+		protected final double     width,   height;
+		protected final int        iterations;
+		protected final double     threshold;
+		protected final boolean    smooth;
+		protected final boolean    julia;
+		protected final double     seedR,   seedI;
+		protected final String     fractal;
+		protected final int        order;
+		protected final boolean    inverse;
+		protected final boolean    buddha;
+		protected final boolean    antiBuddha;
+		protected final int        samples;
+		protected final int[]      nebula;
+		protected final String     orbitTraps;
+		protected final String     regionSplits;
+		protected final boolean    subdivide;
+		protected final double     periodicity;
+		protected final String     precision;
+		protected final Dimension  size;
+		protected final Class<?>   calculator;
+
+		public Key(FractalState state, Dimension size) {
+			// Trailing zeros change the hash code of a BigDecimal, but not its value
+			this.centerR      = state.getCenterR().stripTrailingZeros();
+			this.centerI      = state.getCenterI().stripTrailingZeros();
+			this.width        = state.getWidth();
+			this.height       = state.getHeight();
+			this.iterations   = state.iterations;
+			this.threshold    = state.threshold;
+			this.smooth       = state.smooth;
+			this.julia        = state.seed != null;
+			this.seedR        = julia ? state.seed.r : 0;
+			this.seedI        = julia ? state.seed.i : 0;
+			this.fractal      = state.fractal;
+			this.order        = state.order;
+			this.inverse      = state.inverse;
+			this.buddha       = state.buddha;
+			this.antiBuddha   = state.buddha && state.antiBuddha;
+			this.samples      = state.buddha ? BuddhaEngine.samplesOf(state) : 0;
+			this.nebula       = state.buddha && state.nebula != null ? state.nebula.clone() : null;
+			this.orbitTraps   = state.orbitTraps;
+			this.regionSplits = state.regionSplits;
+			this.subdivide    = state.subdivide;
+			this.periodicity  = state.periodicity;
+			this.precision    = state.precision;
+			this.size         = new Dimension(size);
+			// Every calculator hands Buddha to the same engine
+			this.calculator   = state.buddha ? BuddhaEngine.class : Calculable.getInstance().getClass();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Key)) return false;
+			Key that = (Key) other;
+
+			return this.centerR.equals(that.centerR)           &&
+			       this.centerI.equals(that.centerI)           &&
+			       this.width        == that.width             &&
+			       this.height       == that.height            &&
+			       this.iterations   == that.iterations        &&
+			       this.threshold    == that.threshold         &&
+			       this.smooth       == that.smooth            &&
+			       this.julia        == that.julia             &&
+			       this.seedR        == that.seedR             &&
+			       this.seedI        == that.seedI             &&
+			       equal(this.fractal,      that.fractal)      &&
+			       this.order        == that.order             &&
+			       this.inverse      == that.inverse           &&
+			       this.buddha       == that.buddha            &&
+			       this.antiBuddha   == that.antiBuddha        &&
+			       this.samples      == that.samples           &&
+			       Arrays.equals(this.nebula, that.nebula)     &&
+			       equal(this.orbitTraps,   that.orbitTraps)   &&
+			       equal(this.regionSplits, that.regionSplits) &&
+			       this.subdivide    == that.subdivide         &&
+			       this.periodicity  == that.periodicity       &&
+			       equal(this.precision,    that.precision)    &&
+			       this.size.equals(that.size)                 &&
+			       this.calculator   == that.calculator;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = centerR.hashCode();
+			hash = 31 * hash + centerI.hashCode();
+			hash = 31 * hash + Double.valueOf(width).hashCode();
+			hash = 31 * hash + Double.valueOf(height).hashCode();
+			hash = 31 * hash + iterations;
+			hash = 31 * hash + Double.valueOf(seedR).hashCode();
+			hash = 31 * hash + Double.valueOf(seedI).hashCode();
+			hash = 31 * hash + (fractal == null ? 0 : fractal.hashCode());
+			hash = 31 * hash + order;
+			hash = 31 * hash + size.hashCode();
+			return hash;
+		}
+
+		protected static boolean equal(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
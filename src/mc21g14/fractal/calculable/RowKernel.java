@@ -0,0 +1,24 @@
+package mc21g14.fractal.calculable;
+
+/**
+ * A kernel that calculates a run of pixels on a row at once, so they can share vector lanes.
+ * Implementations take the state and size in a public constructor.
+ *
+ * @author Matthew Consterdine
+ */
+interface RowKernel {
+	/**
+	 * Calculate the escape time of a run of pixels on one row
+	 * @param results Where to store the results
+	 * @param offset Index in results of the first pixel
+	 * @param x The x coordinate of the first pixel
+	 * @param y The y coordinate of the row
+	 * @param count Number of pixels
+	 */
+	public void escape(double[] results, int offset, int x, int y, int count);
+
+	/**
+	 * @return Number of pixels calculated at once
+	 */
+	public int lanes();
+}
@@ -0,0 +1,103 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.lang.reflect.Constructor;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * SIMD calculation backend. Pixels are iterated a vector at a time with the Vector API, which
+ * needs Java 16 or newer started with --add-modules jdk.incubator.vector. The vector kernels are
+ * compiled separately from src-vector and loaded by name, so on any other JVM, or for anything
+ * the kernels can't calculate, this is exactly JavaCalculator. Float lanes fit twice as many
+ * pixels, but lanes that escape early sit idle for longer, so they're only about as quick as
+ * double lanes and Auto never picks them. They're used when Float is picked by hand.
+ *
+ * @author Matthew Consterdine
+ */
+public class SimdCalculator extends JavaCalculator {
+	// Create the vector kernels, null if this JVM can't load them
+	protected static final Constructor<? extends RowKernel> kernel      = load("mc21g14.fractal.calculable.VectorRowKernel");
+	protected static final Constructor<? extends RowKernel> floatKernel = kernel == null ? null : load("mc21g14.fractal.calculable.VectorFloatKernel");
+
+	// Float lanes count iterations in floats, which are only exact up to 2^24
+	protected static final int floatIterations = 1 << 24;
+
+	/**
+	 * Load a vector kernel, and check it runs
+	 * @param name The name of its class
+	 * @return Its constructor, or null if it can't be used
+	 */
+	protected static Constructor<? extends RowKernel> load(String name) {
+		try {
+			Constructor<? extends RowKernel> constructor = Class.forName(name)
+				.asSubclass(RowKernel.class).getConstructor(FractalState.class, Dimension.class);
+			constructor.newInstance(new FractalState(), new Dimension(1, 1));
+			return constructor;
+		} catch (Exception | LinkageError e) {
+			// A missing module is a NoClassDefFoundError, an older JVM an UnsupportedClassVersionError
+			System.err.println("Vector API unavaliable, SIMD falls back to the scalar CPU implementation");
+			return null;
+		}
+	}
+
+	/**
+	 * @return True if the vector kernel can be used on this JVM
+	 */
+	public static boolean isAvailable() {
+		return kernel != null;
+	}
+
+	/**
+	 * Check if a state can be calculated with vectors. Subdivision works a pixel at a time and
+	 * double-doubles don't fit in a lane, so those use the scalar path.
+	 * @param state The fractal state
+	 * @param size The size of the fractal
+	 * @return True if it can be
+	 */
+	public static boolean supports(FractalState state, Dimension size) {
+		if(kernel == null || !Precision.supports(state) || state.subdivide) return false;
+
+		String precision = Precision.choose(state, size);
+		if(precision.equals(Precision.FLOAT)) return floatKernel != null && state.iterations <= floatIterations;
+		return !precision.equals(Precision.DOUBLE_DOUBLE);
+	}
+
+	@Override
+	protected String precisionOf(FractalState state, Dimension size) {
+		if(!supports(state, size)) return super.precisionOf(state, size);
+		return Precision.choose(state, size) + " x" + create(state, size).lanes();
+	}
+
+
+	@Override
+	protected double[] calculate(FractalState state, Dimension size, double[] results, boolean refining, RenderJob job) {
+		if(state.fractal == null) state.fractal = getImplementedFractals()[0];
+		if(!supports(state, size)) return super.calculate(state, size, results, refining, job);
+
+		// Every pixel is calculated even when refining, skipping lanes wouldn't make it any faster
+		invoke(new Runnables(state, size, results, refining, job) {
+			@Override
+			protected TileRunnable create() {
+				return new SimdRunnable(size, results, job, SimdCalculator.create(state, size));
+			}
+		});
+
+		return results;
+	}
+
+	/**
+	 * Create a vector kernel, in floats if the state is calculated with them
+	 * @param state The fractal state we want to render
+	 * @param size The size of the fractal we want to render
+	 * @return The kernel
+	 */
+	protected static RowKernel create(FractalState state, Dimension size) {
+		try {
+			if(Precision.choose(state, size).equals(Precision.FLOAT)) return floatKernel.newInstance(state, size);
+			return kernel.newInstance(state, size);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Couldn't create the vector kernel", e);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+
+class SimdRunnable implements TileRunnable {
+	protected Dimension size;
+
+	protected double[] results;
+
+	// Checked every row, so a cancelled job stops almost immediately
+	protected RenderJob job;
+
+	// Each thread has its own kernel, as kernels keep their vectors in fields
+	protected RowKernel kernel;
+
+	public SimdRunnable(Dimension size, double[] results, RenderJob job, RowKernel kernel) {
+		this.size    = size;
+		this.results = results;
+		this.job     = job;
+		this.kernel  = kernel;
+	}
+
+	@Override
+	public void calculate(Rectangle tile) {
+		for(int y = tile.y; y < tile.y + tile.height; y++) {
+			if(job.isCancelled()) return;
+			kernel.escape(results, y * size.width + tile.x, tile.x, y, tile.width);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+
+/**
+ * How long each part of a frame took to calculate, so the next frame can split the expensive
+ * parts finely and leave the cheap parts in big tiles. Costs are kept on a fixed grid over the
+ * image rather than per pixel, so a frame of any size can use the costs of one of any other size,
+ * such as the next progressive pass.
+ *
+ * @author Matthew Consterdine
+ */
+class TileCosts {
+	// Number of cells across and down, whatever size the image is
+	protected static final int cells = 64;
+
+	// Nanoseconds per pixel of each cell, zero if nothing was recorded there
+	protected final double[] costs = new double[cells * cells];
+
+	// Summed area table of costs, so any rectangle is four lookups. Built by finish()
+	protected double[] sums;
+
+	/**
+	 * Record how long a tile took
+	 * @param tile The tile
+	 * @param size The size of the image
+	 * @param nanos Time taken in nanoseconds
+	 */
+	public void record(Rectangle tile, Dimension size, long nanos) {
+		double cost = (double) nanos / (tile.width * tile.height);
+
+		// Tiles never overlap, but they can share a cell. Whichever finished last wins
+		int x0 = tile.x * cells / size.width, x1 = cell(tile.x + tile.width,  size.width);
+		int y0 = tile.y * cells / size.height, y1 = cell(tile.y + tile.height, size.height);
+		for(int y = y0; y < y1; y++) for(int x = x0; x < x1; x++) costs[y * cells + x] = cost;
+	}
+
+	/**
+	 * Build the table used by estimate(), once every tile has been recorded
+	 * @return This
+	 */
+	public TileCosts finish() {
+		double[] sums = new double[(cells + 1) * (cells + 1)];
+		for(int y = 0; y < cells; y++) for(int x = 0; x < cells; x++) {
+			sums[(y + 1) * (cells + 1) + x + 1] = costs[y * cells + x] + sums[y * (cells + 1) + x + 1] +
+				sums[(y + 1) * (cells + 1) + x] - sums[y * (cells + 1) + x];
+		}
+		this.sums = sums;
+		return this;
+	}
+
+	/**
+	 * Estimate how long a tile will take, from the average cost of the cells it covers
+	 * @param tile The tile
+	 * @param size The size of the image
+	 * @return Estimated time in nanoseconds, or the number of pixels if nothing is known
+	 */
+	public double estimate(Rectangle tile, Dimension size) {
+		int pixels = tile.width * tile.height;
+		if(sums == null) return pixels;
+
+		int x0 = tile.x * cells / size.width, x1 = cell(tile.x + tile.width,  size.width);
+		int y0 = tile.y * cells / size.height, y1 = cell(tile.y + tile.height, size.height);
+		double sum = sums[y1 * (cells + 1) + x1] - sums[y0 * (cells + 1) + x1] -
+			sums[y1 * (cells + 1) + x0] + sums[y0 * (cells + 1) + x0];
+		return sum / ((x1 - x0) * (y1 - y0)) * pixels;
+	}
+
+	/**
+	 * @return The cell after the one a coordinate is in, so partly covered cells count
+	 */
+	protected static int cell(int coordinate, int pixels) {
+		return Math.min(cells, (coordinate * cells + pixels - 1) / pixels);
+	}
+}
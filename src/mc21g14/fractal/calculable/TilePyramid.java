@@ -0,0 +1,426 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.swing.JOptionPane;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Shows fractals made of square tiles, the way web maps do. Level 0 is one tile from -2 to 2
+ * both ways, and each level has twice as many tiles across as the last, so a tile is the same
+ * whatever view it's part of. A view is put together from the first level with pixels at least
+ * as close as its own, and only tiles that aren't kept already are calculated, nearest the
+ * middle first. Until a tile is ready, the tile of a lower level it's part of is stretched over
+ * it, so panning only waits for the tiles that have just come into view.
+ *
+ * @author Matthew Consterdine
+ */
+public class TilePyramid {
+	public static final int TILE = 256;
+
+	// Pixels are found with longs, which run out past this
+	public static final int MAX_LEVEL = 54;
+
+	protected static final Dimension SIZE = new Dimension(TILE, TILE);
+
+	// Tiles missing their own placeholder wait for this many levels up, which is quick to calculate
+	protected static final int PREVIEW = 3;
+
+	// Placeholders are looked for at most this many levels up, past that they're just a blur
+	protected static final int ANCESTORS = 8;
+
+	// Tiles that take longer than this are kept in the tile store, reading one is far quicker
+	protected static final long slowNanos = 20_000_000L;
+
+	// Tiles arriving quicker than this are shown together
+	protected static final long DELIVERY = 100;
+
+	// Each tile uses every core itself, a couple at once keeps them busy between tiles
+	protected static final int THREADS = 2;
+
+	protected static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+		THREADS, THREADS, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Tiles");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}
+	);
+
+	/**
+	 * Where a tile is in the pyramid
+	 */
+	protected static final class Index {
+		protected final int  level;
+		protected final long x, y;
+
+		protected Index(int level, long x, long y) {
+			this.level = level;
+			this.x     = x;
+			this.y     = y;
+		}
+
+		/**
+		 * @param levels How many levels up
+		 * @return The tile this one is part of
+		 */
+		protected Index up(int levels) {
+			return new Index(level - levels, x >> levels, y >> levels);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Index)) return false;
+			Index that = (Index) other;
+			return level == that.level && x == that.x && y == that.y;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (31 * (31 * level + (x ^ (x >>> 32))) + (y ^ (y >>> 32)));
+		}
+
+		@Override
+		public String toString() {
+			return level + "/" + x + "/" + y;
+		}
+	}
+
+	protected final Callback call;
+
+	// The view being shown, null if nothing is
+	protected FractalState state;
+	protected Dimension    size;
+	protected String       params;
+	protected String       precision;
+	protected int          level;
+
+	// Pixel x of the view is pixel floor(baseX + fracX + x * ratioX) across its level, the same for y
+	protected long         baseX, baseY;
+	protected double       fracX, fracY, ratioX, ratioY;
+	protected long         x0, y0, x1, y1;
+	protected long         middleX, middleY;
+
+	// Tiles of the view and the placeholders in use, so they can't leave the cache while shown
+	protected Map<Index, double[]> kept    = new HashMap<Index, double[]>();
+	protected final Set<Index>     pending = new HashSet<Index>();
+	protected final Set<Index>     running = new HashSet<Index>();
+	protected int                  workers = 0;
+
+	// Cancelled when the fractal changes, so tiles of the old one stop early
+	protected RenderJob job = new RenderJob(this, null);
+
+	protected long delivered = 0;
+
+	/**
+	 * Create a pyramid
+	 * @param call The function called with the view each time more of it is ready
+	 */
+	public TilePyramid(Callback call) {
+		this.call = call;
+	}
+
+	/**
+	 * Check if a view can be made of tiles. Buddha can't, as orbits cross tiles, and neither can
+	 * views deeper than the last level.
+	 * @param state The fractal state
+	 * @param size The size of the view
+	 * @return True if it can
+	 */
+	public static boolean supports(FractalState state, Dimension size) {
+		if(state.buddha || size.width <= 0 || size.height <= 0) return false;
+		if(!(state.getWidth() > 0 && state.getHeight() > 0)) return false;
+		return levelOf(state, size) <= MAX_LEVEL;
+	}
+
+	/**
+	 * @return The first level with pixels at least as close as the view's
+	 */
+	protected static int levelOf(FractalState state, Dimension size) {
+		// Pixels of level L are 4 / 2^L / 256 = 2^-(L + 6) apart
+		double spacing = Math.min(state.getWidth() / size.width, state.getHeight() / size.height);
+		return Math.max(0, (int) Math.ceil(-Math.log(spacing) / Math.log(2) - 6 - 1e-9));
+	}
+
+	/**
+	 * Show a view. Whatever is kept is shown straight away, and the tiles that are missing are
+	 * calculated, replacing anything pending from the last view.
+	 * @param state The fractal state, which mustn't change until another view is shown
+	 * @param size The size of the view
+	 */
+	public synchronized void show(FractalState state, Dimension size) {
+		int    level     = levelOf(state, size);
+		String precision = precisionOf(state, level);
+		String params    = TileStore.describe(state, precision);
+
+		// A different fractal, nothing kept is any use
+		if(!params.equals(this.params)) {
+			job.cancel();
+			job = new RenderJob(this, null);
+			kept.clear();
+		}
+
+		this.state     = state;
+		this.size      = new Dimension(size);
+		this.params    = params;
+		this.precision = precision;
+		this.level     = level;
+
+		// Where the left and top of the view are on the level, in its pixels. Samples are at the
+		// corners of pixels, so the nearest is half a pixel further.
+		BigDecimal scale = new BigDecimal(BigInteger.ONE.shiftLeft(level + 6));
+		BigDecimal two   = BigDecimal.valueOf(2), half = new BigDecimal(0.5);
+		BigDecimal left  = state.getCenterR().subtract(new BigDecimal(state.getWidth()  / 2)).add(two).multiply(scale).add(half);
+		BigDecimal top   = state.getCenterI().subtract(new BigDecimal(state.getHeight() / 2)).add(two).multiply(scale).add(half);
+		baseX  = left.setScale(0, RoundingMode.FLOOR).longValue();
+		baseY  = top.setScale(0, RoundingMode.FLOOR).longValue();
+		fracX  = left.subtract(BigDecimal.valueOf(baseX)).doubleValue();
+		fracY  = top.subtract(BigDecimal.valueOf(baseY)).doubleValue();
+		ratioX = Math.scalb(state.getWidth()  / size.width,  level + 6);
+		ratioY = Math.scalb(state.getHeight() / size.height, level + 6);
+		x0 = pixelX(0) >> 8;
+		y0 = pixelY(0) >> 8;
+		x1 = pixelX(size.width  - 1) >> 8;
+		y1 = pixelY(size.height - 1) >> 8;
+		middleX = pixelX(size.width  / 2);
+		middleY = pixelY(size.height / 2);
+
+		// Keep the tiles of the view, and find placeholders for the rest
+		Map<Index, double[]> last = kept;
+		kept = new HashMap<Index, double[]>();
+		pending.clear();
+		for(long y = y0; y <= y1; y++) for(long x = x0; x <= x1; x++) {
+			Index index = new Index(level, x, y);
+			if(find(index, last) != null) continue;
+			pending.add(index);
+
+			boolean placeholder = false;
+			for(int up = 1; up <= Math.min(ANCESTORS, level) && !placeholder; up++) placeholder = find(index.up(up), last) != null;
+			if(!placeholder && level >= PREVIEW) pending.add(index.up(PREVIEW));
+		}
+		pending.removeAll(running);
+
+		while(workers < THREADS && workers < pending.size()) {
+			workers++;
+			executor.execute(new Runnable() {
+				@Override public void run() {
+					Index index;
+					while((index = next()) != null) calculate(index);
+				}
+			});
+		}
+
+		deliver();
+	}
+
+	/**
+	 * Stop showing anything, forgetting whatever is pending
+	 */
+	public synchronized void clear() {
+		job.cancel();
+		job    = new RenderJob(this, null);
+		state  = null;
+		params = null;
+		kept.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Look for a tile in what was kept for the last view, then the cache, keeping it if found
+	 * @param index The tile
+	 * @param last What was kept for the last view
+	 * @return The tile, or null if it needs calculating
+	 */
+	protected double[] find(Index index, Map<Index, double[]> last) {
+		double[] data = kept.get(index);
+		if(data == null) data = last.get(index);
+		if(data == null) data = ResultCache.peek(new ResultCache.Key(tileOf(state, precision, index), SIZE));
+		if(data != null) kept.put(index, data);
+		return data;
+	}
+
+	/**
+	 * Take the next tile to calculate, the lowest level first so placeholders come quickly, then
+	 * the nearest to the middle of the view. A worker finding nothing left stops.
+	 * @return The tile, or null if there's nothing left
+	 */
+	protected synchronized Index next() {
+		Index  best     = null;
+		double distance = 0;
+		for(Index index : pending) {
+			double d = distance(index);
+			if(best == null || index.level < best.level || index.level == best.level && d < distance) {
+				best     = index;
+				distance = d;
+			}
+		}
+
+		if(best == null) workers--;
+		else {
+			pending.remove(best);
+			running.add(best);
+		}
+		return best;
+	}
+
+	/**
+	 * @return How far a tile is from the middle of the view, in tiles of the view's level
+	 */
+	protected double distance(Index index) {
+		int up = level - index.level;
+
+		// Subtracting the longs first keeps the precision, however deep the level
+		double dx = ((index.x << (up + 8)) - middleX + (TILE << up) / 2) / (double) TILE;
+		double dy = ((index.y << (up + 8)) - middleY + (TILE << up) / 2) / (double) TILE;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Calculate a tile, or read it from the tile store, then show it if it's still wanted
+	 * @param index The tile
+	 */
+	protected void calculate(Index index) {
+		FractalState state;
+		String       precision;
+		RenderJob    job;
+		synchronized(this) {
+			state     = this.state;
+			precision = this.precision;
+			job       = this.job;
+		}
+
+		double[] data = null;
+		try {
+			if(state != null) {
+				FractalState    tile   = tileOf(state, precision, index);
+				ResultCache.Key key    = new ResultCache.Key(tile, SIZE);
+				TileStore.Key   stored = TileStore.isOpen() ? TileStore.tileKey(state, precision, index.level, index.x, index.y) : null;
+
+				data = ResultCache.get(key);
+				if(data == null && (data = Calculable.load(stored)) != null) ResultCache.put(key, data);
+				if(data == null) {
+					long time = System.nanoTime();
+					data = Calculable.getInstance().calculate(tile, SIZE, job);
+					if(job.isCancelled()) data = null;
+					else {
+						ResultCache.put(key, data);
+						if(stored != null && System.nanoTime() - time >= slowNanos) TileStore.put(stored, data, TILE, TILE, state.iterations);
+					}
+				}
+			}
+		} catch (Exception e) {
+			// Every tile would fail the same way, so give up on the lot
+			synchronized(this) {
+				pending.clear();
+			}
+			JOptionPane.showMessageDialog(null, e.getMessage() + ":\n" + e.getStackTrace().toString(), "Error Calculating! Try Switching Renderer.", JOptionPane.ERROR_MESSAGE);
+		}
+
+		synchronized(this) {
+			running.remove(index);
+			// Only show it if it's for the fractal being shown
+			if(data != null && job == this.job && this.state != null && index.level <= level) {
+				kept.put(index, data);
+				long now = System.currentTimeMillis();
+				if(pending.isEmpty() && running.isEmpty() || now - delivered >= DELIVERY) deliver();
+			}
+		}
+	}
+
+	/**
+	 * Put the view together from the tiles that are ready and show it
+	 */
+	protected synchronized void deliver() {
+		if(state == null) return;
+		delivered = System.currentTimeMillis();
+
+		// Pick what to draw for each tile of the view, its placeholder if it isn't ready
+		int        columns = (int) (x1 - x0 + 1), rows = (int) (y1 - y0 + 1);
+		double[][] sources = new double[columns * rows][];
+		int[]      shifts  = new int[columns * rows];
+		for(int y = 0; y < rows; y++) for(int x = 0; x < columns; x++) {
+			Index index = new Index(level, x0 + x, y0 + y);
+			for(int up = 0; up <= Math.min(ANCESTORS, level) && sources[x + y * columns] == null; up++) {
+				sources[x + y * columns] = kept.get(index.up(up));
+				shifts [x + y * columns] = up;
+			}
+		}
+
+		long[] pixelsX = new long[size.width];
+		for(int x = 0; x < size.width; x++) pixelsX[x] = pixelX(x);
+
+		double[] data = new double[size.width * size.height];
+		for(int y = 0; y < size.height; y++) {
+			long pixelY = pixelY(y);
+			int  row    = (int) ((pixelY >> 8) - y0) * columns;
+			for(int x = 0; x < size.width; x++) {
+				int      tile   = row + (int) ((pixelsX[x] >> 8) - x0);
+				double[] source = sources[tile];
+				if(source == null) continue;
+
+				int shift = shifts[tile];
+				data[x + y * size.width] = source[(int) ((pixelY >> shift) & (TILE - 1)) * TILE + (int) ((pixelsX[x] >> shift) & (TILE - 1))];
+			}
+		}
+
+		call.callback(data, size);
+	}
+
+	/**
+	 * @return Which pixel across the level pixel x of the view shows
+	 */
+	protected long pixelX(int x) {
+		return baseX + (long) Math.floor(fracX + x * ratioX);
+	}
+
+	/**
+	 * @return Which pixel down the level pixel y of the view shows
+	 */
+	protected long pixelY(int y) {
+		return baseY + (long) Math.floor(fracY + y * ratioY);
+	}
+
+	/**
+	 * Get the state of a tile
+	 * @param state The fractal state, its view is ignored
+	 * @param precision The precision of the level
+	 * @param index The tile
+	 * @return A new state, showing only the tile
+	 */
+	protected static FractalState tileOf(FractalState state, String precision, Index index) {
+		// Powers of two are exact as doubles, and so is everything made from them here
+		double     span  = Math.scalb(4.0, -index.level);
+		BigDecimal width = new BigDecimal(span);
+		BigDecimal two   = BigDecimal.valueOf(2), half = new BigDecimal(0.5);
+
+		FractalState tile = state.clone();
+		tile.setView(
+			BigDecimal.valueOf(index.x).add(half).multiply(width).subtract(two),
+			BigDecimal.valueOf(index.y).add(half).multiply(width).subtract(two),
+			span, span
+		);
+		tile.precision = precision;
+		return tile;
+	}
+
+	/**
+	 * Pick the precision of a level, so every tile on it is calculated the same way and there
+	 * are no seams between them. Auto picks for the edge of the Mandlebrot set, as far out as
+	 * anything interesting is.
+	 * @param state The fractal state
+	 * @param level The level
+	 * @return Float, Double or Double-Double
+	 */
+	protected static String precisionOf(FractalState state, int level) {
+		FractalState edge = state.clone();
+		edge.setView(BigDecimal.valueOf(2), BigDecimal.ZERO, Math.scalb(4.0, -level), Math.scalb(4.0, -level));
+		return Precision.choose(edge, SIZE);
+	}
+}
@@ -0,0 +1,17 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Rectangle;
+
+/**
+ * Calculates tiles of a frame for one thread of the pool. Each thread has its own, as kernels
+ * keep the orbit in their fields.
+ *
+ * @author Matthew Consterdine
+ */
+interface TileRunnable {
+	/**
+	 * Calculate every pixel of a tile
+	 * @param tile The tile
+	 */
+	public void calculate(Rectangle tile);
+}
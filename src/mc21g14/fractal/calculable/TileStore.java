@@ -0,0 +1,525 @@
+package mc21g14.fractal.calculable;
+
+import java.awt.Dimension;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import mc21g14.fractal.misc.FractalState;
+
+/**
+ * Fractal data kept on disk between sessions, so favourites, deep views and repeated exports
+ * don't need calculating again after a restart. Each tile is a file of raw iterations, read by
+ * mapping it into memory and copying it out once into the array the calculators and colorings
+ * work on, as they all want a double[]. Tiles are found by everything that changes the
+ * iterations except the view, a zoom level and a position on that level.
+ *
+ * Whole frames can be kept too. They are tiles off the grid, at level FRAME, with the view and
+ * size in their key instead.
+ *
+ * An index file lists the tiles, least recently used first, so the oldest can be deleted once
+ * they take more space than the budget. It's written every so often and when the program exits.
+ * Tiles the index doesn't know about are deleted when the store is opened.
+ *
+ * @author Matthew Consterdine
+ */
+public class TileStore {
+	// The level of tiles that are whole frames rather than part of the grid
+	public static final int FRAME = -1;
+
+	protected static final int    MAGIC   = 0x46585453; // FXTS
+	protected static final int    VERSION = 1;
+	protected static final String INDEX   = "index";
+	protected static final String SUFFIX  = ".tile";
+
+	// Floats hold whole numbers exactly up to 2^24
+	protected static final int FLOAT_ITERATIONS = 1 << 24;
+
+	// Milliseconds between writing the index, it's written when the program exits anyway
+	protected static final long FLUSH = 5000;
+
+	protected static final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	// Where tiles are kept, null when the store is closed
+	protected static File directory;
+
+	// Disk used and allowed, in bytes
+	protected static long used   = 0;
+	protected static long budget = 256L << 20;
+
+	protected static long    flushed = 0;
+	protected static boolean dirty   = false;
+	protected static Thread  hook;
+
+	protected static long hits   = 0;
+	protected static long misses = 0;
+
+	/**
+	 * Where a tile is, and its size
+	 */
+	protected static final class Key {
+		// Everything else about the fractal, hashed
+		protected final long params;
+		protected final int  level;
+		protected final long x, y;
+
+		protected Key(long params, int level, long x, long y) {
+			this.params = params;
+			this.level  = level;
+			this.x      = x;
+			this.y      = y;
+		}
+
+		protected String fileName() {
+			return String.format("%016x_%d_%d_%d", params, level, x, y) + SUFFIX;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Key)) return false;
+			Key that = (Key) other;
+			return params == that.params && level == that.level && x == that.x && y == that.y;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = Long.valueOf(params).hashCode();
+			hash = 31 * hash + level;
+			hash = 31 * hash + Long.valueOf(x).hashCode();
+			hash = 31 * hash + Long.valueOf(y).hashCode();
+			return hash;
+		}
+	}
+
+	/**
+	 * What the index knows about a tile
+	 */
+	protected static final class Entry {
+		protected final int     width, height;
+		protected final boolean floats;
+		protected final long    bytes;
+
+		protected Entry(int width, int height, boolean floats, long bytes) {
+			this.width  = width;
+			this.height = height;
+			this.floats = floats;
+			this.bytes  = bytes;
+		}
+	}
+
+	/**
+	 * A tile read from the store. The data stays in the file, mapped into memory, until it's
+	 * copied out.
+	 */
+	public static final class Tile {
+		// Floats are widened through a chunk this size at a time
+		protected static final int CHUNK = 1 << 12;
+
+		public final int width, height;
+
+		// One of these is the data
+		protected final DoubleBuffer doubles;
+		protected final FloatBuffer  floats;
+
+		protected Tile(int width, int height, DoubleBuffer doubles, FloatBuffer floats) {
+			this.width   = width;
+			this.height  = height;
+			this.doubles = doubles;
+			this.floats  = floats;
+		}
+
+		/**
+		 * @return Number of values, a multiple of the pixels if the tile has more than one plane
+		 */
+		public int length() {
+			return doubles != null ? doubles.capacity() : floats.capacity();
+		}
+
+		/**
+		 * Copy part of the tile
+		 * @param from Index of the first value
+		 * @param into Where to copy to
+		 * @param offset Index in into of the first value
+		 * @param length Number of values
+		 */
+		public void copy(int from, double[] into, int offset, int length) {
+			if(doubles != null) {
+				DoubleBuffer buffer = doubles.duplicate();
+				buffer.position(from);
+				buffer.get(into, offset, length);
+			} else {
+				FloatBuffer buffer = floats.duplicate();
+				buffer.position(from);
+				float[] chunk = new float[Math.min(length, CHUNK)];
+				for(int done = 0; done < length; done += chunk.length) {
+					int count = Math.min(chunk.length, length - done);
+					buffer.get(chunk, 0, count);
+					for(int i = 0; i < count; i++) into[offset + done + i] = chunk[i];
+				}
+			}
+		}
+
+		/**
+		 * @return A copy of the whole tile
+		 */
+		public double[] toArray() {
+			double[] data = new double[length()];
+			copy(0, data, 0, data.length);
+			return data;
+		}
+	}
+
+	/**
+	 * Open the store, loading the index. Anything already open is closed first.
+	 * @param dir Where to keep tiles, created if it doesn't exist
+	 * @param megabytes Disk the store may use
+	 * @throws IOException If the directory can't be used
+	 */
+	public static synchronized void open(File dir, int megabytes) throws IOException {
+		close();
+		if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+
+		directory = dir;
+		budget    = (long) megabytes << 20;
+		readIndex();
+
+		// Anything the index doesn't list was written after it was last saved, or is left over
+		Set<String> known = new HashSet<String>();
+		for(Key key : entries.keySet()) known.add(key.fileName());
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				String name = file.getName();
+				if((name.endsWith(SUFFIX) && !known.contains(name)) || name.endsWith(".tmp")) delete(file);
+			}
+		}
+
+		trim();
+
+		// Make sure the tiles written since the last flush are listed next time
+		hook = new Thread(new Runnable() {
+			@Override public void run() {
+				flush();
+			}
+		}, "TileStore");
+		Runtime.getRuntime().addShutdownHook(hook);
+	}
+
+	/**
+	 * Write the index and stop using the store
+	 */
+	public static synchronized void close() {
+		if(directory == null) return;
+
+		flush();
+		try {
+			Runtime.getRuntime().removeShutdownHook(hook);
+		} catch (IllegalStateException alreadyExiting) {}
+
+		entries.clear();
+		directory = null;
+		used      = 0;
+	}
+
+	/**
+	 * @return True if the store is open
+	 */
+	public static synchronized boolean isOpen() {
+		return directory != null;
+	}
+
+	/**
+	 * Get the key of a tile on the grid
+	 * @param state The fractal state, its view is ignored
+	 * @param precision The precision the tile is calculated with
+	 * @param level The zoom level
+	 * @param x The column of the tile on its level
+	 * @param y The row of the tile on its level
+	 * @return The key
+	 */
+	protected static Key tileKey(FractalState state, String precision, int level, long x, long y) {
+		return new Key(hash(describe(state, precision)), level, x, y);
+	}
+
+	/**
+	 * Get the key of a whole frame
+	 * @param state The fractal state
+	 * @param size The size of the frame
+	 * @return The key
+	 */
+	protected static Key frameKey(FractalState state, Dimension size) {
+		String view = state.getCenterR().stripTrailingZeros().toString() + "," + state.getCenterI().stripTrailingZeros().toString() + "," +
+			state.getWidth() + "," + state.getHeight() + "," + size.width + "x" + size.height;
+		return new Key(hash(describe(state, Calculable.getPrecision(state, size)) + "|" + view), FRAME, 0, 0);
+	}
+
+	/**
+	 * Describe everything about a state that changes its iterations, except the view. The same
+	 * as a ResultCache.Key, with the precision worked out as Auto depends on the view.
+	 */
+	protected static String describe(FractalState state, String precision) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(state.fractal).append('|').append(state.iterations).append('|').append(state.threshold)
+			.append('|').append(state.smooth).append('|').append(state.seed == null ? "none" : state.seed.r + "," + state.seed.i)
+			.append('|').append(state.order).append('|').append(state.inverse).append('|').append(state.orbitTraps)
+			.append('|').append(state.regionSplits).append('|').append(state.subdivide).append('|').append(state.periodicity)
+			.append('|').append(precision).append('|').append(state.buddha);
+
+		// Every calculator hands Buddha to the same engine, anything else depends on the calculator
+		if(state.buddha) {
+			builder.append('|').append(state.antiBuddha).append('|').append(BuddhaEngine.samplesOf(state))
+				.append('|').append(Arrays.toString(state.nebula));
+		} else {
+			builder.append('|').append(Calculable.getInstance().getClass().getName());
+		}
+		return builder.toString();
+	}
+
+	protected static long hash(String description) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(description.getBytes(Charset.forName("UTF-8")));
+			return ByteBuffer.wrap(digest).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read a tile
+	 * @param key The key of the tile
+	 * @return The tile, or null if it isn't stored
+	 */
+	protected static synchronized Tile get(Key key) {
+		if(directory == null) return null;
+
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			misses++;
+			return null;
+		}
+
+		File file = new File(directory, key.fileName());
+		try(FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+			// The mapping lasts after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			hits++;
+			dirty = true;
+			return entry.floats
+				? new Tile(entry.width, entry.height, null, buffer.asFloatBuffer())
+				: new Tile(entry.width, entry.height, buffer.asDoubleBuffer(), null);
+		} catch (IOException e) {
+			// Deleted behind our back, forget it
+			entries.remove(key);
+			used -= entry.bytes;
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Store a tile, deleting the least recently used ones if it doesn't fit. The file is written
+	 * without holding the lock, so reads from other threads don't wait on the disk.
+	 * @param key The key of the tile
+	 * @param data The iterations, a plane after another if there's more than one
+	 * @param width The width of the tile
+	 * @param height The height of the tile
+	 * @param iterations The most iterations any pixel can have
+	 */
+	protected static void put(Key key, double[] data, int width, int height, int iterations) {
+		File dir;
+		long limit;
+		synchronized(TileStore.class) {
+			dir   = directory;
+			limit = budget;
+		}
+		if(dir == null) return;
+
+		// Whole numbers fit in floats exactly, at half the size
+		boolean floats = iterations < FLOAT_ITERATIONS;
+		for(int i = 0; floats && i < data.length; i++) floats = data[i] == Math.rint(data[i]);
+
+		long bytes = (floats ? 4L : 8L) * data.length;
+		if(bytes > limit) return;
+
+		// Written next to the tile and moved over it, so a crash never leaves half a tile. Each
+		// write gets its own temporary file in case two threads store the same tile.
+		File file = new File(dir, key.fileName());
+		File temporary;
+		try {
+			temporary = File.createTempFile(key.fileName(), ".tmp", dir);
+		} catch (IOException e) {
+			System.err.println("Error writing tile " + file + ": " + e.getMessage());
+			return;
+		}
+		try(FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			for(int i = 0; i < data.length; i++) {
+				if(floats) buffer.putFloat((float) data[i]);
+				else       buffer.putDouble(data[i]);
+
+				if(buffer.remaining() < 8 || i == data.length - 1) {
+					buffer.flip();
+					while(buffer.hasRemaining()) channel.write(buffer);
+					buffer.clear();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Error writing tile " + file + ": " + e.getMessage());
+			delete(temporary);
+			return;
+		}
+
+		// Only the move and the index need the lock
+		synchronized(TileStore.class) {
+			if(directory != dir) {
+				// Closed or moved while writing
+				delete(temporary);
+				return;
+			}
+
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				System.err.println("Error writing tile " + file + ": " + e.getMessage());
+				delete(temporary);
+				return;
+			}
+
+			Entry last = entries.put(key, new Entry(width, height, floats, bytes));
+			if(last != null) used -= last.bytes;
+			used += bytes;
+			dirty = true;
+			trim();
+
+			if(System.currentTimeMillis() - flushed > FLUSH) flush();
+		}
+	}
+
+	/**
+	 * Delete the least recently used tiles until everything fits in the budget
+	 */
+	protected static void trim() {
+		Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+		while(used > budget && iterator.hasNext()) {
+			Map.Entry<Key, Entry> entry = iterator.next();
+			delete(new File(directory, entry.getKey().fileName()));
+			used -= entry.getValue().bytes;
+			iterator.remove();
+			dirty = true;
+		}
+	}
+
+	protected static void delete(File file) {
+		// Windows can't delete a file that's still mapped, it goes once we exit instead
+		if(file.exists() && !file.delete()) file.deleteOnExit();
+	}
+
+	/**
+	 * Write the index if it has changed. Tiles are listed least recently used first, which is
+	 * all that's needed to put them back in order.
+	 */
+	public static synchronized void flush() {
+		if(directory == null || !dirty) return;
+
+		File index     = new File(directory, INDEX);
+		File temporary = new File(directory, INDEX + ".tmp");
+		try {
+			try(DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+				stream.writeInt(MAGIC);
+				stream.writeInt(VERSION);
+				stream.writeInt(entries.size());
+				for(Map.Entry<Key, Entry> entry : entries.entrySet()) {
+					Key key = entry.getKey();
+					stream.writeLong(key.params);
+					stream.writeInt(key.level);
+					stream.writeLong(key.x);
+					stream.writeLong(key.y);
+					stream.writeInt(entry.getValue().width);
+					stream.writeInt(entry.getValue().height);
+					stream.writeBoolean(entry.getValue().floats);
+					stream.writeLong(entry.getValue().bytes);
+				}
+			}
+			Files.move(temporary.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			dirty   = false;
+			flushed = System.currentTimeMillis();
+		} catch (IOException e) {
+			System.err.println("Error writing " + index + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Read the index, skipping any tiles whose files have gone. A broken index is ignored, the
+	 * tiles it listed are deleted as if they were never stored.
+	 */
+	protected static void readIndex() {
+		File index = new File(directory, INDEX);
+		if(!index.exists()) return;
+
+		try(DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+			if(stream.readInt() != MAGIC || stream.readInt() != VERSION) throw new IOException("Unknown index");
+
+			int count = stream.readInt();
+			for(int i = 0; i < count; i++) {
+				Key   key   = new Key(stream.readLong(), stream.readInt(), stream.readLong(), stream.readLong());
+				Entry entry = new Entry(stream.readInt(), stream.readInt(), stream.readBoolean(), stream.readLong());
+				if(new File(directory, key.fileName()).length() != entry.bytes) continue;
+
+				entries.put(key, entry);
+				used += entry.bytes;
+			}
+		} catch (IOException e) {
+			System.err.println("Error reading " + index + ", starting again: " + e.getMessage());
+			entries.clear();
+			used = 0;
+		}
+		dirty = false;
+	}
+
+	/**
+	 * @return Disk the store may use, in megabytes
+	 */
+	public static synchronized int getBudget() {
+		return (int) (budget >> 20);
+	}
+
+	/**
+	 * Set the disk the store may use, deleting tiles if it's now too much
+	 * @param megabytes Disk in megabytes
+	 */
+	public static synchronized void setBudget(int megabytes) {
+		if(megabytes < 0) throw new IllegalArgumentException("Tile store budget can't be negative");
+		budget = (long) megabytes << 20;
+		if(directory != null) trim();
+	}
+
+	/**
+	 * @return Number of reads that found a tile
+	 */
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return Number of reads that didn't
+	 */
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return Disk used by stored tiles, in bytes
+	 */
+	public static synchronized long getUsed() {
+		return used;
+	}
+}
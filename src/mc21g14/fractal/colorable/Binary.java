@@ -15,7 +15,7 @@ import mc21g14.fractal.misc.UserConfigurable;
  * 
  * @author Matthew Consterdine
  */
-public class Binary extends Colorable implements Serializable, UserConfigurable {
+public class Binary extends PaletteColorable implements Serializable, UserConfigurable {
 	private static final long serialVersionUID = 1L;
 
 	protected Color  base;
@@ -40,21 +40,18 @@ public class Binary extends Colorable implements Serializable, UserConfigurable
 	}
 	
 	@Override
-	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
+	protected Palette compile(int iterations) {
 		// We need valid colors
 		if(base  == null) throw new InvalidParameterException("Base  cannot be null!");
 		if(limit == null) throw new InvalidParameterException("Limit cannot be null!");
 		
-		int[] results = new int[data.length * 3];
-		
-		// For each pixel pick the color we want
-		for(int i = 0; i < data.length; i++) {
-			results[i * 3 + 0] = data[i] < 0 ? limit.getRed()   : base.getRed();
-			results[i * 3 + 1] = data[i] < 0 ? limit.getGreen() : base.getGreen();
-			results[i * 3 + 2] = data[i] < 0 ? limit.getBlue()  : base.getBlue();
-		}
-		
-		return results;
+		// Every escaped point is the same color
+		return fill(new Palette(iterations, 1, false, pack(limit.getRed(), limit.getGreen(), limit.getBlue(), false)), iterations);
+	}
+	
+	@Override
+	protected int color(double value, int iterations) {
+		return pack(base.getRed(), base.getGreen(), base.getBlue(), false);
 	}
 
 	@Override
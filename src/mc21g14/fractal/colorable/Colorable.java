@@ -13,16 +13,58 @@ import javax.swing.event.EventListenerList;
 public abstract class Colorable implements Cloneable, Serializable {
 	private static final long serialVersionUID = 1L;
 
+	// XOR with this to invert the red, green and blue of a packed color, leaving alpha alone
+	protected static final int INVERT = 0x00FFFFFF;
+	
 	protected EventListenerList listenerList = new EventListenerList();
 	
+	/**
+	 * Convert part of a double array of iterations to packed ARGB colors, one int per pixel, as
+	 * stored by a TYPE_INT_RGB or TYPE_INT_ARGB BufferedImage. Only pixels from to to are
+	 * written, so an image can be colored a band at a time, but the whole of data is there for
+	 * colorings that look at neighbouring pixels.
+	 * @param data The iterations of every pixel
+	 * @param width Width of the data in pixels
+	 * @param from Index of the first pixel to color
+	 * @param to Index after the last pixel to color
+	 * @param iterations Maximum iterations reached
+	 * @param invert True to invert the colors
+	 * @param argb Where to store the colors, the same length as data
+	 */
+	public abstract void iterationsToARGB(double[] data, int width, int from, int to, int iterations, boolean invert, int[] argb);
+	
 	/**
 	 * Convert a double array containing a series of iterations to rgb values
 	 * @param data data
 	 * @param pixelWidth Width of the data in pixels
 	 * @param iterations Maximum iterations reached
-	 * @return RGB formatted int array
+	 * @return RGB formatted int array, three ints per pixel
+	 */
+	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
+		int[] argb = new int[data.length];
+		iterationsToARGB(data, (int) pixelWidth, 0, data.length, iterations, false, argb);
+		
+		int[] results = new int[3 * data.length];
+		for(int i = 0; i < data.length; i++) {
+			results[3 * i + 0] = (argb[i] >> 16) & 0xFF;
+			results[3 * i + 1] = (argb[i] >>  8) & 0xFF;
+			results[3 * i + 2] = (argb[i] >>  0) & 0xFF;
+		}
+		return results;
+	}
+	
+	/**
+	 * Pack a color into an int, opaque
+	 * @param r Red, 0 to 255
+	 * @param g Green, 0 to 255
+	 * @param b Blue, 0 to 255
+	 * @param invert True to invert the color
+	 * @return The packed color
 	 */
-	public abstract int[] iterationsToRGB(double[] data, double pixelWidth, int iterations);
+	protected static int pack(int r, int g, int b, boolean invert) {
+		int argb = 0xFF000000 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+		return invert ? argb ^ INVERT : argb;
+	}
 	
 	/**
 	 * List colorable implementations
@@ -30,7 +72,7 @@ public abstract class Colorable implements Cloneable, Serializable {
 	 */
 	public static Colorable[] getImplementations() {
 		return new Colorable[] {
-			new Binary(), new Fire(), new Gradient(), new HueShift(), new Stepped(), new Ultra(), new PenPlot()
+			new Binary(), new Fire(), new Gradient(), new HueShift(), new Stepped(), new Ultra(), new Histogram(), new PenPlot()
 		};
 	}
 	
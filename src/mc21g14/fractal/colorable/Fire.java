@@ -16,7 +16,7 @@ import mc21g14.fractal.misc.UserConfigurable;
  * 
  * @author Matthew Consterdine
  */
-public class Fire extends Colorable implements Serializable, UserConfigurable {
+public class Fire extends PaletteColorable implements Serializable, UserConfigurable {
 	private static final long serialVersionUID = 1L;
 
 	protected Color  base;
@@ -38,30 +38,19 @@ public class Fire extends Colorable implements Serializable, UserConfigurable {
 	}
 
 	@Override
-	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
+	protected Palette compile(int iterations) {
 		// We need valid colors
 		if(base  == null) throw new InvalidParameterException("Base  cannot be null!");
 		
-		int[] results = new int[3 * data.length];
-		
-		for(int i = 0; i < data.length; i++) {
-			if(data[i] >= 0) {
-				// If pixel reached
-				double value = Math.min(data[i] / iterations, 1);
-				
-				// Fade between the color and black
-				results[3 * i + 0] = (int) (value * base.getRed());
-				results[3 * i + 1] = (int) (value * base.getGreen());
-				results[3 * i + 2] = (int) (value * base.getBlue());
-			} else {
-				// Fallback
-				results[3 * i + 0] = 0;
-				results[3 * i + 1] = 0;
-				results[3 * i + 2] = 0;
-			}
-		}
+		return fill(new Palette(iterations, iterations, false, pack(0, 0, 0, false)), iterations);
+	}
+	
+	@Override
+	protected int color(double iteration, int iterations) {
+		double value = Math.min(iteration / iterations, 1);
 		
-		return results;
+		// Fade between the color and black
+		return pack((int) (value * base.getRed()), (int) (value * base.getGreen()), (int) (value * base.getBlue()), false);
 	}
 
 	@Override
@@ -16,7 +16,7 @@ import mc21g14.fractal.misc.UserConfigurable;
  * 
  * @author Matthew Consterdine
  */
-public class Gradient extends Colorable implements Serializable, UserConfigurable {
+public class Gradient extends PaletteColorable implements Serializable, UserConfigurable {
 	private static final long serialVersionUID = 1L;
 
 	protected Color  base;
@@ -41,38 +41,25 @@ public class Gradient extends Colorable implements Serializable, UserConfigurabl
 	}
 
 	@Override
-	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
+	protected Palette compile(int iterations) {
 		// We need valid colors
 		if(base  == null) throw new InvalidParameterException("Base  cannot be null!");
 		if(limit == null) throw new InvalidParameterException("Limit cannot be null!");
 		
-		int[] results = new int[3 * data.length];
-		
-		// Calculate deltas to save a small amount of calculation
-		int[] deltas  = new int[] {
-			limit.getRed()   - base.getRed(),
-			limit.getGreen() - base.getGreen(),
-			limit.getBlue()  - base.getBlue()
-		};
-		
-		for(int i = 0; i < data.length; i++) {
-			if(data[i] >= 0) {
-				// If pixel reached
-				double value = Math.min(data[i] / iterations, 1);
-				
-				// Interpolate between the two colors
-				results[3 * i + 0] = (int) (base.getRed()   + value * deltas[0]);
-				results[3 * i + 1] = (int) (base.getGreen() + value * deltas[1]);
-				results[3 * i + 2] = (int) (base.getBlue()  + value * deltas[2]);
-			} else {
-				// Fallback
-				results[3 * i + 0] = limit.getRed();
-				results[3 * i + 1] = limit.getGreen();
-				results[3 * i + 2] = limit.getRed();
-			}
-		}
+		return fill(new Palette(iterations, iterations, false, pack(limit.getRed(), limit.getGreen(), limit.getRed(), false)), iterations);
+	}
+	
+	@Override
+	protected int color(double iteration, int iterations) {
+		double value = Math.min(iteration / iterations, 1);
 		
-		return results;
+		// Interpolate between the two colors
+		return pack(
+			(int) (base.getRed()   + value * (limit.getRed()   - base.getRed())),
+			(int) (base.getGreen() + value * (limit.getGreen() - base.getGreen())),
+			(int) (base.getBlue()  + value * (limit.getBlue()  - base.getBlue())),
+			false
+		);
 	}
 
 	@Override
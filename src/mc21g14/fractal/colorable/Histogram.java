@@ -0,0 +1,246 @@
+package mc21g14.fractal.colorable;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.swing.*;
+
+import mc21g14.colorpicker.ColorPicker;
+import mc21g14.fractal.misc.UserConfigurable;
+
+/**
+ * Histogram equalized coloring. Points are colored by how many other points escaped sooner, not by
+ * the iterations they took, so the colors are spread evenly over the image however many iterations
+ * there are. The histogram is of the whole data, unless it's been counted elsewhere, such as over
+ * every band of a tiled export.
+ *
+ * @author Matthew Consterdine
+ */
+public class Histogram extends PaletteColorable implements Serializable, UserConfigurable {
+	private static final long serialVersionUID = 1L;
+
+	// Counts the histogram, daemon threads like every fork/join pool
+	protected static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	// Smallest part of the data counted by one task, smaller isn't worth a histogram of its own
+	protected static final int smallest = 1 << 16;
+
+	protected float  hue;
+	protected JPanel panel;
+
+	// The last histogram, kept while the data stays the same so changing the hue doesn't count again
+	protected transient volatile Ranks ranks;
+
+	// Ranks counted elsewhere, used for any data while they're set
+	protected transient volatile Ranks counted;
+
+	/**
+	 * Create histogram coloring with a starting hue of 0
+	 */
+	public Histogram() {
+		this(0);
+	}
+
+	/**
+	 * Create histogram coloring with a starting hue
+	 * @param hue The hue of the points that escaped soonest
+	 */
+	public Histogram(float hue) {
+		this.hue = hue;
+	}
+
+	@Override
+	public void iterationsToARGB(double[] data, int width, int from, int to, int iterations, boolean invert, int[] argb) {
+		double[] ranks   = getRanks(data, iterations);
+		Palette  palette = getPalette(iterations);
+		int      flip    = invert ? INVERT : 0;
+
+		for(int i = from; i < to; i++) {
+			double value = data[i];
+			if(value < 0) {
+				argb[i] = palette.inside ^ flip;
+				continue;
+			}
+
+			// Interpolate between the ranks of the iterations either side, for smoothing
+			int    whole = Math.min((int) value, iterations);
+			double rank  = ranks[whole] + (value - whole) * (ranks[whole + 1] - ranks[whole]);
+			argb[i] = palette.color(rank) ^ flip;
+		}
+	}
+
+	@Override
+	protected Palette compile(int iterations) {
+		// Colored by rank, from 0 to 1, rather than iterations
+		return fill(new Palette(iterations, 1, false, pack(0, 0, 0, false)), iterations);
+	}
+
+	@Override
+	protected int color(double rank, int iterations) {
+		// Not quite all the way round, so the first and last points are different colors
+		return Color.HSBtoRGB((float) (hue + 0.8 * rank), 1f, 1f);
+	}
+
+	/**
+	 * Get the rank of every iteration, counting the histogram if the data isn't the last data.
+	 * Data is never changed once it's been delivered, so it's told apart by identity.
+	 * @param data The iterations of every pixel
+	 * @param iterations Maximum iterations reached
+	 * @return Fraction of escaped points that took fewer iterations, for 0 to iterations + 1
+	 */
+	public double[] getRanks(double[] data, int iterations) {
+		Ranks counted = this.counted;
+		if(counted != null && counted.iterations == iterations) return counted.ranks;
+
+		Ranks ranks = this.ranks;
+		if(ranks != null && ranks.of(data, iterations)) return ranks.ranks;
+
+		// Bands are colored at once, only one of them needs to count
+		synchronized(this) {
+			ranks = this.ranks;
+			if(ranks == null || !ranks.of(data, iterations)) this.ranks = ranks = new Ranks(data, iterations);
+			return ranks.ranks;
+		}
+	}
+
+	/**
+	 * Color everything from a histogram counted elsewhere, so that data colored a part at a time
+	 * is colored as though it were all at once
+	 * @param counts Points that escaped after each number of iterations, see count, or null to go
+	 * back to counting whatever is colored
+	 */
+	public void setCounts(long[] counts) {
+		this.counted = counts == null ? null : new Ranks(null, counts.length - 1, counts);
+	}
+
+	/**
+	 * Count part of some data into a histogram
+	 * @param data The iterations of every pixel
+	 * @param from The first index counted
+	 * @param to The index after the last counted
+	 * @param iterations Maximum iterations reached
+	 * @param counts Added to, points that escaped after each number of iterations, from 0 to iterations
+	 */
+	public static void count(double[] data, int from, int to, int iterations, long[] counts) {
+		int   parts = Math.max(1, Math.min(pool.getParallelism(), (to - from) / smallest));
+		int[] part  = pool.invoke(new Count(data, iterations, from, to, parts));
+		for(int i = 0; i < part.length; i++) counts[i] += part[i];
+	}
+
+	@Override
+	public JPanel getSettingsPanel() {
+		if(panel == null) {
+			// Construct a panel for the user
+			panel = new JPanel();
+			panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+			panel.setOpaque(false);
+
+			panel.add(new JLabel("Starting Hue"));
+			final ColorPicker hue = new ColorPicker(this.hue, 1f, 1f);
+			hue.addActionListener(new ActionListener() {
+				@Override public void actionPerformed(ActionEvent e) {
+					Histogram.this.hue = hue.hue;
+					fireActionPerformed();
+				}
+			});
+			panel.add(hue);
+		}
+		return panel;
+	}
+
+	@Override
+	public Colorable clone() {
+		return new Histogram(hue);
+	}
+
+	/**
+	 * The cumulative histogram of some data. Only weakly holds the data, so it can still be freed.
+	 */
+	protected static class Ranks {
+		protected final WeakReference<double[]> data;
+		protected final int                     iterations;
+		protected final double[]                ranks;
+
+		public Ranks(double[] data, int iterations) {
+			this(data, iterations, countAll(data, iterations));
+		}
+
+		public Ranks(double[] data, int iterations, long[] counts) {
+			this.data       = new WeakReference<double[]>(data);
+			this.iterations = iterations;
+
+			long total = 0;
+			for(long count : counts) total += count;
+
+			// ranks[i] is the fraction that took fewer than i iterations
+			this.ranks = new double[iterations + 2];
+			long sum = 0;
+			for(int i = 0; i <= iterations; i++) {
+				ranks[i] = total == 0 ? 0 : (double) sum / total;
+				sum     += counts[i];
+			}
+			ranks[iterations + 1] = 1;
+		}
+
+		/**
+		 * Every part of the data is counted into its own histogram, then they're added up
+		 */
+		protected static long[] countAll(double[] data, int iterations) {
+			long[] counts = new long[iterations + 1];
+			count(data, 0, data.length, iterations, counts);
+			return counts;
+		}
+
+		/**
+		 * @return True if these are the ranks of the data
+		 */
+		public boolean of(double[] data, int iterations) {
+			return this.data.get() == data && this.iterations == iterations;
+		}
+	}
+
+	/**
+	 * Counts part of the data into a histogram of its own, split between threads
+	 */
+	protected static class Count extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+
+		protected final double[] data;
+		protected final int      iterations, from, to, parts;
+
+		public Count(double[] data, int iterations, int from, int to, int parts) {
+			this.data       = data;
+			this.iterations = iterations;
+			this.from       = from;
+			this.to         = to;
+			this.parts      = parts;
+		}
+
+		@Override
+		protected int[] compute() {
+			if(parts > 1) {
+				// Split in two, counting one half here while another thread takes the other
+				int  half  = parts / 2;
+				int  split = from + (int) ((long) (to - from) * half / parts);
+				Count other = new Count(data, iterations, split, to, parts - half);
+				other.fork();
+
+				int[] counts = new Count(data, iterations, from, split, half).compute();
+				int[] more   = other.join();
+				for(int i = 0; i < counts.length; i++) counts[i] += more[i];
+				return counts;
+			}
+
+			int[] counts = new int[iterations + 1];
+			for(int i = from; i < to; i++) {
+				double value = data[i];
+				if(value >= 0) counts[Math.min((int) value, iterations)]++;
+			}
+			return counts;
+		}
+	}
+}
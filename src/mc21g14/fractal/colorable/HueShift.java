@@ -14,7 +14,7 @@ import mc21g14.fractal.misc.UserConfigurable;
  * 
  * @author Matthew Consterdine
  */
-public class HueShift extends Colorable implements Serializable, UserConfigurable {
+public class HueShift extends PaletteColorable implements Serializable, UserConfigurable {
 	private static final long serialVersionUID = 1L;
 
 	protected float  hue;
@@ -36,24 +36,15 @@ public class HueShift extends Colorable implements Serializable, UserConfigurabl
 	}
 	
 	@Override
-	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
-		int[] results = new int[3 * data.length];
-		
-		for(int i = 0; i < data.length; i++) {
-			if(data[i] >= 0) {
-				// Using HSB color as it allows us to easily change hue, unlike RGB
-				int rgb = Color.HSBtoRGB((float) (hue + data[i] / iterations), 1f, 1f);
-				// Bitshift the RGB values as we need to produce an RGB array
-				results[3 * i + 0] = (rgb >> 16) & 0xFF;
-				results[3 * i + 1] = (rgb >>  8) & 0xFF;
-				results[3 * i + 2] = (rgb >>  0) & 0xFF;
-			} else {
-				// Fallback
-				results[3 * i + 0] = results[3 * i + 1] = results[3 * i + 2] = 0;
-			}
-		}
-		
-		return results;
+	protected Palette compile(int iterations) {
+		// The hue goes all the way round once every iterations
+		return fill(new Palette(iterations, iterations, true, pack(0, 0, 0, false)), iterations);
+	}
+	
+	@Override
+	protected int color(double value, int iterations) {
+		// Using HSB color as it allows us to easily change hue, unlike RGB. It's already packed
+		return Color.HSBtoRGB((float) (hue + value / iterations), 1f, 1f);
 	}
 
 	@Override
@@ -0,0 +1,121 @@
+package mc21g14.fractal.colorable;
+
+/**
+ * A coloring compiled into a table of colors, so coloring a pixel is a lookup rather than
+ * working the color out again. The table has a whole number of entries per iteration, so integer
+ * results land exactly on an entry and get exactly the color the coloring would have given them.
+ * Smooth results fall between two entries and are blended, with an 8 bit fixed point fraction.
+ * Colorings that span more iterations than ENTRIES share the entries between several iterations
+ * instead, so the table never grows past ENTRIES and those results are blended too.
+ *
+ * @author Matthew Consterdine
+ */
+public class Palette {
+	// Bits of the fixed point fraction between two entries
+	protected static final int FRACTION = 8;
+
+	// Most entries a palette has, fewer iterations get more entries per iteration
+	protected static final int ENTRIES = 1 << 16;
+
+	// Iterations the palette was compiled for
+	protected final int iterations;
+
+	// Entries per iteration, below 1 if they're shared, and entries before the palette repeats or stops
+	protected final double scale;
+	protected final double length;
+
+	// True if the colors repeat after length entries, otherwise the last color carries on
+	protected final boolean repeat;
+
+	// Entries up to and past length, so there is always one to blend with
+	protected final int[] colors;
+
+	// The color of points that never escaped
+	protected final int inside;
+
+	/**
+	 * Create an empty palette, to be filled with set()
+	 * @param iterations Iterations the palette is compiled for
+	 * @param span Iterations the colors cover before they repeat or stop changing
+	 * @param repeat True if the colors repeat
+	 * @param inside Packed color of points that never escaped
+	 */
+	public Palette(int iterations, double span, boolean repeat, int inside) {
+		this.iterations = iterations;
+		this.scale      = Math.ceil(span) <= ENTRIES ? Math.floor(ENTRIES / Math.max(1, Math.ceil(span))) : ENTRIES / span;
+		this.length     = span * scale;
+		this.repeat     = repeat;
+		this.colors     = new int[(int) Math.ceil(length) + 2];
+		this.inside     = inside;
+	}
+
+	/**
+	 * @return Number of entries
+	 */
+	public int size() {
+		return colors.length;
+	}
+
+	/**
+	 * @param entry An entry
+	 * @return The iterations the entry is for
+	 */
+	public double valueOf(int entry) {
+		return entry / scale;
+	}
+
+	/**
+	 * @param entry An entry
+	 * @param color Its packed color
+	 */
+	public void set(int entry, int color) {
+		colors[entry] = color;
+	}
+
+	/**
+	 * Color part of a double array of iterations, see Colorable.iterationsToARGB
+	 * @param data The iterations of every pixel
+	 * @param from Index of the first pixel to color
+	 * @param to Index after the last pixel to color
+	 * @param invert True to invert the colors
+	 * @param argb Where to store the colors
+	 */
+	public void color(double[] data, int from, int to, boolean invert, int[] argb) {
+		int flip = invert ? Colorable.INVERT : 0;
+
+		for(int i = from; i < to; i++) {
+			double value = data[i];
+			argb[i] = (value < 0 ? inside : color(value)) ^ flip;
+		}
+	}
+	
+	/**
+	 * Color a single escaped point
+	 * @param value Iterations taken, fractional if smoothing
+	 * @return The packed color
+	 */
+	public int color(double value) {
+		double position = value * scale;
+		position = repeat ? position % length : Math.min(position, length);
+		
+		int fixed    = (int) (position * (1 << FRACTION));
+		int entry    = fixed >>> FRACTION;
+		int fraction = fixed & ((1 << FRACTION) - 1);
+		
+		return blend(colors[entry], colors[entry + 1], fraction);
+	}
+
+	/**
+	 * Blend two packed colors
+	 * @param a The first color
+	 * @param b The second color
+	 * @param fraction How far towards b, out of 1 &lt;&lt; FRACTION
+	 * @return The blended color, opaque
+	 */
+	protected static int blend(int a, int b, int fraction) {
+		int r = (a >> 16 & 0xFF) + (((b >> 16 & 0xFF) - (a >> 16 & 0xFF)) * fraction >> FRACTION);
+		int g = (a >>  8 & 0xFF) + (((b >>  8 & 0xFF) - (a >>  8 & 0xFF)) * fraction >> FRACTION);
+		int c = (a       & 0xFF) + (((b       & 0xFF) - (a       & 0xFF)) * fraction >> FRACTION);
+		return 0xFF000000 | r << 16 | g << 8 | c;
+	}
+}
@@ -0,0 +1,69 @@
+package mc21g14.fractal.colorable;
+
+/**
+ * A coloring that gives each escaped point a color from its iterations alone, so it can be
+ * compiled into a palette and colored by looking colors up.
+ *
+ * @author Matthew Consterdine
+ */
+public abstract class PaletteColorable extends Colorable {
+	private static final long serialVersionUID = 1L;
+
+	// The last compiled palette, thrown away whenever the coloring changes
+	protected transient volatile Palette palette;
+
+	@Override
+	public void iterationsToARGB(double[] data, int width, int from, int to, int iterations, boolean invert, int[] argb) {
+		getPalette(iterations).color(data, from, to, invert, argb);
+	}
+
+	/**
+	 * Compile the coloring into a palette, usually a new palette passed to fill
+	 * @param iterations Maximum iterations reached
+	 * @return The palette
+	 */
+	protected abstract Palette compile(int iterations);
+
+	/**
+	 * Get the color of a single escaped point
+	 * @param value Iterations taken, fractional if smoothing
+	 * @param iterations Maximum iterations reached
+	 * @return The packed color
+	 */
+	protected abstract int color(double value, int iterations);
+
+	/**
+	 * Get the palette for a number of iterations, compiling it if the last one doesn't fit
+	 * @param iterations Maximum iterations reached
+	 * @return The palette
+	 */
+	public Palette getPalette(int iterations) {
+		Palette palette = this.palette;
+		if(palette != null && palette.iterations == iterations) return palette;
+
+		// Bands are colored at once, only one of them needs to compile it
+		synchronized(this) {
+			palette = this.palette;
+			if(palette == null || palette.iterations != iterations) this.palette = palette = compile(iterations);
+			return palette;
+		}
+	}
+
+	/**
+	 * Fill a palette with the color of each of its entries
+	 * @param palette The palette
+	 * @param iterations Maximum iterations reached
+	 * @return The palette
+	 */
+	protected Palette fill(Palette palette, int iterations) {
+		for(int i = 0; i < palette.size(); i++) palette.set(i, color(palette.valueOf(i), iterations));
+		return palette;
+	}
+
+	@Override
+	protected void fireActionPerformed() {
+		// Whatever changed, the palette is out of date
+		palette = null;
+		super.fireActionPerformed();
+	}
+}
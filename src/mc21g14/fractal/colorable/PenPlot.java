@@ -55,37 +55,29 @@ public class PenPlot extends Colorable implements Serializable, UserConfigurable
 	}
 	
 	@Override
-	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
-		int[] results = new int[3 * data.length];
+	public void iterationsToARGB(double[] data, int width, int from, int to, int iterations, boolean invert, int[] argb) {
+		// Red, blue, green, as it always has been
+		int line  = pack(foreground.getRed(), foreground.getBlue(), foreground.getGreen(), invert);
+		int paper = pack(background.getRed(), background.getBlue(), background.getGreen(), invert);
 
-		for(int i = 0; i < data.length; i++) {
-			if(data[i] >= 0 && (
-			    getPixel(data, i, (int)pixelWidth, -1, 0) == -1 ||
-				getPixel(data, i, (int)pixelWidth, +1, 0) == -1 ||
-				getPixel(data, i, (int)pixelWidth, 0, -1) == -1 ||
-				getPixel(data, i, (int)pixelWidth, 0, +1) == -1 ||
-				getPixel(data, i, (int)pixelWidth, -1, 0) > 1 && (
-					getPixel(data, i, (int)pixelWidth, -1, -1) % this.distance < this.width ||
-					getPixel(data, i, (int)pixelWidth, -1,  0) % this.distance < this.width ||
-					getPixel(data, i, (int)pixelWidth, -1, +1) % this.distance < this.width ||
-					getPixel(data, i, (int)pixelWidth,  0, -1) % this.distance < this.width ||
-					getPixel(data, i, (int)pixelWidth,  0, +1) % this.distance < this.width ||
-					getPixel(data, i, (int)pixelWidth, +1, -1) % this.distance < this.width ||
-					getPixel(data, i, (int)pixelWidth, +1,  0) % this.distance < this.width ||
-					getPixel(data, i, (int)pixelWidth, +1, +1) % this.distance < this.width
+		for(int i = from; i < to; i++) {
+			argb[i] = data[i] >= 0 && (
+			    getPixel(data, i, width, -1, 0) == -1 ||
+				getPixel(data, i, width, +1, 0) == -1 ||
+				getPixel(data, i, width, 0, -1) == -1 ||
+				getPixel(data, i, width, 0, +1) == -1 ||
+				getPixel(data, i, width, -1, 0) > 1 && (
+					getPixel(data, i, width, -1, -1) % this.distance < this.width ||
+					getPixel(data, i, width, -1,  0) % this.distance < this.width ||
+					getPixel(data, i, width, -1, +1) % this.distance < this.width ||
+					getPixel(data, i, width,  0, -1) % this.distance < this.width ||
+					getPixel(data, i, width,  0, +1) % this.distance < this.width ||
+					getPixel(data, i, width, +1, -1) % this.distance < this.width ||
+					getPixel(data, i, width, +1,  0) % this.distance < this.width ||
+					getPixel(data, i, width, +1, +1) % this.distance < this.width
 				)
-			)) {
-				results[3 * i + 0] = foreground.getRed();
-				results[3 * i + 1] = foreground.getBlue();
-				results[3 * i + 2] = foreground.getGreen();
-			} else {
-				results[3 * i + 0] = background.getRed();
-				results[3 * i + 1] = background.getBlue();
-				results[3 * i + 2] = background.getGreen();
-			}
+			) ? line : paper;
 		}
-		
-		return results;
 	}
 
 	@Override
@@ -14,7 +14,7 @@ import mc21g14.fractal.misc.UserConfigurable;
  * 
  * @author Matthew Consterdine
  */
-public class Stepped extends Colorable implements Serializable, UserConfigurable {
+public class Stepped extends PaletteColorable implements Serializable, UserConfigurable {
 	private static final long serialVersionUID = 1L;
 
 	protected int maximum;
@@ -40,32 +40,34 @@ public class Stepped extends Colorable implements Serializable, UserConfigurable
 	}
 	
 	@Override
-	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
-		int[] results = new int[3 * data.length];
-
+	protected Palette compile(int iterations) {
 		// We need to fill the colors array if we don't have enough
-		Random r = new Random();
-		while(colors.size() <= maximum)
-			colors.add(new Color(r.nextFloat(), r.nextFloat(), r.nextFloat()));
-		
-		for(int i = 0; i < data.length; i++) {
-			if(data[i] >= 0 && colors.get((int) data[i] % colors.size()) != null) {
-				// If pixel reached
-				double mod    = (data[i] % stretch) / stretch;
-				Color  colorA = colors.get((int) (data[i] / stretch    ) % colors.size());
-				Color  colorB = colors.get((int) (data[i] / stretch + 1) % colors.size());
-				
-				// Interpolate between the two colors
-				results[3 * i + 0] = (int) ((1 - mod) * colorA.getRed()   + mod * colorB.getRed());
-				results[3 * i + 1] = (int) ((1 - mod) * colorA.getGreen() + mod * colorB.getGreen());
-				results[3 * i + 2] = (int) ((1 - mod) * colorA.getBlue()  + mod * colorB.getBlue());
-			} else {
-				// Fallback
-				results[3 * i + 0] = results[3 * i + 1] = results[3 * i + 2] = 0;
-			}
+		synchronized(colors) {
+			Random r = new Random();
+			while(colors.size() <= maximum)
+				colors.add(new Color(r.nextFloat(), r.nextFloat(), r.nextFloat()));
 		}
 		
-		return results;
+		// Each color lasts for stretch iterations, then they repeat
+		return fill(new Palette(iterations, colors.size() * stretch, true, pack(0, 0, 0, false)), iterations);
+	}
+	
+	@Override
+	protected int color(double value, int iterations) {
+		// Shouldn't happen, but the old behaviour was black
+		if(colors.get((int) value % colors.size()) == null) return pack(0, 0, 0, false);
+		
+		double mod    = (value % stretch) / stretch;
+		Color  colorA = colors.get((int) (value / stretch    ) % colors.size());
+		Color  colorB = colors.get((int) (value / stretch + 1) % colors.size());
+		
+		// Interpolate between the two colors
+		return pack(
+			(int) ((1 - mod) * colorA.getRed()   + mod * colorB.getRed()),
+			(int) ((1 - mod) * colorA.getGreen() + mod * colorB.getGreen()),
+			(int) ((1 - mod) * colorA.getBlue()  + mod * colorB.getBlue()),
+			false
+		);
 	}
 
 	@Override
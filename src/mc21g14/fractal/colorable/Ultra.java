@@ -19,7 +19,7 @@ import mc21g14.fractal.misc.UserConfigurable;
  * 
  * @author Matthew Consterdine
  */
-public class Ultra extends Colorable implements UserConfigurable {
+public class Ultra extends PaletteColorable implements UserConfigurable {
 	private static final long serialVersionUID = 1L;
 
 	protected double stretch;
@@ -51,28 +51,27 @@ public class Ultra extends Colorable implements UserConfigurable {
 	}
 	
 	@Override
-	public int[] iterationsToRGB(double[] data, double pixelWidth, int iterations) {
-		int[] results = new int[3 * data.length];
+	protected Palette compile(int iterations) {
+		// Each color lasts for stretch iterations, then they repeat
+		return fill(new Palette(iterations, colors.size() * stretch, true, pack(0, 0, 0, false)), iterations);
+	}
+	
+	@Override
+	protected int color(double value, int iterations) {
+		// Shouldn't happen, but the old behaviour was black
+		if(colors.get((int) value % colors.size()) == null) return pack(0, 0, 0, false);
 		
-		for(int i = 0; i < data.length; i++) {
-			
-			if(data[i] >= 0 && colors.get((int) data[i] % colors.size()) != null) {
-				// If pixel reached
-				double mod    = (data[i] % stretch) / stretch;
-				Color  colorA = colors.get((int) (data[i] / stretch    ) % colors.size());
-				Color  colorB = colors.get((int) (data[i] / stretch + 1) % colors.size());
-				
-				// Interpolate between the two colors
-				results[3 * i + 0] = (int) ((1 - mod) * colorA.getRed()   + mod * colorB.getRed());
-				results[3 * i + 1] = (int) ((1 - mod) * colorA.getGreen() + mod * colorB.getGreen());
-				results[3 * i + 2] = (int) ((1 - mod) * colorA.getBlue()  + mod * colorB.getBlue());
-			} else {
-				// Fallback
-				results[3 * i + 0] = results[3 * i + 1] = results[3 * i + 2] = 0;
-			}
-		}
+		double mod    = (value % stretch) / stretch;
+		Color  colorA = colors.get((int) (value / stretch    ) % colors.size());
+		Color  colorB = colors.get((int) (value / stretch + 1) % colors.size());
 		
-		return results;
+		// Interpolate between the two colors
+		return pack(
+			(int) ((1 - mod) * colorA.getRed()   + mod * colorB.getRed()),
+			(int) ((1 - mod) * colorA.getGreen() + mod * colorB.getGreen()),
+			(int) ((1 - mod) * colorA.getBlue()  + mod * colorB.getBlue()),
+			false
+		);
 	}
 
 	@Override
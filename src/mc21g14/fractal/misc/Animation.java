@@ -0,0 +1,130 @@
+package mc21g14.fractal.misc;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An animation between keyframes. The view zooms exponentially, so every frame zooms in by the
+ * same amount, and pans so that whatever ends up in the middle moves steadily towards it rather
+ * than rushing past while zoomed out. Iterations, the seed of a Julia set and the palette offset
+ * change linearly. Everything else comes from the keyframe a frame is after.
+ *
+ * @author Matthew Consterdine
+ */
+public class Animation {
+	protected final List<Keyframe> keyframes = new ArrayList<Keyframe>();
+
+	/**
+	 * A state, and how to get to the next one
+	 */
+	public static class Keyframe {
+		public final FractalState state;
+		public final int          frames;
+		public final double       offset;
+
+		/**
+		 * @param state The state shown on this keyframe
+		 * @param frames Frames from this keyframe to the next
+		 * @param offset Iterations added to escaped points before coloring, which cycles the
+		 * colors of colorings that repeat
+		 */
+		public Keyframe(FractalState state, int frames, double offset) {
+			if(frames < 1) throw new IllegalArgumentException("Keyframes need at least one frame, not " + frames);
+
+			this.state  = state;
+			this.frames = frames;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Add a keyframe to the end
+	 * @param keyframe The keyframe
+	 */
+	public void add(Keyframe keyframe) {
+		keyframes.add(keyframe);
+	}
+
+	/**
+	 * @return Number of frames, including the last keyframe
+	 */
+	public int getFrames() {
+		int frames = 1;
+		for(int i = 0; i < keyframes.size() - 1; i++) frames += keyframes.get(i).frames;
+		return keyframes.isEmpty() ? 0 : frames;
+	}
+
+	/**
+	 * Get the state of a frame
+	 * @param frame The frame, from 0
+	 * @return A new state
+	 */
+	public FractalState getState(int frame) {
+		int index = keyframeOf(frame);
+		if(index == keyframes.size() - 1) return keyframes.get(index).state.clone();
+
+		Keyframe     a = keyframes.get(index), b = keyframes.get(index + 1);
+		double       t = (double) (frame - startOf(index)) / a.frames;
+		FractalState state = a.state.clone();
+
+		// Zoom by the same factor every frame
+		double widthA = a.state.getWidth(),  widthB  = b.state.getWidth();
+		double width  = widthA * Math.pow(widthB / widthA, t);
+		double height = a.state.getHeight() * Math.pow(b.state.getHeight() / a.state.getHeight(), t);
+
+		// Pan at the speed of the zoom, so the point ending up in the middle stays still on the
+		// screen. Without a zoom that's just a steady pan.
+		double pan = widthA == widthB ? t : (widthA - width) / (widthA - widthB);
+		BigDecimal fraction = new BigDecimal(pan);
+		state.setView(
+			a.state.getCenterR().add(b.state.getCenterR().subtract(a.state.getCenterR()).multiply(fraction)),
+			a.state.getCenterI().add(b.state.getCenterI().subtract(a.state.getCenterI()).multiply(fraction)),
+			width, height
+		);
+
+		state.iterations = (int) Math.round(a.state.iterations + (b.state.iterations - a.state.iterations) * t);
+		if(a.state.seed != null && b.state.seed != null) {
+			state.seed = new Complex(
+				a.state.seed.r + (b.state.seed.r - a.state.seed.r) * t,
+				a.state.seed.i + (b.state.seed.i - a.state.seed.i) * t
+			);
+		}
+
+		return state;
+	}
+
+	/**
+	 * Get the palette offset of a frame
+	 * @param frame The frame, from 0
+	 * @return Iterations added to escaped points before coloring
+	 */
+	public double getOffset(int frame) {
+		int index = keyframeOf(frame);
+		if(index == keyframes.size() - 1) return keyframes.get(index).offset;
+
+		Keyframe a = keyframes.get(index), b = keyframes.get(index + 1);
+		double   t = (double) (frame - startOf(index)) / a.frames;
+		return a.offset + (b.offset - a.offset) * t;
+	}
+
+	/**
+	 * @return The keyframe a frame is at or after
+	 */
+	protected int keyframeOf(int frame) {
+		if(frame < 0 || frame >= getFrames()) throw new IndexOutOfBoundsException("No frame " + frame + " of " + getFrames());
+
+		int index = 0;
+		while(index < keyframes.size() - 1 && frame >= keyframes.get(index).frames) frame -= keyframes.get(index++).frames;
+		return index;
+	}
+
+	/**
+	 * @return The frame a keyframe is on
+	 */
+	protected int startOf(int index) {
+		int frame = 0;
+		for(int i = 0; i < index; i++) frame += keyframes.get(i).frames;
+		return frame;
+	}
+}
@@ -0,0 +1,349 @@
+package mc21g14.fractal.misc;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+import mc21g14.fractal.calculable.Calculable;
+
+/**
+ * Renders zoom videos and other animations between keyframes, without a display. The next frame
+ * is calculated while the last is colored and written, and frames are written as they're done,
+ * as numbered PNGs or a Y4M video, so an animation is never held in memory.
+ * Running: java -cp FractalExplorer.jar mc21g14.fractal.misc.AnimationRenderer --help
+ *
+ * @author Matthew Consterdine
+ */
+public class AnimationRenderer {
+	protected static final String USAGE =
+		"Usage: AnimationRenderer [options] --keyframes <file> --output <file>\n" +
+		"\n" +
+		"  --keyframes <file>       One keyframe per line, each with the state options of\n" +
+		"                           BatchRenderer and --frames, the frames until the next keyframe,\n" +
+		"                           and --palette-offset, iterations added before coloring\n" +
+		"  --output <file>          frame%05d.png for numbered PNGs, video.y4m for a Y4M video,\n" +
+		"                           or - to write Y4M to standard output\n" +
+		"  --size <width>x<height>  Size of the frames, default 1920x1080\n" +
+		"  --fps <n>                Frames per second of a Y4M video, default 30\n" +
+		"  --frames <n>             Frames between keyframes that don't say, default 60\n" +
+		"  --calculator <name>      java, simd, opencl or deep, default is whichever works\n" +
+		"  --pool-size <n>          Threads the CPU calculators use, default one per core\n" +
+		"  --tile-size <n>          Smallest tile the CPU calculators split the image into, default 32\n" +
+		"\n" +
+		"  Any other option is used by every keyframe that doesn't give it, as in a BatchRenderer\n" +
+		"  manifest. The view zooms exponentially between keyframes, and iterations, Julia seeds\n" +
+		"  and palette offsets change linearly.\n" +
+		"\n" +
+		"  java ... AnimationRenderer --keyframes zoom.txt --output - | ffmpeg -i - zoom.mp4";
+
+	// Memory allowed for the centres of frames waiting to seed frames zoomed in twice as far
+	protected static long seedBudget = 256L << 20;
+
+	// How many frames ahead to look for one zoomed in twice as far
+	protected static final int lookahead = 1024;
+
+	protected final Animation animation;
+	protected final Dimension size;
+
+	// Calculates the next frame while the last is colored and written
+	protected final ExecutorService calculator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Animation");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// The centre quarter of frames, by the frame zoomed in twice as far. Only used by the calculator
+	protected final Map<Integer, double[]> seeds = new HashMap<Integer, double[]>();
+	protected long seedBytes = 0;
+	protected int  seeded    = 0;
+
+	/**
+	 * Somewhere to put frames once they're colored
+	 */
+	public interface FrameWriter {
+		/**
+		 * @param frame The frame, from 0, given in order
+		 * @param argb Packed ARGB colors, one int per pixel, reused for the next frame
+		 * @throws IOException If writing fails
+		 */
+		public void write(int frame, int[] argb) throws IOException;
+	}
+
+	/**
+	 * @param animation The animation
+	 * @param size The size of the frames
+	 */
+	public AnimationRenderer(Animation animation, Dimension size) {
+		this.animation = animation;
+		this.size      = size;
+	}
+
+	/**
+	 * Render every frame
+	 * @param writer Where to put them
+	 * @throws IOException If writing fails
+	 */
+	public void render(FrameWriter writer) throws IOException {
+		int   frames = animation.getFrames();
+		int[] argb   = new int[size.width * size.height];
+
+		Future<double[]> next = calculate(0);
+		for(int frame = 0; frame < frames; frame++) {
+			long     time = System.nanoTime();
+			double[] data = get(next);
+
+			// Start on the next frame while this one is colored and written
+			if(frame + 1 < frames) next = calculate(frame + 1);
+
+			FractalRenderer.color(animation.getState(frame), offset(data, animation.getOffset(frame)), size, argb);
+			writer.write(frame, argb);
+			System.err.println("Frame " + (frame + 1) + " of " + frames + " in " + (System.nanoTime() - time) / 1_000_000_000.0 + "s");
+		}
+	}
+
+	/**
+	 * @return Number of frames that reused pixels of an earlier frame
+	 */
+	public int getSeeded() {
+		return seeded;
+	}
+
+	/**
+	 * Start calculating a frame
+	 * @param frame The frame
+	 * @return Its data, once calculated
+	 */
+	protected Future<double[]> calculate(final int frame) {
+		return calculator.submit(new Callable<double[]>() {
+			@Override public double[] call() {
+				FractalState state  = animation.getState(frame);
+				double[]     coarse = seeds.remove(frame);
+				double[]     data;
+
+				if(coarse != null) {
+					seedBytes -= 8L * coarse.length;
+					seeded++;
+					data = Calculable.calcSync(state, size, coarse, new Dimension(size.width / 2, size.height / 2));
+				} else {
+					data = Calculable.calcSync(state, size);
+				}
+
+				keep(frame, state, data);
+				return data;
+			}
+		});
+	}
+
+	/**
+	 * If a later frame is this one zoomed in twice as far, its even pixels are the centre quarter
+	 * of this frame, so keep that for it. The same idea as Fractal.sectionOf when zooming in.
+	 * @param frame The frame
+	 * @param state Its state
+	 * @param data Its data
+	 */
+	protected void keep(int frame, FractalState state, double[] data) {
+		// The quarter only lines up with every other pixel if the size divides by 4
+		if(size.width % 4 != 0 || size.height % 4 != 0 || state.buddha) return;
+
+		int later = zoomedIn(frame, state);
+		if(later < 0 || seedBytes + 2L * data.length > seedBudget) return;
+
+		double[] quarter = Fractal.sectionOf(data, size.width, new Rectangle(size.width / 4, size.height / 4, size.width / 2, size.height / 2));
+		seeds.put(later, quarter);
+		seedBytes += 8L * quarter.length;
+	}
+
+	/**
+	 * @return The frame showing the centre quarter of a frame, calculated in exactly the same way,
+	 * or -1 if there isn't one
+	 */
+	protected int zoomedIn(int frame, FractalState state) {
+		int frames = Math.min(animation.getFrames(), frame + 1 + lookahead);
+		for(int i = frame + 1; i < frames; i++) {
+			FractalState other = animation.getState(i);
+			double       ratio = other.getWidth() / state.getWidth();
+
+			if(Math.abs(ratio - 0.5) < 1e-9) return sameFractal(state, other) ? i : -1;
+			if(ratio < 0.5) return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return True if two views have the same centre, and pixels are calculated the same way
+	 */
+	protected boolean sameFractal(FractalState a, FractalState b) {
+		// The centre is rounded to the precision of the zoom, so it isn't always exactly the same
+		double pixel = b.getWidth() / size.width;
+		return Math.abs(a.getCenterR().subtract(b.getCenterR()).doubleValue()) < 1e-6 * pixel &&
+		       Math.abs(a.getCenterI().subtract(b.getCenterI()).doubleValue()) < 1e-6 * pixel &&
+		       Math.abs(b.getHeight() / a.getHeight() - 0.5) < 1e-9                   &&
+		       a.iterations  == b.iterations                                          &&
+		       a.threshold   == b.threshold                                           &&
+		       a.smooth      == b.smooth                                              &&
+		       (a.seed == null ? b.seed == null : b.seed != null && a.seed.equals(b.seed)) &&
+		       a.fractal.equals(b.fractal)                                            &&
+		       a.order       == b.order                                               &&
+		       a.inverse     == b.inverse                                             &&
+		       a.orbitTraps.equals(b.orbitTraps)                                      &&
+		       a.regionSplits.equals(b.regionSplits)                                  &&
+		       a.subdivide   == b.subdivide                                           &&
+		       a.periodicity == b.periodicity                                         &&
+		       Calculable.getPrecision(a, size).equals(Calculable.getPrecision(b, size));
+	}
+
+	/**
+	 * Add the palette offset to every escaped point
+	 * @param data The fractal data, not changed as it may be shared
+	 * @param offset Iterations to add
+	 * @return The offset data
+	 */
+	protected static double[] offset(double[] data, double offset) {
+		if(offset == 0) return data;
+
+		double[] offsetData = new double[data.length];
+		for(int i = 0; i < data.length; i++) offsetData[i] = data[i] < 0 ? data[i] : data[i] + offset;
+		return offsetData;
+	}
+
+	protected static double[] get(Future<double[]> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while calculating a frame");
+		} catch (ExecutionException e) {
+			// Calculators don't throw checked exceptions, so this is a RuntimeException or an Error
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw (Error) e.getCause();
+		}
+	}
+
+	/**
+	 * Load keyframes, one per line, with the same options as a BatchRenderer manifest
+	 * @param file The file
+	 * @param defaults Options used by keyframes that don't give them
+	 * @return The animation
+	 * @throws IOException If the file, or a state it uses, can't be read
+	 */
+	protected static Animation loadKeyframes(File file, Map<String, String> defaults) throws IOException {
+		Animation animation = new Animation();
+
+		int number = 0;
+		for(String line : Files.readAllLines(file.toPath(), Charset.defaultCharset())) {
+			number++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+
+			try {
+				Map<String, String> options = BatchRenderer.parseOptions(BatchRenderer.splitLine(line), defaults);
+				animation.add(new Animation.Keyframe(
+					BatchRenderer.createState(options),
+					Integer.parseInt(BatchRenderer.get(options, "frames", "60")),
+					Double.parseDouble(BatchRenderer.get(options, "palette-offset", "0"))
+				));
+			} catch(IllegalArgumentException | IOException e) {
+				throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+			}
+		}
+
+		if(animation.getFrames() == 0) throw new IllegalArgumentException(file + " has no keyframes");
+		return animation;
+	}
+
+	/**
+	 * Get the file name of each PNG frame
+	 * @param output The output option, a String.format pattern or a name to number
+	 * @return A String.format pattern taking the frame number
+	 */
+	protected static String framePattern(String output) {
+		if(output.contains("%")) return output;
+
+		int dot = output.lastIndexOf(".");
+		return output.substring(0, dot) + "%05d" + output.substring(dot);
+	}
+
+	protected static boolean isVideo(String output) {
+		return output.equals("-") || output.toLowerCase().endsWith(".y4m");
+	}
+
+	public static void main(String[] args) throws Exception {
+		// We never want a display, set before anything touches AWT
+		System.setProperty("java.awt.headless", "true");
+
+		Map<String, String> options;
+		Animation           animation;
+		Dimension           size;
+		OutputStream        video = null;
+		try {
+			options = BatchRenderer.parseOptions(Arrays.asList(args), new HashMap<String, String>());
+			if(options.containsKey("help") || args.length == 0) {
+				System.out.println(USAGE);
+				return;
+			}
+
+			if(!options.containsKey("keyframes")) throw new IllegalArgumentException("No --keyframes given");
+			if(!options.containsKey("output"))    throw new IllegalArgumentException("No --output given");
+
+			// Video on standard output can't have anything else printed in the middle of it
+			if(options.get("output").equals("-")) {
+				video = System.out;
+				System.setOut(System.err);
+			}
+
+			BatchRenderer.setup(options);
+
+			Map<String, String> defaults = new HashMap<String, String>(options);
+			defaults.remove("keyframes");
+			defaults.remove("output");
+
+			animation = loadKeyframes(new File(options.get("keyframes")), defaults);
+			size      = BatchRenderer.parseSize(BatchRenderer.get(options, "size", "1920x1080"));
+
+			if(isVideo(options.get("output")) && (size.width % 2 != 0 || size.height % 2 != 0))
+				throw new IllegalArgumentException("Y4M frames must be an even size, not " + size.width + "x" + size.height);
+		} catch(IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		final String      output   = options.get("output");
+		AnimationRenderer renderer = new AnimationRenderer(animation, size);
+		long              time     = System.nanoTime();
+
+		if(isVideo(output)) {
+			OutputStream stream = video != null ? video : new FileOutputStream(output);
+			try(final Y4MStreamWriter writer = new Y4MStreamWriter(stream, size.width, size.height, Integer.parseInt(BatchRenderer.get(options, "fps", "30")))) {
+				renderer.render(new FrameWriter() {
+					@Override public void write(int frame, int[] argb) throws IOException {
+						writer.writeFrame(argb);
+					}
+				});
+			}
+		} else if(output.toLowerCase().endsWith(".png")) {
+			final String pattern = framePattern(output);
+			final int    width   = size.width, height = size.height;
+			renderer.render(new FrameWriter() {
+				@Override public void write(int frame, int[] argb) throws IOException {
+					try(PNGStreamWriter writer = new PNGStreamWriter(new FileOutputStream(String.format(pattern, frame)), width, height)) {
+						writer.writeRows(argb, 0, height);
+					}
+				}
+			});
+		} else {
+			System.err.println("Frames can only be written as PNGs or Y4M, not " + output);
+			System.exit(2);
+			return;
+		}
+
+		System.err.println("Rendered " + animation.getFrames() + " frames in " + (System.nanoTime() - time) / 1_000_000_000.0 + "s, " + renderer.getSeeded() + " reused pixels of an earlier frame");
+	}
+}
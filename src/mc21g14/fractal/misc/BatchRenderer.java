@@ -0,0 +1,386 @@
+package mc21g14.fractal.misc;
+
+import java.awt.Dimension;
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import mc21g14.fractal.calculable.*;
+import mc21g14.fractal.colorable.Colorable;
+
+/**
+ * Command line renderer, for rendering fractals on machines without a display.
+ * Running: java -cp FractalExplorer.jar mc21g14.fractal.misc.BatchRenderer --help
+ *
+ * @author Matthew Consterdine
+ */
+public class BatchRenderer {
+	protected static final String USAGE =
+		"Usage: BatchRenderer [options] --output <file>\n" +
+		"       BatchRenderer [options] --manifest <file>\n" +
+		"\n" +
+		"  --state <file>           A serialized FractalState, or a favourites.list\n" +
+		"  --index <n>              Which favourite to use from a favourites.list, default 0\n" +
+		"  --size <width>x<height>  Size of the image, default 1920x1080\n" +
+		"  --output <file>          Where to save the image, the extension picks the format\n" +
+		"  --manifest <file>        Render many jobs, one per line. Each line takes the options above\n" +
+		"                           and falls back to those given on the command line\n" +
+		"  --threads <n>            Number of jobs rendered at once, default 1\n" +
+		"  --calculator <name>      java, simd, opencl or deep, default is whichever works\n" +
+		"  --pool-size <n>          Threads the CPU calculators use, default one per core\n" +
+		"  --tile-size <n>          Smallest tile the CPU calculators split the image into, default 32\n" +
+		"  --checkpoint <file>      Save Buddha orbits here every so often, and carry on from it if it\n" +
+		"                           exists, so a long render survives a restart. One per job\n" +
+		"  --checkpoint-interval <n> Seconds between checkpoints, default 300\n" +
+		"  --tile-store <dir>       Keep images that were slow to calculate here, and reuse them\n" +
+		"  --tile-store-size <n>    Disk the tile store may use in megabytes, default 256\n" +
+		"\n" +
+		"  The state can also be given, or changed, with --fractal, --iterations, --threshold,\n" +
+		"  --order, --start, --end, --top, --bottom, --seed, --smooth, --inverse, --buddha,\n" +
+		"  --anti-buddha, --samples, --nebula, --orbit-traps, --region-splits, --subdivide,\n" +
+		"  --periodicity, --precision, --coloring and --invert. --nebula takes red, green and blue\n" +
+		"  iterations, such as 5000,500,50\n" +
+		"\n" +
+		"  Deep zooms need more digits than --start and friends hold, use --center-r and\n" +
+		"  --center-i instead, with --view-width and optionally --view-height\n" +
+		"\n" +
+		"  simd needs Java 16 or newer and --add-modules jdk.incubator.vector, see the README";
+
+	// Every option, so a typo is an error rather than quietly ignored
+	protected static final Set<String> OPTIONS = new HashSet<String>(Arrays.asList(
+		"state", "index", "size", "output", "manifest", "threads", "calculator", "pool-size", "tile-size",
+		"checkpoint", "checkpoint-interval", "tile-store", "tile-store-size",
+		"fractal", "iterations", "threshold", "order", "start", "end", "top", "bottom", "seed", "smooth",
+		"inverse", "buddha", "anti-buddha", "samples", "nebula", "orbit-traps", "region-splits", "subdivide",
+		"periodicity", "precision", "coloring", "invert", "center-r", "center-i", "view-width", "view-height"
+	));
+
+	/**
+	 * A single image to render
+	 */
+	protected static class Job {
+		public final FractalState state;
+		public final Dimension    size;
+		public final File         output;
+		public final File         checkpoint;
+		public final long         interval;
+
+		public Job(FractalState state, Dimension size, File output, File checkpoint, long interval) {
+			this.state      = state;
+			this.size       = size;
+			this.output     = output;
+			this.checkpoint = checkpoint;
+			this.interval   = interval;
+		}
+
+		@Override
+		public String toString() {
+			return output.getPath();
+		}
+	}
+
+	/**
+	 * Parse "--key value" pairs, later pairs replace earlier ones
+	 * @param args The arguments
+	 * @param defaults Options to start from, not modified
+	 * @return Map of keys, without the dashes, to values
+	 */
+	protected static Map<String, String> parseOptions(List<String> args, Map<String, String> defaults) {
+		Map<String, String> options = new LinkedHashMap<String, String>(defaults);
+
+		for(int i = 0; i < args.size(); i++) {
+			String key = args.get(i);
+			if(!key.startsWith("--")) throw new IllegalArgumentException("Expected an option, got " + key);
+			if(key.equals("--help")) {
+				options.put("help", "true");
+				continue;
+			}
+			if(!OPTIONS.contains(key.substring(2))) throw new IllegalArgumentException("Unknown option " + key);
+			if(i + 1 >= args.size()) throw new IllegalArgumentException("Missing value for " + key);
+			options.put(key.substring(2), args.get(++i));
+		}
+
+		return options;
+	}
+
+	/**
+	 * Split a manifest line into arguments. Double quotes can be used for values with spaces.
+	 * @param line The line
+	 * @return The arguments
+	 */
+	protected static List<String> splitLine(String line) {
+		List<String> args = new ArrayList<String>();
+		Matcher matcher = Pattern.compile("\"([^\"]*)\"|(\\S+)").matcher(line);
+		while(matcher.find()) args.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+		return args;
+	}
+
+	/**
+	 * Load a state from a file, either a single state or a favourites list
+	 * @param file The file
+	 * @param index Which state to use from a list
+	 * @return The state
+	 * @throws IOException If the file can't be read
+	 */
+	protected static FractalState loadState(File file, int index) throws IOException {
+		try(ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file))) {
+			Object object = stream.readObject();
+			if(object instanceof FractalState) return (FractalState) object;
+			if(object instanceof List) return ((FractalState) ((List<?>) object).get(index)).clone();
+			throw new IOException(file + " doesn't contain a FractalState");
+		} catch(ClassNotFoundException | ClassCastException | IndexOutOfBoundsException e) {
+			throw new IOException("Error loading " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Create a job from a set of options
+	 * @param options The options
+	 * @return The job
+	 * @throws IOException If a state file can't be read
+	 */
+	protected static Job createJob(Map<String, String> options) throws IOException {
+		if(!options.containsKey("output")) throw new IllegalArgumentException("No --output given");
+
+		return new Job(
+			createState(options), parseSize(get(options, "size", "1920x1080")), new File(options.get("output")),
+			options.containsKey("checkpoint") ? new File(options.get("checkpoint")) : null,
+			Long.parseLong(get(options, "checkpoint-interval", "300"))
+		);
+	}
+
+	/**
+	 * Create a state from a set of options
+	 * @param options The options
+	 * @return The state
+	 * @throws IOException If a state file can't be read
+	 */
+	protected static FractalState createState(Map<String, String> options) throws IOException {
+		FractalState state = options.containsKey("state")
+			? loadState(new File(options.get("state")), Integer.parseInt(get(options, "index", "0")))
+			: new FractalState();
+
+		// Explicit parameters replace those in the state
+		for(Map.Entry<String, String> option : options.entrySet()) {
+			String value = option.getValue();
+			switch(option.getKey()) {
+				case "fractal":       state.fractal      = value;                        break;
+				case "iterations":    state.iterations   = Integer.parseInt(value);      break;
+				case "threshold":     state.threshold    = Double.parseDouble(value);    break;
+				case "order":         state.order        = Integer.parseInt(value);      break;
+				case "start":         state.start        = Double.parseDouble(value);    break;
+				case "end":           state.end          = Double.parseDouble(value);    break;
+				case "top":           state.top          = Double.parseDouble(value);    break;
+				case "bottom":        state.bottom       = Double.parseDouble(value);    break;
+				case "smooth":        state.smooth       = Boolean.parseBoolean(value);  break;
+				case "inverse":       state.inverse      = Boolean.parseBoolean(value);  break;
+				case "buddha":        state.buddha       = Boolean.parseBoolean(value);  break;
+				case "anti-buddha":   state.antiBuddha   = Boolean.parseBoolean(value);  break;
+				case "samples":       state.samples      = Integer.parseInt(value);      break;
+				case "nebula":        state.nebula       = FractalState.parseNebula(value); break;
+				case "invert":        state.invert       = Boolean.parseBoolean(value);  break;
+				case "subdivide":     state.subdivide    = Boolean.parseBoolean(value);  break;
+				case "periodicity":   state.periodicity  = Double.parseDouble(value);    break;
+				case "precision":     state.precision    = parsePrecision(value);        break;
+				case "orbit-traps":   state.orbitTraps   = value;                        break;
+				case "region-splits": state.regionSplits = value;                        break;
+				case "coloring":      state.coloring     = parseColoring(value);         break;
+				case "seed":
+					state.seed = value.equalsIgnoreCase("none") ? null : Complex.parseString(value);
+					if(state.seed == null && !value.equalsIgnoreCase("none"))
+						throw new IllegalArgumentException("Invalid seed " + value);
+					break;
+			}
+		}
+
+		// A centre in full precision, for zooms deeper than the edges can describe
+		if(options.containsKey("center-r") || options.containsKey("center-i") || options.containsKey("view-width") || options.containsKey("view-height")) {
+			double width = options.containsKey("view-width") ? Double.parseDouble(options.get("view-width")) : state.getWidth();
+			state.setView(
+				options.containsKey("center-r") ? new BigDecimal(options.get("center-r")) : state.getCenterR(),
+				options.containsKey("center-i") ? new BigDecimal(options.get("center-i")) : state.getCenterI(),
+				width,
+				options.containsKey("view-height") ? Double.parseDouble(options.get("view-height")) : state.getHeight() * width / state.getWidth()
+			);
+		}
+
+		return state;
+	}
+
+	protected static Dimension parseSize(String value) {
+		String[] size = value.toLowerCase().split("x");
+		if(size.length != 2) throw new IllegalArgumentException("Invalid size " + value);
+		return new Dimension(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+	}
+
+	protected static Colorable parseColoring(String name) {
+		for(Colorable c : Colorable.getImplementations()) {
+			if(c.toString().equalsIgnoreCase(name)) return c;
+		}
+		throw new IllegalArgumentException("Unknown coloring " + name);
+	}
+
+	protected static String parsePrecision(String name) {
+		for(String p : Precision.getOptions()) {
+			if(p.equalsIgnoreCase(name)) return p;
+		}
+		throw new IllegalArgumentException("Unknown precision " + name);
+	}
+
+	protected static String get(Map<String, String> options, String key, String fallback) {
+		return options.containsKey(key) ? options.get(key) : fallback;
+	}
+
+	/**
+	 * Pick the calculator and set up the CPU calculators from the options
+	 * @param options The options
+	 * @throws Exception If the calculator can't be used
+	 */
+	protected static void setup(Map<String, String> options) throws Exception {
+		// Pick our backend
+		if(options.containsKey("calculator")) {
+			switch(options.get("calculator").toLowerCase()) {
+				case "opencl": Calculable.set(OpenCLCalculator.class);       break;
+				case "simd":   Calculable.set(SimdCalculator.class);         break;
+				case "deep":   Calculable.set(PerturbationCalculator.class); break;
+				case "java":   Calculable.set(JavaCalculator.class);         break;
+				default:       throw new IllegalArgumentException("Unknown calculator " + options.get("calculator"));
+			}
+		} else {
+			// Otherwise pick one now, rather than letting every job race to do it
+			Calculable.getImplemented();
+		}
+
+		// The CPU calculators share these between every job
+		if(options.containsKey("pool-size")) JavaCalculator.setThreads(Integer.parseInt(options.get("pool-size")));
+		if(options.containsKey("tile-size")) JavaCalculator.setTileSize(Integer.parseInt(options.get("tile-size")));
+
+		if(options.containsKey("tile-store")) {
+			TileStore.open(new File(options.get("tile-store")), Integer.parseInt(get(options, "tile-store-size", Integer.toString(TileStore.getBudget()))));
+		}
+	}
+
+	/**
+	 * Render a job and save it
+	 * @param job The job
+	 * @throws IOException If the image can't be written
+	 */
+	protected static void render(Job job) throws IOException {
+		String name   = job.output.getName();
+		String format = name.contains(".") ? name.substring(name.lastIndexOf(".") + 1) : "png";
+
+		// Long Buddha renders are calculated first, so they can carry on from a checkpoint
+		if(job.checkpoint != null && job.state.buddha) {
+			TiledExporter.checkSize(job.state, job.size);
+			double[] data = Calculable.calcSync(job.state, job.size, job.checkpoint, job.interval);
+			if(format.equalsIgnoreCase("png")) {
+				TiledExporter.export(job.state, data, job.size, job.output);
+			} else if(!ImageIO.write(FractalRenderer.toImage(job.state, data, job.size), format, job.output)) {
+				throw new IOException("No writer for " + format);
+			}
+			return;
+		}
+
+		// PNGs are streamed a band at a time, so they can be larger than the heap
+		if(format.equalsIgnoreCase("png")) {
+			TiledExporter.export(job.state, job.size, job.output);
+		} else if(!ImageIO.write(FractalRenderer.render(job.state, job.size), format, job.output)) {
+			throw new IOException("No writer for " + format);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// We never want a display, set before anything touches AWT
+		System.setProperty("java.awt.headless", "true");
+
+		Map<String, String> options;
+		try {
+			options = parseOptions(Arrays.asList(args), new HashMap<String, String>());
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		if(options.containsKey("help") || args.length == 0) {
+			System.out.println(USAGE);
+			return;
+		}
+
+		try {
+			setup(options);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		// Gather jobs, either the one described by the command line or every line in a manifest
+		List<Job> jobs = new ArrayList<Job>();
+		try {
+			if(options.containsKey("manifest")) {
+				Map<String, String> defaults = new HashMap<String, String>(options);
+				defaults.remove("manifest");
+
+				int number = 0;
+				for(String line : Files.readAllLines(new File(options.get("manifest")).toPath(), Charset.defaultCharset())) {
+					number++;
+					line = line.trim();
+					if(line.isEmpty() || line.startsWith("#")) continue;
+
+					try {
+						jobs.add(createJob(parseOptions(splitLine(line), defaults)));
+					} catch(IllegalArgumentException | IOException e) {
+						throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+					}
+				}
+			} else {
+				jobs.add(createJob(options));
+			}
+		} catch(IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			if(e instanceof IllegalArgumentException) System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		// Render them, a few at a time
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Integer.parseInt(get(options, "threads", "1"))));
+		Map<Job, Future<?>> futures = new LinkedHashMap<Job, Future<?>>();
+		for(final Job job : jobs) {
+			futures.put(job, executor.submit(new Callable<Void>() {
+				@Override public Void call() throws Exception {
+					long time = System.nanoTime();
+					render(job);
+					System.out.println("Rendered " + job + " in " + (System.nanoTime() - time) / 1_000_000_000.0 + "s using " + Calculable.getPrecision(job.state, job.size));
+					return null;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		int failed = 0;
+		for(Map.Entry<Job, Future<?>> future : futures.entrySet()) {
+			try {
+				future.getValue().get();
+			} catch(ExecutionException e) {
+				System.err.println("Error rendering " + future.getKey() + ": " + e.getCause());
+				failed++;
+			}
+		}
+
+		if(failed > 0) {
+			System.err.println(failed + " of " + jobs.size() + " jobs failed");
+			System.exit(1);
+		}
+	}
+}
@@ -3,9 +3,13 @@ package mc21g14.fractal.misc;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.EventListenerList;
 
 import mc21g14.fractal.calculable.*;
@@ -24,12 +28,57 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	protected FractalState state = new FractalState();
 	
 	protected Complex   selected      = null;
-	protected Complex   initial       = null;
-	protected Complex   current       = null;
+	// Corners of the rectangle being dragged, in pixels so they work at any zoom
+	protected Point     initial       = null;
+	protected Point     current       = null;
 	
 	protected Dimension lastSize      = getSize();
-	protected double[]  fractalData   = null;
-	protected Dimension fractalSize   = new Dimension(0, 0);
+	
+	// Written by the calculating threads, read by the recolorer and the event thread
+	protected volatile Snapshot snapshot = new Snapshot(null, new Dimension(0, 0));
+	
+	// The state the snapshot is the full resolution fractal of, or null if it's anything else,
+	// such as a low resolution pass, tiles, or out of date
+	protected volatile FractalState fractalState = null;
+	
+	// While a pan is being calculated, the full resolution data it's shifted from and how far,
+	// so more pans can carry on from it. Null once anything else is rendered.
+	protected double[]  shiftBase     = null;
+	protected int       shiftX        = 0;
+	protected int       shiftY        = 0;
+	
+	// The colored fractal. Repaints just draw it, it's only colored again when the data, the
+	// coloring or invert change
+	protected BufferedImage image     = null;
+	protected final AtomicLong colorings = new AtomicLong();
+	protected long      shown         = 0;
+	
+	// The last image shown, colored into next time rather than allocating a new one
+	protected BufferedImage spare     = null;
+	
+	// Coloring happens here rather than on the event thread, shared between every fractal
+	protected static final ExecutorService recolorer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Recolor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	// Shows whatever has been calculated
+	protected final Callback shower = new Callback() {
+		@Override public void callback(double[] data, Dimension size) {
+			snapshot = new Snapshot(data, size);
+
+			zoomReady     = true;
+			movementReady = true;
+			
+			recolor();
+		}
+	};
+	
+	// Views are made of tiles from here if it isn't null, otherwise they're calculated whole
+	protected TilePyramid pyramid = null;
 	
 	protected boolean   keypressReady = true;
 	protected boolean   movementReady = true;
@@ -50,7 +99,7 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 
 		// Pick our coloring
 		state.coloring.addActionListener(new ActionListener() {
-			@Override public void actionPerformed(ActionEvent e) {repaint();}});
+			@Override public void actionPerformed(ActionEvent e) {recolor();}});
 	}
 	
 	/**
@@ -65,6 +114,7 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	// Public Getters
 	public double       getBottom       () {return state.bottom;}
 	public boolean      isBuddha        () {return state.buddha;}
+	public boolean      isAntiBuddha    () {return state.antiBuddha;}
 	public Colorable    getColoring     () {return state.coloring;}
 	public double       getEnd          () {return state.end;}
 	public String       getFractal      () {return state.fractal;}
@@ -73,40 +123,52 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	public int          getIterations   () {return state.iterations;}
 	public String       getOrbitTraps   () {return state.orbitTraps;}
 	public int          getOrder        () {return state.order;}
+	public double       getPeriodicity  () {return state.periodicity;}
+	public String       getPrecision    () {return state.precision;}
+	public int[]        getNebula       () {return state.nebula;}
 	public String       getRegionSplits () {return state.regionSplits;}
+	public int          getSamples      () {return state.samples;}
 	public Complex      getSeed         () {return state.seed;}
 	public Complex      getSelected     () {return selected;}
 	public boolean      isSmooth        () {return state.smooth;}
 	public double       getStart        () {return state.start;}
+	public boolean      isSubdivide     () {return state.subdivide;}
 	public FractalState getState        () {return state;}
+	public boolean      isTiled         () {return pyramid != null;}
 	public double       getTop          () {return state.top;}
 	public double       getThreshold    () {return state.threshold;}
 
 	// Public Setters
 	public void setBottom (double  b) {state.bottom = b; regenerate();}
 	public void setBuddha (boolean b) {state.buddha = b; regenerate();}
+	public void setAntiBuddha(boolean a) {state.antiBuddha = a; regenerate();}
+	public void setSamples   (int     s) {state.samples    = s; regenerate();}
+	public void setNebula    (int[]   n) {state.nebula     = n; regenerate();}
 	
 	public void setColoring(Colorable c) {
 		state.coloring = c;
 		// A new listener is required.
 		c.addActionListener(new ActionListener() {
-			@Override public void actionPerformed(ActionEvent e) {repaint();}
+			@Override public void actionPerformed(ActionEvent e) {recolor();}
 		});
-		repaint();
+		recolor();
 	}
 	
 	public void setEnd           (double  e) {state.end           = e; regenerate();}
 	public void setFractal       (String  f) {state.fractal       = f; regenerate();}
 	public void setInverse       (boolean i) {state.inverse       = i; regenerate();}
-	public void setInvert        (boolean i) {state.invert        = i; repaint();   }
+	public void setInvert        (boolean i) {state.invert        = i; recolor();   }
 	public void setIterations    (int     i) {state.iterations    = i; regenerate();}
 	public void setOrbitTraps    (String  t) {state.orbitTraps    = t; regenerate();}
 	public void setOrder         (int     o) {state.order         = o; regenerate();}
+	public void setPeriodicity   (double  p) {state.periodicity   = p; regenerate();}
+	public void setPrecision     (String  p) {state.precision     = p; regenerate();}
 	public void setRegionSplits  (String  s) {state.regionSplits  = s; regenerate();}
 	public void setSeed          (Complex s) {state.seed          = s; regenerate();}
 	public void setSelected      (Complex s) {selected            = s; repaint();   }
 	public void setSmooth        (boolean s) {state.smooth        = s; regenerate();}
 	public void setStart         (double  s) {state.start         = s; regenerate();}
+	public void setSubdivide     (boolean s) {state.subdivide     = s; regenerate();}
 
 	public void setState(FractalState s) {
 		// We need to clone the state so it isn't shared. If you want it shared, set it.
@@ -115,6 +177,13 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 		regenerate();
 	}
 	
+	public void setTiled(boolean t) {
+		if(t == isTiled()) return;
+		if(pyramid != null) pyramid.clear();
+		pyramid = t ? new TilePyramid(shower) : null;
+		regenerate();
+	}
+	
 	public void setTop           (double  t) {state.top           = t; regenerate();}
 	public void setThreshold     (double  t) {state.threshold     = t; regenerate();}
 	
@@ -126,8 +195,8 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	 */
 	public static Complex getComplexFromPoint(Point p, Fractal f) {
 		return new Complex(
-			f.state.start + (f.state.end - f.state.start)  * p.getX() / f.getWidth(),
-			f.state.top   - (f.state.top - f.state.bottom) * p.getY() / f.getHeight()
+			f.state.getCenterR().doubleValue() + f.state.offsetR(p.getX(), f.getWidth()),
+			f.state.getCenterI().doubleValue() + f.state.offsetI(p.getY(), f.getHeight())
 		);
 	}
 
@@ -139,8 +208,8 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	 */
 	public static Point getPointFromComplex(Complex c, Fractal f) {
 		return new Point(
-			(int) (f.getWidth()  * (c.r - f.state.start) / (f.state.end    - f.state.start)),
-			(int) (f.getHeight() * (c.i - f.state.top)   / (f.state.bottom - f.state.top))
+			(int) (f.getWidth()  * ((c.r - f.state.getCenterR().doubleValue()) / f.state.getWidth()  + 0.5)),
+			(int) (f.getHeight() * ((c.i - f.state.getCenterI().doubleValue()) / f.state.getHeight() + 0.5))
 		);
 	}
 	
@@ -150,18 +219,18 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	public void regenerate() {
 		// If we have a size > 0
 		if(getWidth() > 0 && getHeight() > 0) {
-			// Render in a new thread
-			Calculable.calcAsync(state, getSize(), new Callback() {
-				@Override public void callback(double[] data, Dimension size) {
-					fractalSize = size;
-					fractalData = data;
-
-					zoomReady     = true;
-					movementReady = true;
-					
-					repaint();
-				}
-			});
+			// Render in a new thread, from tiles or a quick low resolution version first. Anything
+			// we were still rendering is cancelled, and the state is cloned as we keep changing ours
+			fractalState = null;
+			shiftBase    = null;
+			if(isShowingTiles()) {
+				Calculable.cancel(this);
+				pyramid.show(state.clone(), getSize());
+			} else {
+				if(pyramid != null) pyramid.clear();
+				FractalState target = state.clone();
+				Calculable.calcProgressive(this, target, getSize(), showerOf(target, getSize()));
+			}
 			
 			// Update our listeners
 			fireActionPerformed();
@@ -170,39 +239,44 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 		}
 	}
 	
+	/**
+	 * @return True if the view is made of tiles
+	 */
+	protected boolean isShowingTiles() {
+		return pyramid != null && TilePyramid.supports(state, getSize());
+	}
+	
+	/**
+	 * Get a callback that shows a whole frame, remembering the state once it's at full resolution
+	 * @param target The state being calculated
+	 * @param size The full resolution
+	 * @return The callback
+	 */
+	protected Callback showerOf(final FractalState target, final Dimension size) {
+		return new Callback() {
+			@Override public void callback(double[] data, Dimension dataSize) {
+				fractalState = null;
+				shower.callback(data, dataSize);
+				if(dataSize.equals(size)) fractalState = target;
+			}
+		};
+	}
+	
 	/**
 	 * Zoom into/out of the centre of the fractal
 	 * @param amount The amount we want to zoom
 	 */
 	public void zoom(double amount) {
-		double width  = state.end - state.start;
-		double height = state.top - state.bottom;
+		// Where the new edges are on screen
+		Point a = new Point((int) (-0.1 * amount * getWidth()),      (int) (-0.1 * amount * getHeight()));
+		Point b = new Point((int) ((1 + 0.1 * amount) * getWidth()), (int) ((1 + 0.1 * amount) * getHeight()));
 		
-		Point a = getPointFromComplex(new Complex(
-			state.start  - 0.1 * width  * amount,
-			state.top    + 0.1 * height * amount
-		), this);
-		Point b = getPointFromComplex(new Complex(
-			state.end    + 0.1 * width  * amount,
-			state.bottom - 0.1 * height * amount
-		), this);
-		
-		state.start  -= 0.1 * width  * amount;
-		state.end    += 0.1 * width  * amount;
-		state.top    += 0.1 * height * amount;
-		state.bottom -= 0.1 * height * amount;
+		state.zoom(1 + 0.2 * amount);
 		
 		// Fake zoom in, to make it look more responsive.
-		if(zoomReady && fractalData != null) {
+		if(zoomReady && snapshot.data != null) {
 			zoomReady = false;
-			fractalData = sectionOf(
-				fractalData,
-				fractalSize.width,
-				new Rectangle(
-					Math.min(a.x,  b.x), Math.min(a.y,  b.y), 
-					Math.abs(b.x - a.x), Math.abs(b.y - a.y))
-			);
-			fractalSize = new Dimension(Math.abs(b.x - a.x), Math.abs(b.y - a.y));
+			showSection(a, b);
 			
 			regenerate();
 		}
@@ -211,35 +285,42 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	}
 	
 	public void move(Complex complex) {
-		double width  = state.end - state.start;
-		double height = state.top - state.bottom;
+		// Move by whole pixels, so whatever stays in view can be shifted rather than calculated
+		int   dx = (int) Math.round(-0.1 * complex.r * getWidth());
+		int   dy = (int) Math.round(-0.1 * complex.i * getHeight());
+		Point a  = new Point(dx, dy);
+		Point b  = new Point(getWidth() + dx, getHeight() + dy);
 		
-		Point a = getPointFromComplex(new Complex(
-			state.start  - width  * complex.r * 0.1,
-			state.top    + height * complex.i * 0.1
-		), this);
-		Point b = getPointFromComplex(new Complex(
-			state.end    - width  * complex.r * 0.1,
-			state.bottom + height * complex.i * 0.1
-		), this);
+		// Read before anything changes, it's only the last state while nothing new is rendering
+		FractalState last   = fractalState;
+		Snapshot     latest = snapshot;
+		double[]     data   = latest.data;
 		
-		state.end    -= width  * complex.r * 0.1;
-		state.start  -= width  * complex.r * 0.1;
-		state.bottom += height * complex.i * 0.1;
-		state.top    += height * complex.i * 0.1;
+		state.translate(dx * state.getWidth() / getWidth(), dy * state.getHeight() / getHeight());
 
-		// Fake move, to make it look more responsive.
-		if(movementReady && fractalData != null) {
+		boolean full    = last != null && data != null && data.length == getWidth() * getHeight() && latest.size.equals(getSize());
+		boolean pending = shiftBase != null && shiftBase.length == getWidth() * getHeight();
+		if((full || pending) && !state.buddha && !isShowingTiles()) {
+			// Only the rows and columns that came into view are calculated. If the last pan is
+			// still being calculated, this one carries on from the same data instead.
+			if(full) {
+				shiftBase = data;
+				shiftX    = dx;
+				shiftY    = dy;
+			} else {
+				shiftX += dx;
+				shiftY += dy;
+			}
+			
+			fractalState = null;
+			FractalState target = state.clone();
+			Calculable.calcShifted(this, target, getSize(), shiftBase, shiftX, shiftY, showerOf(target, getSize()));
+			fireActionPerformed();
+		} else if(movementReady && data != null) {
+			// Fake move, to make it look more responsive.
 			movementReady = false;
 			
-			fractalData = sectionOf(
-				fractalData,
-				fractalSize.width,
-				new Rectangle(
-					Math.min(a.x,  b.x), Math.min(a.y,  b.y), 
-					Math.abs(b.x - a.x), Math.abs(b.y - a.y))
-			);
-			fractalSize = new Dimension(Math.abs(b.x - a.x), Math.abs(b.y - a.y));
+			showSection(a, b);
 			
 			regenerate();
 		}
@@ -248,15 +329,96 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	}
 	
 	/**
-	 * Invert an int array
-	 * @param input The int array
-	 * @param max The max
-	 * @return Inverted in array
+	 * Replace the fractal data with the part of it between two points, so it can be shown
+	 * stretched while the real thing is calculated
+	 * @param a A point on screen
+	 * @param b The opposite point on screen
 	 */
-	public static int[] invertArray(int[] input, int max) {
-		int[] array = new int[input.length];
-		for(int i = 0; i < array.length; i++) array[i] = max - input[i];
-		return array;
+	protected void showSection(Point a, Point b) {
+		Snapshot latest = snapshot;
+		
+		// The data may be a lower resolution than the screen, during a progressive pass
+		double scaleX = latest.size.getWidth()  / getWidth();
+		double scaleY = latest.size.getHeight() / getHeight();
+		
+		Rectangle bounds = new Rectangle(
+			(int) (Math.min(a.x,  b.x) * scaleX), (int) (Math.min(a.y,  b.y) * scaleY),
+			(int) (Math.abs(b.x - a.x) * scaleX), (int) (Math.abs(b.y - a.y) * scaleY)
+		);
+		
+		// Nebulabrots have a plane for each channel, one after the other
+		int pixels = latest.size.width * latest.size.height;
+		if(latest.data.length == pixels) {
+			snapshot = new Snapshot(sectionOf(latest.data, latest.size.width, bounds), bounds.getSize());
+		} else {
+			int      planes  = latest.data.length / pixels;
+			int      section = bounds.width * bounds.height;
+			double[] data    = new double[planes * section];
+			for(int plane = 0; plane < planes; plane++) {
+				double[] channel = Arrays.copyOfRange(latest.data, plane * pixels, (plane + 1) * pixels);
+				System.arraycopy(sectionOf(channel, latest.size.width, bounds), 0, data, plane * section, section);
+			}
+			snapshot = new Snapshot(data, bounds.getSize());
+		}
+		recolor();
+	}
+	
+	/**
+	 * Color the fractal data again in the background, then repaint. If this is called again
+	 * before it's done, only the latest coloring is shown.
+	 */
+	protected void recolor() {
+		final Snapshot     latest     = snapshot;
+		final double[]     data       = latest.data;
+		final Dimension    size       = latest.size;
+		final FractalState coloring   = state.clone();
+		final long         generation = colorings.incrementAndGet();
+		if(data == null || size.width <= 0 || size.height <= 0) return;
+		
+		recolorer.execute(new Runnable() {
+			@Override public void run() {
+				// Something newer is already waiting, so this would never be seen
+				if(colorings.get() != generation) return;
+				
+				BufferedImage reused;
+				synchronized(colorings) {
+					reused = spare;
+					spare  = null;
+				}
+				
+				final BufferedImage colored = FractalRenderer.toImage(coloring, data, size, reused);
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override public void run() {
+						// Whichever image isn't shown any more can be colored into next time
+						BufferedImage unused = colored;
+						if(generation > shown) {
+							unused = image;
+							shown  = generation;
+							image  = colored;
+							repaint();
+						}
+						synchronized(colorings) {
+							spare = unused;
+						}
+					}
+				});
+			}
+		});
+	}
+	
+	
+	/**
+	 * Calculated data and the size it was calculated at. Replaced whole rather than changed, so
+	 * nothing ever sees the data of one frame with the size of another.
+	 */
+	protected static class Snapshot {
+		protected final double[]  data;
+		protected final Dimension size;
+		
+		public Snapshot(double[] data, Dimension size) {
+			this.data = data;
+			this.size = new Dimension(size);
+		}
 	}
 	
 	/**
@@ -292,29 +454,8 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 		// If the size has changed, calculate
 		if(lastSize == null || !getSize().equals(lastSize)) regenerate();
 		
-		// Ensure we have a fractal
-		while(fractalData == null) {
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException ignored) {}
-		}
-		
-		// draw it
-		if(fractalSize.width <= 0 || fractalSize.height <= 0) return;
-		
-		BufferedImage image = new BufferedImage(
-			(int) fractalSize.getWidth(),
-			(int) fractalSize.getHeight(),
-			BufferedImage.TYPE_INT_RGB
-		);
-		image.getRaster().setPixels(
-			0, 0,
-			(int) fractalSize.getWidth(),
-			(int) fractalSize.getHeight(),
-			state.invert
-				? invertArray(state.coloring.iterationsToRGB(fractalData, fractalSize.getWidth(), state.iterations), 255)
-				: state.coloring.iterationsToRGB(fractalData, fractalSize.getWidth(), state.iterations));
-		g2d.drawImage(image,
+		// Draw it, once it's been colored
+		if(image != null) g2d.drawImage(image,
 			0, 0, getWidth(),       getHeight(),
 			0, 0, image.getWidth(), image.getHeight(),
 			null
@@ -322,8 +463,8 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 		
 		// Draw selection
 		if(initial != null && current != null) {
-			Point a = getPointFromComplex(initial, this);
-			Point b = getPointFromComplex(current, this);
+			Point a = initial;
+			Point b = current;
 			Rectangle rectangle = new Rectangle(Math.min(a.x,  b.x), Math.min(a.y,  b.y),
 				                                  Math.abs(a.x - b.x), Math.abs(a.y - b.y));
 			g2d.setColor(getForeground());
@@ -376,14 +517,14 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		if(initial == null) current = initial = getComplexFromPoint(e.getPoint(), this);
+		if(initial == null) current = initial = e.getPoint();
 		
 		// Maths to ensure that the current point always makes a rectangle with the ratio.
 		double ratio = 1.0 * Math.max(
 			getWidth(), getHeight()) / Math.min(getWidth(),
 			getHeight()
 		);
-		Point  point = getPointFromComplex(initial, this);
+		Point  point = initial;
 
 		// Need to handle both orientations
 		if(getWidth() > getHeight()) {
@@ -391,19 +532,19 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 				(int) (Math.abs(e.getX() - point.x) / ratio),
 				(int) (Math.abs(e.getY() - point.y))
 			);
-			current = getComplexFromPoint(new Point(
+			current = new Point(
 				(int) (point.x + (e.getX() > point.x ? 1 : -1) * max * ratio),
 				(int) (point.y + (e.getY() > point.y ? 1 : -1) * max)
-			), this);
+			);
 		} else {
 			int max = Math.max(
 				(int) (Math.abs(e.getX() - point.x)),
 				(int) (Math.abs(e.getY() - point.y) / ratio)
 			);
-			current = getComplexFromPoint(new Point(
+			current = new Point(
 				(int) (point.x + (e.getX() > point.x ? 1 : -1) * max),
 				(int) (point.y + (e.getY() > point.y ? 1 : -1) * max * ratio)
-			), this);
+			);
 		}
 
 		repaint();
@@ -418,24 +559,14 @@ public class Fractal extends JPanel implements MouseListener, MouseMotionListene
 	@Override
 	public void mouseReleased(MouseEvent e) {
 		if(initial != null && current != null) {
-			Point a = getPointFromComplex(initial, this);
-			Point b = getPointFromComplex(current, this);
+			Point a = initial;
+			Point b = current;
 			if(Math.sqrt(Math.pow(a.x - b.x, 2) + Math.pow(a.y - b.y, 2)) > 10) {
-				state.start  = Math.min(initial.r, current.r);
-				state.end    = Math.max(initial.r, current.r);
-				state.top    = Math.min(initial.i, current.i);
-				state.bottom = Math.max(initial.i, current.i);
+				state.zoomTo(getSize(), Math.min(a.x, b.x), Math.min(a.y, b.y), Math.max(a.x, b.x), Math.max(a.y, b.y));
 				
 				// Fake zoom in, to make it look more responsive.
-				if(fractalData != null) {
-					fractalData = sectionOf(
-						fractalData,
-						fractalSize.width,
-						new Rectangle(
-							Math.min(a.x,  b.x), Math.min(a.y,  b.y), 
-							Math.abs(b.x - a.x), Math.abs(b.y - a.y))
-					);
-					fractalSize = new Dimension(Math.abs(b.x - a.x), Math.abs(b.y - a.y));
+				if(snapshot.data != null) {
+					showSection(a, b);
 					
 					regenerate();
 				}
@@ -3,7 +3,6 @@ package mc21g14.fractal.misc;
 import java.awt.*;
 import java.awt.Window.Type;
 import java.awt.event.*;
-import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
 
@@ -23,6 +22,9 @@ import mc21g14.fractal.calculable.*;
 public class FractalExplorer {
 	protected int  padding = 10;
 	protected File file    = new File("favourites.list");
+	// Slow fractals are kept in the home folder, -Dfractal.tiles=<dir> keeps them somewhere else
+	protected File tiles   = new File(System.getProperty("fractal.tiles",
+		System.getProperty("user.home") + File.separator + ".fractal-explorer" + File.separator + "tiles"));
 
 	protected Fractal       fractal;
 	protected Fractal       julia;
@@ -182,29 +184,19 @@ public class FractalExplorer {
 									size = fractal.getSize();
 								}
 							
-								// Storage
-								BufferedImage image = new BufferedImage(
-									(int) size.getWidth(),
-									(int) size.getHeight(),
-									BufferedImage.TYPE_INT_RGB
-								);
-								
-								// Paint the image
-								Fractal temp = new Fractal(fractal.getState());
-								temp.setSize(size);
-								temp.regenerate();
-								temp.paintComponent(image.createGraphics());
-								
 								// Need to ensure that the file we are saving has an extension.
 								String file = exportChooser.getSelectedFile().getPath();
 								if(!file.contains(".")) file += ".png";
+								String format = file.substring(file.lastIndexOf(".") + 1);
 								
 								try {
-									ImageIO.write(
-										image,
-										file.substring(file.lastIndexOf(".") + 1),
-										new File(file)
-									);
+									if(format.equalsIgnoreCase("png")) {
+										// Streamed a band at a time, so the size isn't limited by memory
+										TiledExporter.export(fractal.getState(), size, new File(file));
+									} else {
+										// Other formats need the whole image, rendered directly
+										ImageIO.write(FractalRenderer.render(fractal.getState(), size), format, new File(file));
+									}
 									// Open the saved image or display a popup.
 									if(open) {
 										Desktop.getDesktop().open(new File(file));
@@ -219,7 +211,7 @@ public class FractalExplorer {
 								} catch (IOException ioe) {
 									JOptionPane.showMessageDialog(
 										null,
-										"Error writing image to " + file,
+										"Error writing image to " + file + (ioe.getMessage() != null ? "\n" + ioe.getMessage() : ""),
 										"Error",
 										JOptionPane.ERROR_MESSAGE
 									);
@@ -357,6 +349,13 @@ public class FractalExplorer {
 		// Load our favourites
 		favourites = loadFavourites(file);
 		
+		// Slow fractals from earlier sessions, favourites are shown straight away if they're here
+		try {
+			TileStore.open(tiles, TileStore.getBudget());
+		} catch (IOException e) {
+			System.err.println("Error opening the tile store, slow fractals won't be kept: " + e.getMessage());
+		}
+		
 		// Create our frames
 		fractalFrame  = new FractalFrame(this);
 		settingsFrame = new FractalSettingsFrame(this);
@@ -0,0 +1,160 @@
+package mc21g14.fractal.misc;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import mc21g14.fractal.calculable.Calculable;
+
+/**
+ * Renders fractals straight to images, without going through any Swing components. Works with
+ * java.awt.headless=true.
+ *
+ * @author Matthew Consterdine
+ */
+public class FractalRenderer {
+	// Colors bands of an image at once. Daemon threads, so they never keep the program open
+	protected static final ExecutorService colorers = Executors.newFixedThreadPool(
+		Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Coloring");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}
+	);
+	
+	// Images smaller than this are colored on the calling thread, it's quicker than handing out bands
+	protected static final int parallelPixels = 1 << 16;
+	
+	// Steps in the brightness of a Nebulabrot channel
+	protected static final int LEVELS = 1 << 12;
+	
+	/**
+	 * Render a fractal to an image on the current thread
+	 * @param state The fractal state we want to render
+	 * @param size The size of the image
+	 * @return The image
+	 */
+	public static BufferedImage render(FractalState state, Dimension size) {
+		return toImage(state, Calculable.calcSync(state, size), size);
+	}
+
+	/**
+	 * Color fractal data and store it in an image
+	 * @param state The fractal state, used for the coloring
+	 * @param data The fractal data
+	 * @param size The size of the data
+	 * @return The image
+	 */
+	public static BufferedImage toImage(FractalState state, double[] data, Dimension size) {
+		return toImage(state, data, size, null);
+	}
+
+	/**
+	 * Color fractal data straight into the pixels of an image, reusing it if it's the right size
+	 * @param state The fractal state, used for the coloring
+	 * @param data The fractal data
+	 * @param size The size of the data
+	 * @param image An image to reuse, or null
+	 * @return The image, a new one if the one given couldn't be used
+	 */
+	public static BufferedImage toImage(FractalState state, double[] data, Dimension size, BufferedImage image) {
+		if(image == null || image.getType() != BufferedImage.TYPE_INT_RGB || image.getWidth() != size.width || image.getHeight() != size.height)
+			image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+
+		color(state, data, size, ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+		return image;
+	}
+
+	/**
+	 * Color fractal data, inverting it if the state asks for it
+	 * @param state The fractal state, used for the coloring
+	 * @param data The fractal data
+	 * @param size The size of the data
+	 * @return Packed ARGB colors, one int per pixel
+	 */
+	public static int[] color(FractalState state, double[] data, Dimension size) {
+		int[] argb = new int[size.width * size.height];
+		color(state, data, size, argb);
+		return argb;
+	}
+
+	/**
+	 * Color fractal data into an array, inverting it if the state asks for it. Big images are
+	 * colored a band of rows at a time on every core.
+	 * @param state The fractal state, used for the coloring
+	 * @param data The fractal data
+	 * @param size The size of the data
+	 * @param argb Where to store packed ARGB colors, one int per pixel
+	 */
+	public static void color(final FractalState state, final double[] data, final Dimension size, final int[] argb) {
+		// Nebulabrots have a plane of data for each of red, green and blue
+		if(data.length == 3 * argb.length) {
+			colorChannels(state, data, argb);
+			return;
+		}
+
+		if(data.length < parallelPixels || size.height < 2) {
+			state.coloring.iterationsToARGB(data, size.width, 0, data.length, state.iterations, state.invert, argb);
+			return;
+		}
+
+		int bands = Math.min(size.height, 4 * Runtime.getRuntime().availableProcessors());
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int band = 0; band < bands; band++) {
+			final int from = size.height * band       / bands * size.width;
+			final int to   = size.height * (band + 1) / bands * size.width;
+			tasks.add(new Callable<Void>() {
+				@Override public Void call() {
+					state.coloring.iterationsToARGB(data, size.width, from, to, state.iterations, state.invert, argb);
+					return null;
+				}
+			});
+		}
+
+		try {
+			for(Future<Void> future : colorers.invokeAll(tasks)) future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Colorings don't throw checked exceptions, so this is a RuntimeException or an Error
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw (Error) e.getCause();
+		}
+	}
+
+	/**
+	 * Color a Nebulabrot, each plane of data is the brightness of a channel. The coloring of the
+	 * state isn't used. Brightness goes up with the square root of the data, as a few pixels are
+	 * far brighter than the rest and would leave everything else dark.
+	 * @param state The fractal state, for the iterations and whether to invert
+	 * @param data The fractal data, a plane of red, then green, then blue
+	 * @param argb Where to store packed ARGB colors, one int per pixel
+	 */
+	protected static void colorChannels(FractalState state, double[] data, int[] argb) {
+		int pixels = argb.length;
+		int invert = state.invert ? 0x00FFFFFF : 0;
+
+		// Data is scaled so the brightest pixels are about the iterations, see BuddhaEngine
+		// A square root for every channel of every pixel is slow, so they are looked up. Plenty of
+		// steps, as the square root is steepest for the faint pixels that most of the image is
+		int[] levels = new int[LEVELS + 1];
+		for(int i = 0; i < levels.length; i++) levels[i] = (int) Math.round(255 * Math.sqrt((double) i / LEVELS));
+
+		for(int i = 0; i < pixels; i++) {
+			int r = levels[level(data[i],              state.iterations)];
+			int g = levels[level(data[i + pixels],     state.iterations)];
+			int b = levels[level(data[i + 2 * pixels], state.iterations)];
+			argb[i] = (0xFF000000 | r << 16 | g << 8 | b) ^ invert;
+		}
+	}
+
+	protected static int level(double value, int iterations) {
+		return value >= iterations ? LEVELS : value > 0 ? (int) (LEVELS * value / iterations) : 0;
+	}
+}
@@ -26,6 +26,11 @@ import javax.swing.border.EmptyBorder;
 import mc21g14.fractal.calculable.Calculable;
 import mc21g14.fractal.calculable.JavaCalculator;
 import mc21g14.fractal.calculable.OpenCLCalculator;
+import mc21g14.fractal.calculable.PerturbationCalculator;
+import mc21g14.fractal.calculable.Precision;
+import mc21g14.fractal.calculable.ResultCache;
+import mc21g14.fractal.calculable.SimdCalculator;
+import mc21g14.fractal.calculable.TileStore;
 import mc21g14.fractal.colorable.Colorable;
 
 /**
@@ -69,22 +74,37 @@ public class FractalSettingsFrame extends JFrame {
 		// We want the headings to stand out, hence this font
 		Font headingFont = new JLabel().getFont().deriveFont(20f);
 		
-		JPanel calculatorPanel   = new JPanel(new GridLayout(1, 2));
+		JPanel calculatorPanel   = new JPanel(new GridLayout(1, 4));
 		calculatorPanel.setBorder(new EmptyBorder(fractalExplorer.padding, fractalExplorer.padding, fractalExplorer.padding, fractalExplorer.padding));
 		calculatorPanel.setBackground(Colors.foreground);
 		ButtonGroup  calculator  = new ButtonGroup();
 		final JRadioButton javaRadio   = new JRadioButton("CPU", Calculable.get() == JavaCalculator.class);
 		final JRadioButton openclRadio = new JRadioButton("GPU", Calculable.get() == OpenCLCalculator.class);
+		final JRadioButton simdRadio   = new JRadioButton("SIMD", Calculable.get() == SimdCalculator.class);
+		final JRadioButton deepRadio   = new JRadioButton("Deep", Calculable.get() == PerturbationCalculator.class);
 		javaRadio.setToolTipText("Usually slower than using the GPU, especially on a desktop");
+		deepRadio.setToolTipText("For zooming in a long way. Only order 2 Mandlebrot, anything else uses the CPU");
+		simdRadio.setToolTipText(SimdCalculator.isAvailable() ?
+			"The CPU, several pixels at once. Only order 2 Mandlebrot, Burning Ship and Tricorn" :
+			"Needs Java 16 or newer, started with --add-modules jdk.incubator.vector");
+		simdRadio.setEnabled(SimdCalculator.isAvailable());
+		simdRadio.setHorizontalAlignment(JRadioButton.CENTER);
+		deepRadio.setHorizontalAlignment(JRadioButton.CENTER);
 		openclRadio.setHorizontalAlignment(JRadioButton.RIGHT);
 		openclRadio.setHorizontalTextPosition(JLabel.LEFT);
 		javaRadio.setOpaque(false);
 		openclRadio.setOpaque(false);
+		simdRadio.setOpaque(false);
+		deepRadio.setOpaque(false);
 		
 		calculator.add(javaRadio);
+		calculator.add(simdRadio);
+		calculator.add(deepRadio);
 		calculator.add(openclRadio);
 		
 		calculatorPanel.add(javaRadio);
+		calculatorPanel.add(simdRadio);
+		calculatorPanel.add(deepRadio);
 		calculatorPanel.add(openclRadio);
 		
 		// Fill the list of fractals
@@ -108,20 +128,33 @@ public class FractalSettingsFrame extends JFrame {
 		final JTextField fractalSettingIterations   = new JTextField(Integer.toString(fractalExplorer.fractal.getIterations()));
 		final JTextField fractalSettingThreshold    = new JTextField(String.format("%.7f", fractalExplorer.fractal.getThreshold()));
 		final JTextField fractalSettingOrder        = new JTextField(Integer.toString(fractalExplorer.fractal.getOrder()));
+		final JTextField fractalSettingPeriodicity  = new JTextField(Double.toString(fractalExplorer.fractal.getPeriodicity()));
 		final JCheckBox  fractalSettingInverse      = new JCheckBox("", fractalExplorer.fractal.isInverse());
 		final JCheckBox  fractalSettingBuddha       = new JCheckBox("", fractalExplorer.fractal.isBuddha());
+		final JCheckBox  fractalSettingAntiBuddha   = new JCheckBox("", fractalExplorer.fractal.isAntiBuddha());
+		final JTextField fractalSettingSamples      = new JTextField(Integer.toString(fractalExplorer.fractal.getSamples()));
+		final JTextField fractalSettingNebula       = new JTextField(FractalState.formatNebula(fractalExplorer.fractal.getNebula()));
 		final JCheckBox  fractalSettingSmooth       = new JCheckBox("", fractalExplorer.fractal.isSmooth());
 		final JCheckBox  fractalSettingInvert       = new JCheckBox("", fractalExplorer.fractal.isInvert());
+		final JCheckBox  fractalSettingSubdivide    = new JCheckBox("", fractalExplorer.fractal.isSubdivide());
 		final JCheckBox  liveJulia                  = new JCheckBox("", fractalExplorer.liveJuliaUpdates);
+		final JCheckBox  tiledView                  = new JCheckBox("", fractalExplorer.fractal.isTiled());
+		final JTextField calculatorThreads          = new JTextField(Integer.toString(JavaCalculator.getThreads()));
+		final JTextField calculatorTileSize         = new JTextField(Integer.toString(JavaCalculator.getTileSize()));
+		final JTextField cacheBudget                = new JTextField(Integer.toString(ResultCache.getBudget()));
+		final JTextField tileStoreBudget            = new JTextField(Integer.toString(TileStore.getBudget()));
 		
 		final JComboBox<String> fractalSettingOrbitTraps  = new JComboBox<String>();
 		final JComboBox<String> fractalSettingRegionSplit = new JComboBox<String>();
+		final JComboBox<String> fractalSettingPrecision   = new JComboBox<String>();
 		
 		for(String s : new String[] {"None", "Cross", "Dots"}) fractalSettingOrbitTraps.addItem(s);
 		for(String s : new String[] {"None", "Iterations", "Axis"}) fractalSettingRegionSplit.addItem(s);
+		for(String s : Precision.getOptions()) fractalSettingPrecision.addItem(s);
 		
 		fractalSettingOrbitTraps.setSelectedItem(fractalExplorer.fractal.getOrbitTraps());
 		fractalSettingRegionSplit.setSelectedItem(fractalExplorer.fractal.getRegionSplits());
+		fractalSettingPrecision.setSelectedItem(fractalExplorer.fractal.getPrecision());
 
 		fractalSettingOrbitTraps.setEnabled(!fractalSettingBuddha.isSelected());
 		fractalSettingRegionSplit.setEnabled(fractalSettingOrbitTraps.getSelectedIndex() != 0 && !fractalSettingBuddha.isSelected());
@@ -129,9 +162,31 @@ public class FractalSettingsFrame extends JFrame {
 		JLabel fractalSettingInverseLabel = new JLabel("Inverse Base");
 		fractalSettingInverseLabel.setToolTipText("Inverse the inital seed/base value to prduce an inverse image.");
 		JLabel fractalSettingBuddhaLabel  = new JLabel("Buddha");
-		fractalSettingBuddhaLabel.setToolTipText("Due to how this is calculated, zooming won't work as you imagine.");
+		fractalSettingBuddhaLabel.setToolTipText("Counts the orbits passing through each pixel rather than how long each pixel takes to escape.");
+		JLabel fractalSettingAntiBuddhaLabel = new JLabel("Anti-Buddha");
+		fractalSettingAntiBuddhaLabel.setToolTipText("Buddha traces the orbits that never escape instead of those that do.");
+		JLabel fractalSettingSamplesLabel = new JLabel("Buddha Samples");
+		fractalSettingSamplesLabel.setToolTipText("Orbits Buddha traces per pixel, more is smoother but slower. 0 for the default.");
+		JLabel fractalSettingNebulaLabel = new JLabel("Nebula Iterations");
+		fractalSettingNebulaLabel.setToolTipText("Red, green and blue iterations, such as 5000, 500, 50, to color Buddha by how long orbits take to escape. None for one color.");
 		JLabel fractalSettingSmoothLabel  = new JLabel("Smoothing");
 		fractalSettingSmoothLabel.setToolTipText("We pretend the difference between two iterations is linear to produce a pretty image.");
+		JLabel fractalSettingPeriodicityLabel = new JLabel("Periodicity Tolerance");
+		fractalSettingPeriodicityLabel.setToolTipText("Orbits that come this close to an earlier point are treated as never escaping. Negative to turn off.");
+		JLabel fractalSettingPrecisionLabel = new JLabel("Precision");
+		fractalSettingPrecisionLabel.setToolTipText("Floats are fastest, Double-Double goes deepest. Auto picks from the zoom, only order 2 Mandlebrot, Burning Ship and Tricorn use anything but Double.");
+		JLabel calculatorThreadsLabel = new JLabel("Threads");
+		calculatorThreadsLabel.setToolTipText("Number of threads the CPU, SIMD and Deep calculators use, usually one per core.");
+		JLabel calculatorTileSizeLabel = new JLabel("Tile Size");
+		calculatorTileSizeLabel.setToolTipText("Smallest tile in pixels. Slow parts of the last image are split down to this, so every thread has work until the end.");
+		JLabel cacheBudgetLabel = new JLabel("Cache (MB)");
+		cacheBudgetLabel.setToolTipText("Memory kept for recently seen fractals, so going back to one is instant. 0 turns it off.");
+		JLabel tileStoreBudgetLabel = new JLabel("Tile Store (MB)");
+		tileStoreBudgetLabel.setToolTipText("Disk kept for fractals that were slow to calculate, so they are quick next time the program is run too. 0 turns it off.");
+		JLabel tiledViewLabel = new JLabel("Tiled View");
+		tiledViewLabel.setToolTipText("Make the view from tiles that are kept as you pan and zoom, so only new tiles are calculated. Tiles are scaled by nearest neighbour and aren't drawn progressively. Buddha is always calculated whole.");
+		JLabel fractalSettingSubdivideLabel = new JLabel("Subdivide (Lossy)");
+		fractalSettingSubdivideLabel.setToolTipText("Fill rectangles with the same iterations all around their edge. Faster, but lossy: detail thinner than a pixel can be filled over.");
 		
 		gridSettings.setBorder(new EmptyBorder(fractalExplorer.padding, fractalExplorer.padding, fractalExplorer.padding, fractalExplorer.padding));
 		gridSettings.setBackground(Colors.foreground);
@@ -151,6 +206,10 @@ public class FractalSettingsFrame extends JFrame {
 		gridSettings.add(fractalSettingThreshold);
 		gridSettings.add(new JLabel("Order"));
 		gridSettings.add(fractalSettingOrder);
+		gridSettings.add(fractalSettingPeriodicityLabel);
+		gridSettings.add(fractalSettingPeriodicity);
+		gridSettings.add(fractalSettingPrecisionLabel);
+		gridSettings.add(fractalSettingPrecision);
 		gridSettings.add(new JLabel("Orbit Traps"));
 		gridSettings.add(fractalSettingOrbitTraps);
 		gridSettings.add(new JLabel("Region Splits"));
@@ -159,12 +218,30 @@ public class FractalSettingsFrame extends JFrame {
 		gridSettings.add(fractalSettingInverse);
 		gridSettings.add(fractalSettingBuddhaLabel);
 		gridSettings.add(fractalSettingBuddha);
+		gridSettings.add(fractalSettingAntiBuddhaLabel);
+		gridSettings.add(fractalSettingAntiBuddha);
+		gridSettings.add(fractalSettingSamplesLabel);
+		gridSettings.add(fractalSettingSamples);
+		gridSettings.add(fractalSettingNebulaLabel);
+		gridSettings.add(fractalSettingNebula);
 		gridSettings.add(fractalSettingSmoothLabel);
 		gridSettings.add(fractalSettingSmooth);
+		gridSettings.add(fractalSettingSubdivideLabel);
+		gridSettings.add(fractalSettingSubdivide);
 		gridSettings.add(new JLabel("Invert Image"));
 		gridSettings.add(fractalSettingInvert);
 		gridSettings.add(new JLabel("Live Julia"));
 		gridSettings.add(liveJulia);
+		gridSettings.add(tiledViewLabel);
+		gridSettings.add(tiledView);
+		gridSettings.add(calculatorThreadsLabel);
+		gridSettings.add(calculatorThreads);
+		gridSettings.add(calculatorTileSizeLabel);
+		gridSettings.add(calculatorTileSize);
+		gridSettings.add(cacheBudgetLabel);
+		gridSettings.add(cacheBudget);
+		gridSettings.add(tileStoreBudgetLabel);
+		gridSettings.add(tileStoreBudget);
 
 		// Style our long menu
 		for(Component c : gridSettings.getComponents()) {
@@ -263,9 +340,8 @@ public class FractalSettingsFrame extends JFrame {
 						ohno.printStackTrace();
 					}
 					
-					// Disable radios so this can't happen again
+					// Disable the radio so this can't happen again
 					javaRadio.setSelected(true);
-					javaRadio.setEnabled(false);
 					openclRadio.setEnabled(false);
 				}
 				
@@ -280,6 +356,44 @@ public class FractalSettingsFrame extends JFrame {
 			}
 		});
 		
+		simdRadio.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					Calculable.set(SimdCalculator.class);
+				} catch (Exception e1) {
+					System.err.println("Error setting SIMD Calculator");
+				}
+				
+				// Update fractals list
+				fractalsCombo.removeAllItems();
+				for(String s : Calculable.getImplemented()) fractalsCombo.addItem(s);
+				fractalsCombo.setSelectedItem(FractalSettingsFrame.this.fractalExplorer.fractal.getFractal());
+				
+				// Regenerate fractals
+				FractalSettingsFrame.this.fractalExplorer.fractal.regenerate();
+				FractalSettingsFrame.this.fractalExplorer.julia.regenerate();
+			}
+		});
+		
+		deepRadio.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					Calculable.set(PerturbationCalculator.class);
+				} catch (Exception e1) {
+					System.err.println("Error setting Perturbation Calculator");
+				}
+				
+				// Update fractals list
+				fractalsCombo.removeAllItems();
+				for(String s : Calculable.getImplemented()) fractalsCombo.addItem(s);
+				fractalsCombo.setSelectedItem(FractalSettingsFrame.this.fractalExplorer.fractal.getFractal());
+				
+				// Regenerate fractals
+				FractalSettingsFrame.this.fractalExplorer.fractal.regenerate();
+				FractalSettingsFrame.this.fractalExplorer.julia.regenerate();
+			}
+		});
+		
 		fractalsCombo.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
@@ -347,6 +461,20 @@ public class FractalSettingsFrame extends JFrame {
 				} catch (NumberFormatException ignored) {}
 			}
 		});
+		fractalSettingPeriodicity.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					FractalSettingsFrame.this.fractalExplorer.fractal.setPeriodicity(Double.parseDouble(fractalSettingPeriodicity.getText()));
+				} catch (NumberFormatException ignored) {}
+			}
+		});
+		fractalSettingPrecision.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				if(!fractalSettingPrecision.getSelectedItem().equals(FractalSettingsFrame.this.fractalExplorer.fractal.getPrecision())) {
+					FractalSettingsFrame.this.fractalExplorer.fractal.setPrecision((String) fractalSettingPrecision.getSelectedItem());
+				}
+			}
+		});
 		fractalSettingOrder.addActionListener(new ActionListener() {
 			@Override public void actionPerformed(ActionEvent e) {
 				try {
@@ -364,6 +492,11 @@ public class FractalSettingsFrame extends JFrame {
 				FractalSettingsFrame.this.fractalExplorer.fractal.setSmooth(fractalSettingSmooth.isSelected());
 			}
 		});
+		fractalSettingSubdivide.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				FractalSettingsFrame.this.fractalExplorer.fractal.setSubdivide(fractalSettingSubdivide.isSelected());
+			}
+		});
 		fractalSettingInvert.addActionListener(new ActionListener() {
 			@Override public void actionPerformed(ActionEvent e) {
 				FractalSettingsFrame.this.fractalExplorer.fractal.setInvert(fractalSettingInvert.isSelected());
@@ -379,6 +512,25 @@ public class FractalSettingsFrame extends JFrame {
 				);
 			}
 		});
+		fractalSettingAntiBuddha.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				FractalSettingsFrame.this.fractalExplorer.fractal.setAntiBuddha(fractalSettingAntiBuddha.isSelected());
+			}
+		});
+		fractalSettingSamples.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					FractalSettingsFrame.this.fractalExplorer.fractal.setSamples(Math.max(0, Integer.parseInt(fractalSettingSamples.getText())));
+				} catch (NumberFormatException ignored) {}
+			}
+		});
+		fractalSettingNebula.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					FractalSettingsFrame.this.fractalExplorer.fractal.setNebula(FractalState.parseNebula(fractalSettingNebula.getText()));
+				} catch (IllegalArgumentException ignored) {}
+			}
+		});
 		fractalSettingOrbitTraps.addActionListener(new ActionListener() {
 			@Override public void actionPerformed(ActionEvent e) {
 				fractalSettingRegionSplit.setEnabled(
@@ -414,13 +566,19 @@ public class FractalSettingsFrame extends JFrame {
 				fractalSettingIterations.setText(Integer.toString(FractalSettingsFrame.this.fractalExplorer.fractal.getIterations()));
 				fractalSettingThreshold.setText(String.format("%.7f", FractalSettingsFrame.this.fractalExplorer.fractal.getThreshold()));
 				fractalSettingOrder.setText(Integer.toString(FractalSettingsFrame.this.fractalExplorer.fractal.getOrder()));
+				fractalSettingPeriodicity.setText(Double.toString(FractalSettingsFrame.this.fractalExplorer.fractal.getPeriodicity()));
 				fractalSettingBuddha.setSelected(FractalSettingsFrame.this.fractalExplorer.fractal.isBuddha());
 				fractalSettingBuddha.setEnabled(FractalSettingsFrame.this.fractalExplorer.fractal.getOrbitTraps().equals("None"));
+				fractalSettingAntiBuddha.setSelected(FractalSettingsFrame.this.fractalExplorer.fractal.isAntiBuddha());
+				fractalSettingSamples.setText(Integer.toString(FractalSettingsFrame.this.fractalExplorer.fractal.getSamples()));
+				fractalSettingNebula.setText(FractalState.formatNebula(FractalSettingsFrame.this.fractalExplorer.fractal.getNebula()));
 				fractalSettingInverse.setSelected(FractalSettingsFrame.this.fractalExplorer.fractal.isInverse());
 				fractalSettingSmooth.setSelected(FractalSettingsFrame.this.fractalExplorer.fractal.isSmooth());
 				fractalSettingInvert.setSelected(FractalSettingsFrame.this.fractalExplorer.fractal.isInvert());
+				fractalSettingSubdivide.setSelected(FractalSettingsFrame.this.fractalExplorer.fractal.isSubdivide());
 				fractalSettingOrbitTraps.setSelectedItem(FractalSettingsFrame.this.fractalExplorer.fractal.getOrbitTraps());
 				fractalSettingRegionSplit.setSelectedItem(FractalSettingsFrame.this.fractalExplorer.fractal.getRegionSplits());
+				fractalSettingPrecision.setSelectedItem(FractalSettingsFrame.this.fractalExplorer.fractal.getPrecision());
 				fractalSettingOrbitTraps.setEnabled(!fractalSettingBuddha.isSelected());
 				fractalSettingRegionSplit.setEnabled(
 					fractalSettingOrbitTraps.getSelectedIndex() != 0 &&
@@ -429,6 +587,50 @@ public class FractalSettingsFrame extends JFrame {
 			}
 		});
 		
+		calculatorThreads.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					JavaCalculator.setThreads(Integer.parseInt(calculatorThreads.getText()));
+				} catch (IllegalArgumentException ignored) {
+					calculatorThreads.setText(Integer.toString(JavaCalculator.getThreads()));
+				}
+			}
+		});
+		calculatorTileSize.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					JavaCalculator.setTileSize(Integer.parseInt(calculatorTileSize.getText()));
+				} catch (IllegalArgumentException ignored) {
+					calculatorTileSize.setText(Integer.toString(JavaCalculator.getTileSize()));
+				}
+			}
+		});
+		
+		cacheBudget.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					ResultCache.setBudget(Integer.parseInt(cacheBudget.getText()));
+				} catch (IllegalArgumentException ignored) {
+					cacheBudget.setText(Integer.toString(ResultCache.getBudget()));
+				}
+			}
+		});
+		tileStoreBudget.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				try {
+					TileStore.setBudget(Integer.parseInt(tileStoreBudget.getText()));
+				} catch (IllegalArgumentException ignored) {
+					tileStoreBudget.setText(Integer.toString(TileStore.getBudget()));
+				}
+			}
+		});
+		
+		tiledView.addActionListener(new ActionListener() {
+			@Override public void actionPerformed(ActionEvent e) {
+				FractalSettingsFrame.this.fractalExplorer.fractal.setTiled(tiledView.isSelected());
+			}
+		});
+		
 		liveJulia.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
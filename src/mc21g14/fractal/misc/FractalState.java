@@ -1,6 +1,10 @@
 package mc21g14.fractal.misc;
 
+import java.awt.Dimension;
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
 
 import mc21g14.fractal.colorable.*;
 
@@ -31,6 +35,31 @@ public class FractalState implements Cloneable, Serializable {
 	public String    regionSplits  = "None";
 	public Colorable coloring      = new HueShift();
 	public boolean   invert        = false;
+	public boolean   subdivide     = false;
+	
+	// How close an orbit has to get to an earlier point to be treated as periodic, and so never
+	// escaping. 0 only catches exact repeats, negative turns off every interior check.
+	public double    periodicity   = 1e-10;
+	
+	// Number type used for each pixel, Auto picks one from the pixel spacing. See Precision
+	public String    precision     = "Auto";
+	
+	// Buddha traces the orbits that don't escape instead of those that do
+	public boolean   antiBuddha    = false;
+	
+	// Orbits Buddha traces per pixel. States saved before this existed have 0, the default
+	public int       samples       = 20;
+	
+	// Iteration limits of the red, green and blue channels of a Nebulabrot, null for a plain
+	// Buddhabrot. Replaced rather than changed, so clones can share it.
+	public int[]     nebula        = null;
+	
+	// The centre of the view in high precision, and its size. The edges above are doubles, which
+	// can't tell pixels apart past a zoom of about 1e-14, but they are still kept up to date. If
+	// anything changes the edges directly the centre is worked out from them again.
+	protected BigDecimal centerR, centerI;
+	protected double     width,   height;
+	protected double     viewStart, viewEnd, viewTop, viewBottom;
 	
 	/**
 	 * Initialise a state with default variables
@@ -44,7 +73,9 @@ public class FractalState implements Cloneable, Serializable {
 		double   start,        double  end,        double  top,        double  bottom, 
         int      iterations,   double  threshold,  boolean smooth,     Complex seed,
         String   selected,     int     order,      boolean inverse,    boolean buddha,
-        String   regionSplits, String  orbitTraps, Colorable coloring, boolean invert
+        String   regionSplits, String  orbitTraps, Colorable coloring, boolean invert,
+        boolean  subdivide,    double  periodicity, String  precision, boolean antiBuddha,
+        int      samples,      int[]   nebula
 	) {
 		this.start        = start;
 		this.end          = end;
@@ -62,14 +93,199 @@ public class FractalState implements Cloneable, Serializable {
 		this.orbitTraps   = orbitTraps;
 		this.coloring     = coloring;
 		this.invert       = invert;
+		this.subdivide    = subdivide;
+		this.periodicity  = periodicity;
+		this.precision    = precision;
+		this.antiBuddha   = antiBuddha;
+		this.samples      = samples;
+		this.nebula       = nebula;
 	}
 	
 	@Override
 	public FractalState clone() {
-		return new FractalState(
+		FractalState state = new FractalState(
 			start, end, top, bottom, iterations, threshold, smooth, seed, fractal, order, inverse,
-			buddha, regionSplits, orbitTraps, coloring, invert
+			buddha, regionSplits, orbitTraps, coloring, invert, subdivide, periodicity, precision,
+			antiBuddha, samples, nebula
 		);
+		
+		// The view, BigDecimal is immutable so it can be shared
+		state.centerR   = centerR;   state.centerI = centerI;
+		state.width     = width;     state.height  = height;
+		state.viewStart = viewStart; state.viewEnd = viewEnd; state.viewTop = viewTop; state.viewBottom = viewBottom;
+		return state;
+	}
+	
+	/**
+	 * @return True if the high precision centre matches the edges
+	 */
+	protected boolean hasCenter() {
+		return centerR != null && start == viewStart && end == viewEnd && top == viewTop && bottom == viewBottom;
+	}
+	
+	/**
+	 * @return The real part of the centre of the view
+	 */
+	public BigDecimal getCenterR() {
+		// Halving a double is always exact
+		return hasCenter() ? centerR : new BigDecimal(start).add(new BigDecimal(end)).divide(BigDecimal.valueOf(2));
+	}
+	
+	/**
+	 * @return The imaginary part of the centre of the view
+	 */
+	public BigDecimal getCenterI() {
+		return hasCenter() ? centerI : new BigDecimal(top).add(new BigDecimal(bottom)).divide(BigDecimal.valueOf(2));
+	}
+	
+	/**
+	 * @return The distance from the left to the right of the view
+	 */
+	public double getWidth() {
+		return hasCenter() ? width : end - start;
+	}
+	
+	/**
+	 * @return The distance from the top to the bottom of the view
+	 */
+	public double getHeight() {
+		return hasCenter() ? height : bottom - top;
+	}
+	
+	/**
+	 * Get enough precision to tell pixels apart at the current zoom, with plenty to spare
+	 * @return The precision
+	 */
+	public MathContext getPrecision() {
+		return precisionFor(getWidth(), getHeight());
+	}
+	
+	protected static MathContext precisionFor(double width, double height) {
+		double smallest = Math.min(Math.abs(width), Math.abs(height));
+		int    digits   = smallest > 0 ? (int) Math.ceil(-Math.log10(smallest)) : 0;
+		return new MathContext(20 + Math.max(0, digits));
+	}
+	
+	/**
+	 * Set the view
+	 * @param centerR The real part of the centre
+	 * @param centerI The imaginary part of the centre
+	 * @param width The distance from the left to the right
+	 * @param height The distance from the top to the bottom
+	 */
+	public void setView(BigDecimal centerR, BigDecimal centerI, double width, double height) {
+		this.width  = width;
+		this.height = height;
+		
+		MathContext precision = precisionFor(width, height);
+		this.centerR = centerR.round(precision);
+		this.centerI = centerI.round(precision);
+		
+		BigDecimal halfWidth  = new BigDecimal(width  / 2);
+		BigDecimal halfHeight = new BigDecimal(height / 2);
+		start  = viewStart  = this.centerR.subtract(halfWidth).doubleValue();
+		end    = viewEnd    = this.centerR.add(halfWidth).doubleValue();
+		top    = viewTop    = this.centerI.subtract(halfHeight).doubleValue();
+		bottom = viewBottom = this.centerI.add(halfHeight).doubleValue();
+	}
+	
+	/**
+	 * Get the real distance of a pixel from the centre of the view. Calculators add this to the
+	 * centre, which keeps the precision of the centre.
+	 * @param x The x coordinate of the pixel, may be fractional
+	 * @param pixels The width of the image
+	 * @return The distance
+	 */
+	public double offsetR(double x, int pixels) {
+		return getWidth() * (x / pixels - 0.5);
+	}
+	
+	/**
+	 * Get the imaginary distance of a pixel from the centre of the view
+	 * @param y The y coordinate of the pixel, may be fractional
+	 * @param pixels The height of the image
+	 * @return The distance
+	 */
+	public double offsetI(double y, int pixels) {
+		return getHeight() * (y / pixels - 0.5);
+	}
+	
+	/**
+	 * Zoom in or out of the centre
+	 * @param factor The new size of the view, relative to the current size
+	 */
+	public void zoom(double factor) {
+		setView(getCenterR(), getCenterI(), getWidth() * factor, getHeight() * factor);
+	}
+	
+	/**
+	 * Move the view
+	 * @param r The real distance to move
+	 * @param i The imaginary distance to move
+	 */
+	public void translate(double r, double i) {
+		setView(getCenterR().add(new BigDecimal(r)), getCenterI().add(new BigDecimal(i)), getWidth(), getHeight());
+	}
+	
+	/**
+	 * Zoom into a rectangle of pixels
+	 * @param size The size of the image
+	 * @param x0 The left of the rectangle
+	 * @param y0 The top of the rectangle
+	 * @param x1 The right of the rectangle
+	 * @param y1 The bottom of the rectangle
+	 */
+	public void zoomTo(Dimension size, double x0, double y0, double x1, double y1) {
+		setView(
+			getCenterR().add(new BigDecimal(offsetR((x0 + x1) / 2, size.width))),
+			getCenterI().add(new BigDecimal(offsetI((y0 + y1) / 2, size.height))),
+			getWidth()  * (x1 - x0) / size.width,
+			getHeight() * (y1 - y0) / size.height
+		);
+	}
+	
+	/**
+	 * Get the state of a rectangle of pixels, such as a band of an export
+	 * @param size The size of the image
+	 * @param x0 The left of the rectangle
+	 * @param y0 The top of the rectangle
+	 * @param x1 The right of the rectangle
+	 * @param y1 The bottom of the rectangle
+	 * @return A new state, showing only the rectangle
+	 */
+	public FractalState region(Dimension size, double x0, double y0, double x1, double y1) {
+		FractalState region = clone();
+		region.zoomTo(size, x0, y0, x1, y1);
+		return region;
+	}
+	
+	/**
+	 * Parse the iteration limits of a Nebulabrot
+	 * @param value Red, green and blue limits separated by commas, or "none"
+	 * @return The limits, or null for none
+	 */
+	public static int[] parseNebula(String value) {
+		if(value.trim().isEmpty() || value.trim().equalsIgnoreCase("none")) return null;
+		
+		String[] parts  = value.split(",");
+		int[]    limits = new int[parts.length];
+		for(int i = 0; i < parts.length; i++) limits[i] = Integer.parseInt(parts[i].trim());
+		
+		if(limits.length != 3) throw new IllegalArgumentException("Nebula needs red, green and blue iterations, not " + value);
+		for(int limit : limits) if(limit < 1) throw new IllegalArgumentException("Nebula iterations must be at least 1, not " + value);
+		return limits;
+	}
+	
+	/**
+	 * @param limits The iteration limits of a Nebulabrot, or null
+	 * @return The limits, as parseNebula reads them
+	 */
+	public static String formatNebula(int[] limits) {
+		if(limits == null) return "None";
+		
+		StringBuilder builder = new StringBuilder();
+		for(int limit : limits) builder.append(builder.length() > 0 ? ", " : "").append(limit);
+		return builder.toString();
 	}
 	
 	@Override
@@ -94,6 +310,16 @@ public class FractalState implements Cloneable, Serializable {
 	    	   this.regionSplits == that.regionSplits &&
 	    	   this.orbitTraps   == that.orbitTraps   &&
 	    	   this.coloring     == that.coloring     &&
-	    	   this.invert       == that.invert       ;
+	    	   this.invert       == that.invert       &&
+	    	   this.subdivide    == that.subdivide    &&
+	    	   this.periodicity  == that.periodicity  &&
+	    	   this.precision    == that.precision    &&
+	    	   this.antiBuddha   == that.antiBuddha   &&
+	    	   this.samples      == that.samples      &&
+	    	   Arrays.equals(this.nebula, that.nebula) &&
+	    	   this.getCenterR().compareTo(that.getCenterR()) == 0 &&
+	    	   this.getCenterI().compareTo(that.getCenterI()) == 0 &&
+	    	   this.getWidth()   == that.getWidth()   &&
+	    	   this.getHeight()  == that.getHeight()  ;
 	}
 }
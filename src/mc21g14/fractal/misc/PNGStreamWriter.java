@@ -0,0 +1,138 @@
+package mc21g14.fractal.misc;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG one row at a time, so the whole image never needs to be in memory. ImageIO needs
+ * the whole image up front, which limits the size of an export to the heap.
+ *
+ * @author Matthew Consterdine
+ */
+public class PNGStreamWriter implements Closeable {
+	protected final DataOutputStream     output;
+	protected final Deflater             compressor;
+	protected final DeflaterOutputStream deflater;
+	protected final int                  width;
+	protected final int                  height;
+
+	protected byte[] row;
+	protected int    rows = 0;
+
+	/**
+	 * Start writing a 24 bit RGB PNG
+	 * @param stream Where to write to, closed when this is closed
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @throws IOException If writing fails
+	 */
+	public PNGStreamWriter(OutputStream stream, int width, int height) throws IOException {
+		this.output   = new DataOutputStream(new BufferedOutputStream(stream));
+		this.width    = width;
+		this.height   = height;
+		this.row      = new byte[1 + 3 * width];
+
+		// Signature
+		output.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+
+		// Header: size, 8 bits per channel, RGB, deflate, adaptive filtering, no interlacing
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream      data   = new DataOutputStream(header);
+		data.writeInt(width);
+		data.writeInt(height);
+		data.write(new byte[] {8, 2, 0, 0, 0});
+		writeChunk("IHDR", header.toByteArray(), header.size());
+
+		// Image data is compressed as a single stream, split between as many IDAT chunks as needed
+		compressor = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		deflater   = new DeflaterOutputStream(new ChunkOutputStream(), compressor, 1 << 16);
+	}
+
+	/**
+	 * Write rows of the image, in the same layout as Colorable.iterationsToARGB
+	 * @param argb Packed ARGB colors, one int per pixel. Alpha is ignored
+	 * @param offset The first row in argb to write
+	 * @param count Number of rows to write
+	 * @throws IOException If writing fails
+	 */
+	public void writeRows(int[] argb, int offset, int count) throws IOException {
+		for(int y = offset; y < offset + count; y++) {
+			if(rows >= height) throw new IOException("Too many rows, the image is only " + height + " high");
+
+			// The Sub filter stores each byte as the difference from the pixel to its left, which
+			// compresses smooth gradients far better than raw values
+			row[0] = 1;
+			int base = width * y, left = 0;
+			for(int x = 0; x < width; x++) {
+				int pixel = argb[base + x];
+				row[1 + 3 * x + 0] = (byte) ((pixel >> 16) - (left >> 16));
+				row[1 + 3 * x + 1] = (byte) ((pixel >>  8) - (left >>  8));
+				row[1 + 3 * x + 2] = (byte) ( pixel        -  left       );
+				left = pixel;
+			}
+
+			deflater.write(row);
+			rows++;
+		}
+	}
+
+	/**
+	 * Finish the image and close the stream
+	 * @throws IOException If the image is incomplete or writing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		deflater.finish();
+		deflater.flush();
+		compressor.end();
+		writeChunk("IEND", new byte[0], 0);
+		output.close();
+
+		if(rows != height) throw new IOException("Only " + rows + " of " + height + " rows were written");
+	}
+
+	protected void writeChunk(String type, byte[] data, int length) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(type.getBytes("US-ASCII"));
+		crc.update(data, 0, length);
+
+		output.writeInt(length);
+		output.writeBytes(type);
+		output.write(data, 0, length);
+		output.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Buffers compressed data, writing an IDAT chunk whenever the buffer is full
+	 */
+	protected class ChunkOutputStream extends OutputStream {
+		protected byte[] buffer = new byte[1 << 16];
+		protected int    length = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			if(length == buffer.length) flush();
+			buffer[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0) {
+				if(length == buffer.length) flush();
+				int count = Math.min(len, buffer.length - length);
+				System.arraycopy(b, off, buffer, length, count);
+				length += count;
+				off    += count;
+				len    -= count;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if(length > 0) writeChunk("IDAT", buffer, length);
+			length = 0;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package mc21g14.fractal.misc;
+
+import java.awt.Dimension;
+import java.io.*;
+
+import mc21g14.fractal.calculable.Calculable;
+import mc21g14.fractal.calculable.Precision;
+import mc21g14.fractal.colorable.Histogram;
+
+/**
+ * Exports fractals of any size as PNGs. The image is calculated and colored a band of rows at a
+ * time, and each band is written out before the next is started, so memory use depends on the
+ * size of a band rather than the size of the image. Histogram coloring needs the whole image
+ * counted before any of it is colored, so its bands are calculated and counted first, kept in a
+ * temporary file, then colored. Buddha orbits land anywhere in the image, so it can't be split
+ * into bands and is calculated whole, which limits how large it can be.
+ *
+ * @author Matthew Consterdine
+ */
+public class TiledExporter {
+	// Roughly 4 million pixels per band, about 100MB of data and colors
+	protected static int bandPixels = 1 << 22;
+
+	// Buddha images are calculated whole, their counts alone taking 8 bytes a pixel per channel and
+	// each thread keeping its own. 8K fits, about 1.5GB with a single channel and four threads.
+	protected static int buddhaPixels = 1 << 25;
+
+	/**
+	 * Export a fractal to a PNG
+	 * @param state The fractal state we want to render
+	 * @param size The size of the image
+	 * @param file Where to save the image
+	 * @throws IOException If writing fails
+	 */
+	public static void export(FractalState state, Dimension size, File file) throws IOException {
+		checkSize(state, size);
+
+		try(PNGStreamWriter writer = new PNGStreamWriter(new FileOutputStream(file), size.width, size.height)) {
+			if(state.buddha) {
+				int[] argb = FractalRenderer.color(state, Calculable.calcSync(state, size), size);
+				writer.writeRows(argb, 0, size.height);
+				return;
+			}
+
+			if(state.coloring instanceof Histogram) {
+				exportEqualized(state, size, writer);
+				return;
+			}
+
+			int bandHeight = Math.max(1, bandPixels / size.width);
+
+			for(int y = 0; y < size.height; y += bandHeight) {
+				int rows = Math.min(bandHeight, size.height - y);
+
+				// Include a row either side, as some colorings look at neighbouring pixels
+				int top    = Math.max(0, y - 1);
+				int bottom = Math.min(size.height, y + rows + 1);
+
+				Dimension    bandSize  = new Dimension(size.width, bottom - top);
+				FractalState bandState = bandOf(state, size, top, bottom);
+
+				int[] argb = FractalRenderer.color(bandState, Calculable.calcSync(bandState, bandSize), bandSize);
+				writer.writeRows(argb, y - top, rows);
+			}
+		}
+	}
+
+	/**
+	 * Export with histogram coloring, every band colored from the histogram of the whole image
+	 * @param state The fractal state, its coloring a Histogram
+	 * @param size The size of the image
+	 * @param writer Where the rows go
+	 * @throws IOException If writing fails
+	 */
+	protected static void exportEqualized(FractalState state, Dimension size, PNGStreamWriter writer) throws IOException {
+		int    bandHeight = Math.max(1, bandPixels / size.width);
+		long[] counts     = new long[state.iterations + 1];
+		File   bands      = File.createTempFile("export", ".bands");
+		try {
+			// Calculate and count every band, only counting the rows that are written so the
+			// overlaps aren't counted twice
+			try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(bands), 1 << 16))) {
+				for(int y = 0; y < size.height; y += bandHeight) {
+					int rows   = Math.min(bandHeight, size.height - y);
+					int top    = Math.max(0, y - 1);
+					int bottom = Math.min(size.height, y + rows + 1);
+
+					FractalState bandState = bandOf(state, size, top, bottom);
+					double[]     data      = Calculable.calcSync(bandState, new Dimension(size.width, bottom - top));
+					Histogram.count(data, (y - top) * size.width, (y - top + rows) * size.width, state.iterations, counts);
+
+					// Unshared and reset, or the stream would hold on to every band
+					out.writeUnshared(data);
+					out.reset();
+				}
+			}
+
+			// A copy of the coloring, so whatever else is colored with it isn't affected
+			FractalState colored   = state.clone();
+			Histogram    histogram = (Histogram) state.coloring.clone();
+			histogram.setCounts(counts);
+			colored.coloring = histogram;
+
+			try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(bands), 1 << 16))) {
+				for(int y = 0; y < size.height; y += bandHeight) {
+					int rows   = Math.min(bandHeight, size.height - y);
+					int top    = Math.max(0, y - 1);
+					int bottom = Math.min(size.height, y + rows + 1);
+
+					double[] data = (double[]) in.readUnshared();
+					int[]    argb = FractalRenderer.color(colored, data, new Dimension(size.width, bottom - top));
+					writer.writeRows(argb, y - top, rows);
+				}
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Error reading " + bands + ": " + e.getMessage(), e);
+			}
+		} finally {
+			bands.delete();
+		}
+	}
+
+	/**
+	 * Export fractal data that has already been calculated to a PNG
+	 * @param state The fractal state, used for the coloring
+	 * @param data The fractal data
+	 * @param size The size of the image
+	 * @param file Where to save the image
+	 * @throws IOException If writing fails
+	 */
+	public static void export(FractalState state, double[] data, Dimension size, File file) throws IOException {
+		try(PNGStreamWriter writer = new PNGStreamWriter(new FileOutputStream(file), size.width, size.height)) {
+			writer.writeRows(FractalRenderer.color(state, data, size), 0, size.height);
+		}
+	}
+
+	/**
+	 * Check an image isn't too large to export, as Buddha images can't be split into bands
+	 * @param state The fractal state we want to render
+	 * @param size The size of the image
+	 * @throws IOException If it's a Buddha image over the limit
+	 */
+	public static void checkSize(FractalState state, Dimension size) throws IOException {
+		long pixels = (long) size.width * size.height;
+		if(!state.buddha || pixels <= buddhaPixels) return;
+
+		throw new IOException(String.format(
+			"Buddha images are calculated whole, so can be at most %,d pixels, %dx%d is %,d",
+			buddhaPixels, size.width, size.height, pixels
+		));
+	}
+
+	/**
+	 * Get the state of a band of rows of a larger image. The band keeps the precision of the whole
+	 * image, as each band has its own centre and could otherwise pick another, leaving seams.
+	 * @param state The state of the whole image
+	 * @param size The size of the whole image
+	 * @param top The first row of the band
+	 * @param bottom The row after the last row of the band
+	 * @return The state of the band
+	 */
+	public static FractalState bandOf(FractalState state, Dimension size, int top, int bottom) {
+		FractalState region = state.region(size, 0, top, size.width, bottom);
+		region.precision = Precision.choose(state, size);
+		return region;
+	}
+}
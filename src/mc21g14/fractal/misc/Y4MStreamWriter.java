@@ -0,0 +1,94 @@
+package mc21g14.fractal.misc;
+
+import java.io.*;
+
+/**
+ * Writes raw YUV4MPEG2 video a frame at a time, which ffmpeg and most encoders read straight from
+ * a pipe, so an animation never has to be kept as images. Frames are 4:2:0 with BT.601 limited
+ * range colors, the same as ffmpeg's yuv420p.
+ *
+ * @author Matthew Consterdine
+ */
+public class Y4MStreamWriter implements Closeable {
+	protected final OutputStream output;
+	protected final int          width;
+	protected final int          height;
+
+	// Planes of the frame being written, chroma is a quarter the size of luma
+	protected final byte[] y, u, v;
+
+	protected int frames = 0;
+
+	/**
+	 * Start writing a video
+	 * @param stream Where to write to, closed when this is closed
+	 * @param width The width of each frame, which must be even
+	 * @param height The height of each frame, which must be even
+	 * @param fps Frames per second
+	 * @throws IOException If writing fails
+	 */
+	public Y4MStreamWriter(OutputStream stream, int width, int height, int fps) throws IOException {
+		if(width % 2 != 0 || height % 2 != 0) throw new IllegalArgumentException("Y4M frames must be an even size, not " + width + "x" + height);
+
+		this.output = new BufferedOutputStream(stream, 1 << 16);
+		this.width  = width;
+		this.height = height;
+		this.y      = new byte[width * height];
+		this.u      = new byte[width * height / 4];
+		this.v      = new byte[width * height / 4];
+
+		output.write(("YUV4MPEG2 W" + width + " H" + height + " F" + fps + ":1 Ip A1:1 C420jpeg\n").getBytes("US-ASCII"));
+	}
+
+	/**
+	 * Write a frame
+	 * @param argb Packed ARGB colors, one int per pixel, in the same layout as
+	 * Colorable.iterationsToARGB. Alpha is ignored
+	 * @throws IOException If writing fails
+	 */
+	public void writeFrame(int[] argb) throws IOException {
+		if(argb.length != width * height) throw new IllegalArgumentException("Frame is " + argb.length + " pixels, not " + width * height);
+
+		for(int i = 0; i < argb.length; i++) {
+			int pixel = argb[i];
+			int r = pixel >> 16 & 0xFF, g = pixel >> 8 & 0xFF, b = pixel & 0xFF;
+			y[i] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+		}
+
+		// Chroma is the average of each 2x2 block
+		for(int cy = 0; cy < height / 2; cy++) {
+			for(int cx = 0; cx < width / 2; cx++) {
+				int i = 2 * cy * width + 2 * cx;
+				int a = argb[i], b = argb[i + 1], c = argb[i + width], d = argb[i + width + 1];
+				int red   = ((a >> 16 & 0xFF) + (b >> 16 & 0xFF) + (c >> 16 & 0xFF) + (d >> 16 & 0xFF) + 2) >> 2;
+				int green = ((a >>  8 & 0xFF) + (b >>  8 & 0xFF) + (c >>  8 & 0xFF) + (d >>  8 & 0xFF) + 2) >> 2;
+				int blue  = ((a       & 0xFF) + (b       & 0xFF) + (c       & 0xFF) + (d       & 0xFF) + 2) >> 2;
+
+				u[cy * width / 2 + cx] = (byte) (((-38 * red -  74 * green + 112 * blue + 128) >> 8) + 128);
+				v[cy * width / 2 + cx] = (byte) (((112 * red -  94 * green -  18 * blue + 128) >> 8) + 128);
+			}
+		}
+
+		output.write("FRAME\n".getBytes("US-ASCII"));
+		output.write(y);
+		output.write(u);
+		output.write(v);
+		frames++;
+	}
+
+	/**
+	 * @return Number of frames written
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Finish the video and close the stream
+	 * @throws IOException If writing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+}